@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.entities.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One request of a batch of recommendation requests: the user to recommend for
+ * and the products in the user's cart.
+ */
+public class RecommendationRequest {
+
+	private Long uid;
+	private List<Long> productIds = new ArrayList<Long>();
+
+	/**
+	 * Constructor, creates a request without user for an empty cart.
+	 */
+	public RecommendationRequest() {
+
+	}
+
+	/**
+	 * Constructor.
+	 * @param uid userid, may be null
+	 * @param productIds product ids in the cart
+	 */
+	public RecommendationRequest(Long uid, List<Long> productIds) {
+		setUID(uid);
+		setProductIds(productIds);
+	}
+
+	/**
+	 * Getter for the userid.
+	 * @return userid, may be null
+	 */
+	public Long getUID() {
+		return uid;
+	}
+
+	/**
+	 * Setter for the userid.
+	 * @param uID userid, may be null
+	 */
+	public void setUID(Long uID) {
+		uid = uID;
+	}
+
+	/**
+	 * Getter for the product ids in the cart.
+	 * @return product ids
+	 */
+	public List<Long> getProductIds() {
+		return productIds;
+	}
+
+	/**
+	 * Setter for the product ids in the cart.
+	 * @param productIds product ids
+	 */
+	public void setProductIds(List<Long> productIds) {
+		this.productIds = productIds;
+	}
+}
@@ -13,6 +13,7 @@
  */
 package tools.descartes.teastore.persistence.domain;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -147,6 +148,37 @@ public final class OrderItemRepository extends AbstractPersistenceRepository<Ord
 		}
 		return entities;
 	}
+
+	/**
+	 * Gets the order items of all orders placed after the specified time, ordered by ID,
+	 * so consecutive pages neither overlap nor skip order items.
+	 * @param since The time after which the orders were placed. Null to get all order items.
+	 * @param start The index of the first orderItem to return. Negative value to start at the beginning.
+	 * @param limit The maximum number of orderItem to return. Negative value to return all.
+	 * @return List of order items in orders placed after the time.
+	 */
+	public List<PersistenceOrderItem> getAllEntitiesSince(LocalDateTime since, int start, int limit) {
+		if (since == null) {
+			return getAllEntities(start, limit);
+		}
+		List<PersistenceOrderItem> entities = null;
+		EntityManager em = getEM();
+	    try {
+	        em.getTransaction().begin();
+	        TypedQuery<PersistenceOrderItem> allMatchesQuery =
+	        		em.createQuery("SELECT u FROM " + getEntityClass().getName()
+	        				+ " u WHERE u.order.orderTime > :since ORDER BY u.id", getEntityClass());
+	        allMatchesQuery.setParameter("since", since);
+	        entities = resultsWithStartAndLimit(em, allMatchesQuery, start, limit);
+	        em.getTransaction().commit();
+	    } finally {
+	        em.close();
+	    }
+		if (entities == null) {
+			return new ArrayList<PersistenceOrderItem>();
+		}
+		return entities;
+	}
 	
 	/**
 	 * {@inheritDoc}
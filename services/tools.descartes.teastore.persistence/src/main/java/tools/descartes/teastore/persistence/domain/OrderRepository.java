@@ -13,6 +13,7 @@
  */
 package tools.descartes.teastore.persistence.domain;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -128,6 +129,64 @@ public final class OrderRepository extends AbstractPersistenceRepository<Order,
 		return entities;
 	}
 
+	/**
+	 * Counts the orders placed after the specified time. Much cheaper than
+	 * retrieving the orders, as only the count is transferred from the database.
+	 * @param since The time after which the counted orders were placed. Null to count all orders.
+	 * @return The number of orders placed after the time.
+	 */
+	public long countEntitiesSince(LocalDateTime since) {
+		long count = 0;
+		EntityManager em = getEM();
+	    try {
+	        em.getTransaction().begin();
+	        TypedQuery<Long> countQuery;
+	        if (since == null) {
+	        	countQuery = em.createQuery("SELECT COUNT(u) FROM " + getEntityClass().getName() + " u", Long.class);
+	        } else {
+	        	countQuery = em.createQuery("SELECT COUNT(u) FROM " + getEntityClass().getName()
+	        			+ " u WHERE u.orderTime > :since", Long.class);
+	        	countQuery.setParameter("since", since);
+	        }
+	        count = countQuery.getSingleResult();
+	        em.getTransaction().commit();
+	    } finally {
+	        em.close();
+	    }
+		return count;
+	}
+
+	/**
+	 * Gets the orders placed after the specified time, ordered by ID, so consecutive
+	 * pages neither overlap nor skip orders.
+	 * @param since The time after which the orders were placed. Null to get all orders.
+	 * @param start The index of the first order to return. Negative value to start at the beginning.
+	 * @param limit The maximum number of orders to return. Negative value to return all.
+	 * @return List of orders placed after the time.
+	 */
+	public List<PersistenceOrder> getAllEntitiesSince(LocalDateTime since, int start, int limit) {
+		if (since == null) {
+			return getAllEntities(start, limit);
+		}
+		List<PersistenceOrder> entities = null;
+		EntityManager em = getEM();
+	    try {
+	        em.getTransaction().begin();
+	        TypedQuery<PersistenceOrder> allMatchesQuery =
+	        		em.createQuery("SELECT u FROM " + getEntityClass().getName()
+	        				+ " u WHERE u.orderTime > :since ORDER BY u.id", getEntityClass());
+	        allMatchesQuery.setParameter("since", since);
+	        entities = resultsWithStartAndLimit(em, allMatchesQuery, start, limit);
+	        em.getTransaction().commit();
+	    } finally {
+	        em.close();
+	    }
+		if (entities == null) {
+			return new ArrayList<PersistenceOrder>();
+		}
+		return entities;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -107,6 +107,8 @@ public abstract class AbstractPersistenceRepository<E, P extends E> {
 	/**
 	 * Get all entities of the generic types of entities managed in this repository.
 	 * Starts with the "start" entity and returns at maximum "limit" entities.
+	 * If either is set, the entities are ordered by ID, so consecutive pages
+	 * neither overlap nor skip entities.
 	 * @param start The index of the entity to start with. Set to negative value to start at the beginning.
 	 * @param limit The maximum number of entites to return. Set to negative value to return all.
 	 * @return List of entities.
@@ -115,8 +117,12 @@ public abstract class AbstractPersistenceRepository<E, P extends E> {
 		EntityManager em = getEM();
 		List<P> entities = null;
 		try {
-			TypedQuery<P> allMatchesQuery =
-					em.createQuery("SELECT u FROM " + getEntityClass().getName() + " u", getEntityClass());
+			String query = "SELECT u FROM " + getEntityClass().getName() + " u";
+			if (start >= 0 || limit >= 0) {
+				// pages are only consistent with each other in a fixed order
+				query += " ORDER BY u.id";
+			}
+			TypedQuery<P> allMatchesQuery = em.createQuery(query, getEntityClass());
 			if (start >= 0) {
 				allMatchesQuery = allMatchesQuery.setFirstResult(start);
 		    }
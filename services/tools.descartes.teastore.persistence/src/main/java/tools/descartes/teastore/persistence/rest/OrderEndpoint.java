@@ -13,6 +13,9 @@
  */
 package tools.descartes.teastore.persistence.rest;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,6 +23,9 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
 
 import tools.descartes.teastore.persistence.domain.OrderRepository;
 import tools.descartes.teastore.persistence.repository.DataGenerator;
@@ -111,4 +117,64 @@ public class OrderEndpoint extends AbstractCRUDEndpoint<Order> {
 		return orders;
 	}
 
+	/**
+	 * Returns the number of orders placed after the given time. Allows clients,
+	 * such as the recommender, to cheaply check for new orders before retrieving them.
+	 * @param since The time in ISO local date time format (as in {@link Order#getTime()}).
+	 * Orders placed after this time are counted. Null to count all orders.
+	 * @return Response containing the number of orders or bad request if the time is malformed.
+	 */
+	@GET
+	@Path("count")
+	public Response countSince(@QueryParam("since") final String since) {
+		LocalDateTime sinceTime;
+		try {
+			sinceTime = parseTime(since);
+		} catch (DateTimeParseException e) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		return Response.ok(OrderRepository.REPOSITORY.countEntitiesSince(sinceTime)).build();
+	}
+
+	/**
+	 * Returns the orders placed after the given time, ordered by ID. Allows clients,
+	 * such as the recommender, to retrieve only the orders placed since they last looked.
+	 * @param since The time in ISO local date time format (as in {@link Order#getTime()}).
+	 * Orders placed after this time are returned. Null to return all orders.
+	 * @param startPosition The index (NOT ID) of the first order to return.
+	 * @param maxResult The max number of orders to return.
+	 * @return Response containing the list of orders or bad request if the time is malformed.
+	 */
+	@GET
+	@Path("new")
+	public Response listAllSince(@QueryParam("since") final String since,
+			@QueryParam("start") final Integer startPosition,
+			@QueryParam("max") final Integer maxResult) {
+		LocalDateTime sinceTime;
+		try {
+			sinceTime = parseTime(since);
+		} catch (DateTimeParseException e) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		List<Order> orders = new ArrayList<Order>();
+		for (Order o : OrderRepository.REPOSITORY.getAllEntitiesSince(sinceTime,
+				parseIntQueryParam(startPosition), parseIntQueryParam(maxResult))) {
+			orders.add(new Order(o));
+		}
+		return Response.ok(new GenericEntity<List<Order>>(orders) { }).build();
+	}
+
+	/**
+	 * Parses a time query parameter.
+	 * @param time The time in ISO local date time format (as in {@link Order#getTime()}).
+	 * @return The parsed time or null if no time was given.
+	 * @throws DateTimeParseException If the time is malformed.
+	 */
+	static LocalDateTime parseTime(String time) {
+		if (time == null || time.isEmpty()) {
+			return null;
+		}
+		return LocalDateTime.parse(time, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+	}
+
 }
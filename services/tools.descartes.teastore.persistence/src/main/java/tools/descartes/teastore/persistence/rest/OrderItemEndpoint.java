@@ -13,6 +13,8 @@
  */
 package tools.descartes.teastore.persistence.rest;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,10 +22,14 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
 
 import tools.descartes.teastore.persistence.domain.OrderItemRepository;
 import tools.descartes.teastore.persistence.repository.DataGenerator;
 import tools.descartes.teastore.registryclient.util.AbstractCRUDEndpoint;
+import tools.descartes.teastore.entities.Order;
 import tools.descartes.teastore.entities.OrderItem;
 
 /**
@@ -133,4 +139,33 @@ public class OrderItemEndpoint extends AbstractCRUDEndpoint<OrderItem> {
 		}
 		return orderItems;
 	}
+
+	/**
+	 * Returns the order items of all orders placed after the given time, ordered by ID.
+	 * Allows clients, such as the recommender, to retrieve only the order items of the
+	 * orders placed since they last looked.
+	 * @param since The time in ISO local date time format (as in {@link Order#getTime()}).
+	 * Order items of orders placed after this time are returned. Null to return all order items.
+	 * @param startPosition The index (NOT ID) of the first order item to return.
+	 * @param maxResult The max number of order items to return.
+	 * @return Response containing the list of order items or bad request if the time is malformed.
+	 */
+	@GET
+	@Path("new")
+	public Response listAllSince(@QueryParam("since") final String since,
+			@QueryParam("start") final Integer startPosition,
+			@QueryParam("max") final Integer maxResult) {
+		LocalDateTime sinceTime;
+		try {
+			sinceTime = OrderEndpoint.parseTime(since);
+		} catch (DateTimeParseException e) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		List<OrderItem> orderItems = new ArrayList<OrderItem>();
+		for (OrderItem oi : OrderItemRepository.REPOSITORY.getAllEntitiesSince(sinceTime,
+				parseIntQueryParam(startPosition), parseIntQueryParam(maxResult))) {
+			orderItems.add(new OrderItem(oi));
+		}
+		return Response.ok(new GenericEntity<List<OrderItem>>(orderItems) { }).build();
+	}
 }
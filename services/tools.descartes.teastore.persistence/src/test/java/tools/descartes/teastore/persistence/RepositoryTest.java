@@ -16,6 +16,7 @@ package tools.descartes.teastore.persistence;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import org.junit.Assert;
@@ -145,6 +146,7 @@ public class RepositoryTest {
 		
 		//create three orders
 		Order creationOrder = new Order();
+		creationOrder.setTime("2100-01-01T10:00:00");
 		creationOrder.setTotalPriceInCents(500);
 		creationOrder.setUserId(uId1);
 		long oId1 = orderRepo.createEntity(creationOrder);
@@ -216,6 +218,13 @@ public class RepositoryTest {
 		//get orders and users
 		Assert.assertEquals(1 + userSize, userRepo.getAllEntities().size());
 		Assert.assertEquals(1 + orderSize, orderRepo.getAllEntities().size());
+		Assert.assertEquals(1 + orderSize, orderRepo.countEntitiesSince(null));
+		Assert.assertEquals(1, orderRepo.countEntitiesSince(LocalDateTime.of(2100, 1, 1, 0, 0)));
+		Assert.assertEquals(0, orderRepo.countEntitiesSince(LocalDateTime.of(2100, 1, 1, 10, 0)));
+		Assert.assertEquals(1, orderRepo.getAllEntitiesSince(LocalDateTime.of(2100, 1, 1, 0, 0), -1, -1).size());
+		Assert.assertEquals(0, orderRepo.getAllEntitiesSince(LocalDateTime.of(2100, 1, 1, 10, 0), -1, -1).size());
+		Assert.assertEquals(2, orderItemRepo.getAllEntitiesSince(LocalDateTime.of(2100, 1, 1, 0, 0), -1, -1).size());
+		Assert.assertEquals(1, orderItemRepo.getAllEntitiesSince(LocalDateTime.of(2100, 1, 1, 0, 0), 1, 1).size());
 		//get and update order
 		Order order = orderRepo.getEntity(oId1);
 		Assert.assertEquals(500, order.getTotalPriceInCents());
@@ -0,0 +1,277 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.DecayedPopularityRecommender;
+import tools.descartes.teastore.recommender.metrics.LatencyHistogram;
+
+/**
+ * Offline evaluation of all recommenders registered in the
+ * {@link RecommenderSelector} on synthetic orders generated by the
+ * {@link SyntheticOrderGenerator}, at several scales. The orders are split by
+ * their time: each recommender is trained with the older orders and asked for
+ * recommendations for the newer ones, given the first product of the order and
+ * the user who placed it. The other products of the order are the expected
+ * recommendations. Requests the recommender cannot answer are answered by the
+ * fallback recommender, as in the service.
+ *
+ * Run with {@code mvn -P evaluation test}. The scales are passed as
+ * {@code users:products:orders} with {@code -Devaluation.args="..."}, the
+ * results are printed and written as JSON to {@link #DEFAULT_OUTPUT} or the
+ * file passed as {@code --output=file}.
+ */
+public final class RecommenderEvaluation {
+
+	/**
+	 * The file the results are written to, if no other file is passed.
+	 */
+	public static final String DEFAULT_OUTPUT = "target/recommender-evaluation.json";
+
+	/**
+	 * The scales evaluated, if no other scales are passed.
+	 */
+	private static final String[] DEFAULT_SCALES = { "1000:500:10000", "10000:1000:100000" };
+
+	/**
+	 * The share of the orders, the oldest first, used for training.
+	 */
+	private static final double TRAINING_SHARE = 0.8;
+
+	/**
+	 * The maximum number of test orders per scale, to bound the runtime of slow
+	 * recommenders.
+	 */
+	private static final int MAX_TEST_REQUESTS = 5000;
+
+	private static final int K = AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS;
+
+	private RecommenderEvaluation() {
+
+	}
+
+	/**
+	 * Runs the evaluation.
+	 *
+	 * @param args
+	 *            The scales as users:products:orders and optionally
+	 *            --output=file.
+	 * @throws IOException
+	 *             If the results cannot be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<String> scales = new ArrayList<>();
+		String output = DEFAULT_OUTPUT;
+		for (String arg : args) {
+			if (arg.startsWith("--output=")) {
+				output = arg.substring("--output=".length());
+			} else if (!arg.isEmpty()) {
+				scales.add(arg);
+			}
+		}
+		if (scales.isEmpty()) {
+			scales.addAll(List.of(DEFAULT_SCALES));
+		}
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (String scale : scales) {
+			String[] sizes = scale.split(":");
+			if (sizes.length != 3) {
+				throw new IllegalArgumentException("Scale " + scale + " is not of the form users:products:orders.");
+			}
+			results.addAll(evaluate(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]),
+					Integer.parseInt(sizes[2])));
+		}
+		File file = new File(output);
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, results);
+		System.out.println("Results written to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Evaluates all registered recommenders at one scale.
+	 *
+	 * @param users
+	 *            The number of users.
+	 * @param products
+	 *            The number of products.
+	 * @param orders
+	 *            The number of orders.
+	 * @return One result per recommender.
+	 */
+	static List<Map<String, Object>> evaluate(int users, int products, int orders) {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(users, products, orders);
+		List<Order> sorted = new ArrayList<>(generator.getOrders());
+		sorted.sort(Comparator.comparing(order -> LocalDateTime.parse(order.getTime(),
+				DateTimeFormatter.ISO_LOCAL_DATE_TIME)));
+		int split = (int) (sorted.size() * TRAINING_SHARE);
+		List<Order> trainOrders = sorted.subList(0, split);
+		Set<Long> trainOrderIds = new HashSet<>();
+		for (Order order : trainOrders) {
+			trainOrderIds.add(order.getId());
+		}
+		List<OrderItem> trainOrderItems = new ArrayList<>();
+		Map<Long, Set<Long>> testProducts = new HashMap<>();
+		for (OrderItem item : generator.getOrderItems()) {
+			if (trainOrderIds.contains(item.getOrderId())) {
+				trainOrderItems.add(item);
+			} else {
+				testProducts.computeIfAbsent(item.getOrderId(), id -> new LinkedHashSet<>()).add(item.getProductId());
+			}
+		}
+		List<Request> requests = new ArrayList<>();
+		for (Order order : sorted.subList(split, sorted.size())) {
+			Set<Long> productIds = testProducts.get(order.getId());
+			// an order with a single product leaves nothing to recommend
+			if (productIds != null && productIds.size() > 1 && requests.size() < MAX_TEST_REQUESTS) {
+				requests.add(new Request(order.getUserId(), productIds));
+			}
+		}
+		System.out.println("Scale " + users + " users, " + products + " products, " + orders + " orders: "
+				+ trainOrders.size() + " training orders, " + requests.size() + " test requests");
+
+		IRecommender fallback = new DecayedPopularityRecommender(DecayedPopularityRecommender.DEFAULT_HALF_LIFE);
+		fallback.train(trainOrderItems, trainOrders);
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (Entry<String, Class<? extends IRecommender>> algorithm : RecommenderSelector.getAlgorithms()
+				.entrySet()) {
+			long heapBefore = usedHeap();
+			IRecommender recommender = createRecommender(algorithm.getValue());
+			long start = System.nanoTime();
+			recommender.train(trainOrderItems, trainOrders);
+			long trainNanos = System.nanoTime() - start;
+			long retainedHeap = usedHeap() - heapBefore;
+
+			// the first pass warms up the JIT, only the second is measured
+			evaluate(recommender, fallback, requests);
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("algorithm", algorithm.getKey());
+			result.put("users", users);
+			result.put("products", products);
+			result.put("orders", orders);
+			result.put("trainingOrders", trainOrders.size());
+			result.put("trainingMillis", trainNanos / 1000000);
+			result.put("retainedHeapBytes", retainedHeap);
+			result.putAll(evaluate(recommender, fallback, requests));
+			results.add(result);
+			System.out.println(String.format(
+					"  %-22s precision@%d %.4f  recall@%d %.4f  training %6d ms  p50 %9.1f us  p99 %9.1f us"
+							+ "  heap %8d KB  fallbacks %d",
+					algorithm.getKey(), K, result.get("precisionAt10"), K, result.get("recallAt10"),
+					result.get("trainingMillis"), result.get("p50Micros"), result.get("p99Micros"),
+					retainedHeap / 1024, result.get("fallbacks")));
+		}
+		return results;
+	}
+
+	private static Map<String, Object> evaluate(IRecommender recommender, IRecommender fallback,
+			List<Request> requests) {
+		LatencyHistogram latencies = new LatencyHistogram();
+		double precision = 0;
+		double recall = 0;
+		long fallbacks = 0;
+		for (Request request : requests) {
+			long start = System.nanoTime();
+			List<Long> recommended;
+			try {
+				recommended = recommender.recommendProducts(request.userId, request.cart);
+			} catch (UseFallBackException e) {
+				recommended = fallback.recommendProducts(request.userId, request.cart);
+				fallbacks++;
+			}
+			latencies.record(System.nanoTime() - start);
+			int hits = 0;
+			for (Long product : recommended.subList(0, Math.min(K, recommended.size()))) {
+				if (request.expected.contains(product)) {
+					hits++;
+				}
+			}
+			precision += (double) hits / K;
+			recall += (double) hits / request.expected.size();
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("testRequests", requests.size());
+		result.put("precisionAt10", requests.isEmpty() ? 0 : precision / requests.size());
+		result.put("recallAt10", requests.isEmpty() ? 0 : recall / requests.size());
+		result.put("p50Micros", latencies.getValueAtPercentile(50) / 1000.0);
+		result.put("p99Micros", latencies.getValueAtPercentile(99) / 1000.0);
+		result.put("fallbacks", fallbacks);
+		return result;
+	}
+
+	private static IRecommender createRecommender(Class<? extends IRecommender> algorithm) {
+		try {
+			return algorithm.getDeclaredConstructor().newInstance();
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new IllegalStateException("Could not create an instance of " + algorithm.getName() + ".", e);
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * A test request: the first product of a test order as cart, the other
+	 * products as expected recommendations.
+	 */
+	private static final class Request {
+
+		private final Long userId;
+
+		private final List<OrderItem> cart = new ArrayList<>(1);
+
+		private final Set<Long> expected = new HashSet<>();
+
+		private Request(long userId, Set<Long> productIds) {
+			this.userId = userId;
+			for (Long productId : productIds) {
+				if (cart.isEmpty()) {
+					OrderItem item = new OrderItem();
+					item.setProductId(productId);
+					item.setQuantity(1);
+					cart.add(item);
+				} else {
+					expected.add(productId);
+				}
+			}
+		}
+	}
+}
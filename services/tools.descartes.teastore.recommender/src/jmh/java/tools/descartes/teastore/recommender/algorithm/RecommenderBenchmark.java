@@ -0,0 +1,233 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.PreprocessedSlopeOneRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.DecayedPopularityRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.PopularityBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.similarity.ItemSimilarityRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.sketch.SketchRecommender;
+
+/**
+ * Benchmarks training and recommending of all recommenders on synthetic orders
+ * generated by the {@link SyntheticOrderGenerator}. Run with
+ * {@code mvn -P benchmark test}; JMH options, e.g. other scales with
+ * {@code -p users=1000000 -p orders=5000000} or the allocation profiler
+ * {@code -prof gc}, can be passed with {@code -Djmh.args="..."}.
+ *
+ * The heap retained by each trained recommender is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class RecommenderBenchmark {
+
+	private static final int CARTS = 1024;
+
+	/**
+	 * The recommender to benchmark, named as for the recommenderAlgorithm
+	 * setting.
+	 */
+	@Param({ "SlopeOne", "PreprocessedSlopeOne", "OrderBased", "Popularity", "DecayedPopularity", "ItemSimilarity",
+		"Sketch" })
+	public String algorithm;
+
+	/**
+	 * The number of users.
+	 */
+	@Param({ "10000", "1000000" })
+	public int users;
+
+	/**
+	 * The number of products.
+	 */
+	@Param({ "1000" })
+	public int products;
+
+	/**
+	 * The number of orders.
+	 */
+	@Param({ "50000", "2000000" })
+	public int orders;
+
+	private List<OrderItem> trainOrderItems;
+
+	private List<Order> trainOrders;
+
+	private AbstractRecommender trained;
+
+	private List<Long> cartUsers;
+
+	private List<List<OrderItem>> carts;
+
+	private Map<Long, Double> scores;
+
+	private List<Long> filterItems;
+
+	/**
+	 * Generates the orders and trains one recommender for the recommending
+	 * benchmarks.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(users, products, orders);
+		trainOrderItems = generator.getOrderItems();
+		trainOrders = generator.getOrders();
+		cartUsers = new ArrayList<>(CARTS);
+		carts = new ArrayList<>(CARTS);
+		for (int i = 0; i < CARTS; i++) {
+			// every fourth request is anonymous
+			cartUsers.add(i % 4 == 0 ? null : generator.generateUserId());
+			carts.add(generator.generateCart());
+		}
+
+		long heapBefore = usedHeap();
+		trained = createRecommender();
+		trained.train(trainOrderItems, trainOrders);
+		long heapAfter = usedHeap();
+		System.out.println();
+		System.out.println("Retained heap of trained " + algorithm + " (" + trainOrderItems.size() + " order items): "
+				+ (heapAfter - heapBefore) / (1024 * 1024) + " MB");
+
+		Random random = new Random(5);
+		scores = new HashMap<>();
+		for (long product = 1; product <= products; product++) {
+			scores.put(product, random.nextDouble());
+		}
+		filterItems = new ArrayList<>();
+		for (OrderItem item : carts.get(0)) {
+			filterItems.add(item.getProductId());
+		}
+	}
+
+	/**
+	 * Iterates over the prepared carts, separately for each benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next = 0;
+
+		private int next() {
+			int current = next;
+			next = (next + 1) % CARTS;
+			return current;
+		}
+	}
+
+	/**
+	 * Trains a new recommender with all orders.
+	 *
+	 * @return The trained recommender.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public AbstractRecommender train() {
+		AbstractRecommender recommender = createRecommender();
+		recommender.train(trainOrderItems, trainOrders);
+		return recommender;
+	}
+
+	/**
+	 * Recommends products for the next prepared cart.
+	 *
+	 * @param cursor
+	 *            The cart iterator of the thread.
+	 * @return The recommended products.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public List<Long> recommendProducts(Cursor cursor) {
+		int cart = cursor.next();
+		try {
+			return trained.recommendProducts(cartUsers.get(cart), carts.get(cart));
+		} catch (UseFallBackException e) {
+			// counts like a successful request, the fallback is benchmarked on its own
+			return null;
+		}
+	}
+
+	/**
+	 * Ranks a score for every product and removes the items of a cart.
+	 *
+	 * @return The recommended products.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public List<Long> filterRecommendations() {
+		return trained.filterRecommendations(scores, filterItems);
+	}
+
+	private AbstractRecommender createRecommender() {
+		switch (algorithm) {
+		case "SlopeOne":
+			return new SlopeOneRecommender();
+		case "PreprocessedSlopeOne":
+			return new PreprocessedSlopeOneRecommender();
+		case "OrderBased":
+			return new OrderBasedRecommender();
+		case "Popularity":
+			return new PopularityBasedRecommender();
+		case "DecayedPopularity":
+			return new DecayedPopularityRecommender(DecayedPopularityRecommender.DEFAULT_HALF_LIFE);
+		case "ItemSimilarity":
+			return new ItemSimilarityRecommender();
+		case "Sketch":
+			return new SketchRecommender();
+		default:
+			throw new IllegalArgumentException("Unknown recommender " + algorithm + ".");
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
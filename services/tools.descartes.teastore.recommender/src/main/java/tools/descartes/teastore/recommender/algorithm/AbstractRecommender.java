@@ -13,19 +13,25 @@
  */
 package tools.descartes.teastore.recommender.algorithm;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
 import tools.descartes.teastore.entities.Order;
 import tools.descartes.teastore.entities.OrderItem;
 import tools.descartes.teastore.entities.Product;
@@ -37,7 +43,7 @@ import tools.descartes.teastore.entities.User;
  * @author Johannes Grohmann
  *
  */
-public abstract class AbstractRecommender implements IRecommender {
+public abstract class AbstractRecommender implements IRecommender, Cloneable {
 
 	private boolean trainingFinished = false;
 
@@ -50,70 +56,341 @@ public abstract class AbstractRecommender implements IRecommender {
 	private static final Logger LOG = LoggerFactory.getLogger(AbstractRecommender.class);
 
 	/**
-	 * This represents the matrix assigning each user a frequency for each product
-	 * ID. The frequency resembles the number of times, a user has bought that item.
+	 * The orders seen during the training phase, assigning each user a frequency
+	 * for each product ID. The frequency resembles the number of times, a user has
+	 * bought that item.
 	 */
-	private Map<Long, Map<Long, Double>> userBuyingMatrix;
+	private UserItemMatrix userItemMatrix;
+
+	@Override
+	public void train(List<OrderItem> orderItems, List<Order> orders) {
+		train(buildUserItemMatrix(orderItems, orders));
+	}
+
+	/**
+	 * Groups the given order items by their orders and users. The matrix is
+	 * immutable, so all recommenders trained with the same orders can share it,
+	 * see {@link #train(UserItemMatrix)}.
+	 * 
+	 * @param orderItems
+	 *            The order items. Items of unknown orders are ignored.
+	 * @param orders
+	 *            The orders.
+	 * @return The matrix of the orders.
+	 */
+	public static UserItemMatrix buildUserItemMatrix(List<OrderItem> orderItems, List<Order> orders) {
+		long tic = System.currentTimeMillis();
+		// hash index of all orders, replacing a linear search per order
+		Map<Long, Integer> orderIndex = new HashMap<>();
+		for (Order order : orders) {
+			orderIndex.putIfAbsent(order.getId(), orderIndex.size());
+		}
+		long[] orderIds = new long[orderIndex.size()];
+		long[] userIds = new long[orderIds.length];
+		String[] orderTimes = new String[orderIds.length];
+		for (Order order : orders) {
+			int o = orderIndex.get(order.getId());
+			if (orderTimes[o] == null) {
+				orderIds[o] = order.getId();
+				userIds[o] = order.getUserId();
+				orderTimes[o] = order.getTime() == null ? "" : order.getTime();
+			}
+		}
+		long[] times = new long[orderIds.length];
+		Arrays.parallelSetAll(times, o -> toMillis(orderTimes[o]));
+		long indexTime = System.currentTimeMillis();
+		// group the items of each order, keeping their original sequence
+		int[] itemOrders = new int[orderItems.size()];
+		int[] offsets = new int[orderIds.length + 1];
+		for (int i = 0; i < itemOrders.length; i++) {
+			Integer o = orderIndex.get(orderItems.get(i).getOrderId());
+			itemOrders[i] = o == null ? -1 : o;
+			if (o != null) {
+				offsets[o + 1]++;
+			}
+		}
+		for (int o = 0; o < orderIds.length; o++) {
+			offsets[o + 1] += offsets[o];
+		}
+		long[] productIds = new long[offsets[orderIds.length]];
+		int[] quantities = new int[productIds.length];
+		int[] fill = Arrays.copyOf(offsets, orderIds.length);
+		for (int i = 0; i < itemOrders.length; i++) {
+			if (itemOrders[i] >= 0) {
+				int k = fill[itemOrders[i]]++;
+				productIds[k] = orderItems.get(i).getProductId();
+				quantities[k] = orderItems.get(i).getQuantity();
+			}
+		}
+		long orderGroupingTime = System.currentTimeMillis();
+		UserItemMatrix matrix = UserItemMatrix.build(orderIds, userIds, times, offsets, productIds, quantities);
+		long toc = System.currentTimeMillis();
+		RecommenderMetrics metrics = RecommenderMetrics.getInstance();
+		metrics.recordPhase("indexOrders", indexTime - tic);
+		metrics.recordPhase("groupOrderItems", orderGroupingTime - indexTime);
+		metrics.recordPhase("userItemMatrix", toc - orderGroupingTime);
+		LOG.info("Building user item matrix finished. Building took: " + (toc - tic) + "ms (indexing orders: "
+				+ (indexTime - tic) + "ms, grouping order items: " + (orderGroupingTime - indexTime)
+				+ "ms, user item matrix: " + (toc - orderGroupingTime) + "ms).");
+		return matrix;
+	}
 
 	/**
-	 * This set maps a userId to a set, containing the corresponding OrderItemSets,
-	 * i.e. all orders that were done by the user.
+	 * Converts the time of an {@link Order} to milliseconds since the epoch, in
+	 * the time zone of this service.
+	 * 
+	 * @param time
+	 *            The time in ISO local date time format.
+	 * @return The milliseconds since the epoch or 0 if the time is unknown.
 	 */
-	private Map<Long, Set<OrderItemSet>> userItemSets;
+	static long toMillis(String time) {
+		if (time == null || time.isEmpty()) {
+			return 0;
+		}
+		try {
+			return LocalDateTime.parse(time, DateTimeFormatter.ISO_LOCAL_DATE_TIME).atZone(ZoneId.systemDefault())
+					.toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return 0;
+		}
+	}
 
 	/**
-	 * This is an enumeration of all available products seen during the training
-	 * phase.
+	 * Triggers implementing classes if they want to execute a pre-processing step
+	 * during {@link AbstractRecommender#train(List, List)}.
 	 */
-	private Set<Long> totalProducts;
+	protected void executePreprocessing() {
+		// do nothing
+	}
 
 	@Override
-	public void train(List<OrderItem> orderItems, List<Order> orders) {
+	public void update(List<OrderItem> newOrderItems, List<Order> newOrders) {
+		if (!trainingFinished) {
+			train(newOrderItems, newOrders);
+			return;
+		}
+		update(UserItemMatrixUpdate.create(userItemMatrix, newOrderItems, newOrders));
+	}
+
+	/**
+	 * Folds the orders of a prepared update into this recommender, as an
+	 * alternative to {@link #update(List, List)}. The update is immutable, so all
+	 * recommenders trained with the same orders can share it.
+	 * 
+	 * @param update
+	 *            The update, prepared for {@link #getUserItemMatrix()}.
+	 * @throws IllegalArgumentException
+	 *             If the update was prepared for other orders than this
+	 *             recommender was trained with.
+	 */
+	public void update(UserItemMatrixUpdate update) {
+		if (update.getPreviousMatrix() != userItemMatrix) {
+			throw new IllegalArgumentException(
+					"The update was prepared for other orders than this recommender was trained with.");
+		}
+		if (update.isEmpty()) {
+			return;
+		}
 		long tic = System.currentTimeMillis();
-		totalProducts = new HashSet<>();
-		// first create order mapping unorderized
-		Map<Long, OrderItemSet> unOrderizeditemSets = new HashMap<>();
-		for (OrderItem orderItem : orderItems) {
-			if (!unOrderizeditemSets.containsKey(orderItem.getOrderId())) {
-				unOrderizeditemSets.put(orderItem.getOrderId(), new OrderItemSet());
-				unOrderizeditemSets.get(orderItem.getOrderId()).setOrderId(orderItem.getOrderId());
-			}
-			unOrderizeditemSets.get(orderItem.getOrderId()).getOrderset().put(orderItem.getProductId(),
-					orderItem.getQuantity());
-			// see, if we already have our item
-			if (!totalProducts.contains(orderItem.getProductId())) {
-				// if not known yet -> add
-				totalProducts.add(orderItem.getProductId());
+		// copy on write, so the matrix of the current training stays untouched
+		userItemMatrix = update.getMatrix();
+		executeUpdate(update);
+		long toc = System.currentTimeMillis();
+		RecommenderMetrics.getInstance().recordPhase(getClass().getSimpleName() + ".update", toc - tic);
+		LOG.info("Updating recommender with " + update.getAddedItemSets().size() + " orders finished. Update took: "
+				+ (toc - tic) + "ms.");
+	}
+
+	/**
+	 * Creates a shallow copy of this recommender. As neither training nor
+	 * {@link #update(List, List)} modify the trained structures in place, the copy
+	 * can be updated while the original keeps serving recommendations.
+	 * 
+	 * @return The copy.
+	 */
+	@Override
+	public AbstractRecommender clone() {
+		try {
+			return (AbstractRecommender) super.clone();
+		} catch (CloneNotSupportedException e) {
+			// cannot happen, as this class is cloneable
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Triggers implementing classes to fold the changes of
+	 * {@link AbstractRecommender#update(List, List)} into their pre-processed
+	 * state. When called, {@link #getUserItemMatrix()} already contains the new
+	 * orders. Implementations must not modify the previous state in place
+	 * but replace it. Implementations can use the added orders or replace the
+	 * contribution of the previous rows of the changed users by their new rows.
+	 * The default implementation repeats the complete pre-processing.
+	 *
+	 * @param update
+	 *            The update, holding the added orders and the previous rows of
+	 *            the users that placed them. Shared with the other recommenders
+	 *            updated with the same orders.
+	 */
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		executePreprocessing();
+	}
+
+	/**
+	 * Writes the orders this recommender was trained with to a model snapshot.
+	 * Recommenders trained with the same orders can share this part of a snapshot.
+	 * 
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeOrderHistory(ModelSnapshotWriter writer) throws IOException {
+		UserItemMatrix matrix = userItemMatrix;
+		ProductIndex index = matrix.getProductIndex();
+		int orders = matrix.getOrders();
+		long[] orderIds = new long[orders];
+		long[] userIds = new long[orders];
+		long[] times = new long[orders];
+		int[] offsets = new int[orders + 1];
+		long[] productIds = new long[orders == 0 ? 0 : matrix.getOrderEnd(orders - 1)];
+		int[] quantities = new int[productIds.length];
+		for (int u = 0; u < matrix.getUsers(); u++) {
+			for (int o = matrix.getUserOrderStart(u); o < matrix.getUserOrderEnd(u); o++) {
+				orderIds[o] = matrix.getOrderId(o);
+				userIds[o] = matrix.getUserId(u);
+				times[o] = matrix.getOrderTime(o);
+				for (int k = matrix.getOrderStart(o); k < matrix.getOrderEnd(o); k++) {
+					productIds[k] = index.getId(matrix.getOrderProduct(k));
+					quantities[k] = matrix.getOrderQuantity(k);
+				}
+				offsets[o + 1] = matrix.getOrderEnd(o);
 			}
 		}
-		// now map each id with the corresponding order
-		Map<Order, OrderItemSet> itemSets = new HashMap<>();
-		for (Long orderid : unOrderizeditemSets.keySet()) {
-			Order realOrder = findOrder(orders, orderid);
-			itemSets.put(realOrder, unOrderizeditemSets.get(orderid));
+		writer.writeLongArray(orderIds);
+		writer.writeLongArray(userIds);
+		writer.writeLongArray(times);
+		writer.writeIntArray(offsets);
+		writer.writeLongArray(productIds);
+		writer.writeIntArray(quantities);
+	}
+
+	/**
+	 * Reads the orders written by {@link #writeOrderHistory(ModelSnapshotWriter)}.
+	 * 
+	 * @param reader
+	 *            The snapshot reader.
+	 * @return The matrix of the orders.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public static UserItemMatrix readOrderHistory(ModelSnapshotReader reader) throws IOException {
+		long[] orderIds = reader.readLongArray();
+		long[] userIds = reader.readLongArray();
+		long[] times = reader.readLongArray();
+		int[] offsets = reader.readIntArray();
+		long[] productIds = reader.readLongArray();
+		int[] quantities = reader.readIntArray();
+		if (userIds.length != orderIds.length || times.length != orderIds.length
+				|| offsets.length != orderIds.length + 1 || quantities.length != productIds.length
+				|| offsets[orderIds.length] != productIds.length) {
+			throw new IOException("Snapshot order history is inconsistent.");
 		}
-		userItemSets = new HashMap<>();
-		for (Order order : itemSets.keySet()) {
-			if (!userItemSets.containsKey(order.getUserId())) {
-				userItemSets.put(order.getUserId(), new HashSet<OrderItemSet>());
+		for (int o = 0; o < orderIds.length; o++) {
+			if (offsets[o] > offsets[o + 1]) {
+				throw new IOException("Snapshot order history is inconsistent.");
 			}
-			itemSets.get(order).setUserId(order.getUserId());
-			userItemSets.get(order.getUserId()).add(itemSets.get(order));
 		}
-		userBuyingMatrix = createUserBuyingMatrix(userItemSets);
+		return UserItemMatrix.build(orderIds, userIds, times, offsets, productIds, quantities);
+	}
+
+	/**
+	 * Writes the pre-processed state of this recommender to a model snapshot. Must
+	 * only be called on a trained recommender.
+	 * 
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeModel(ModelSnapshotWriter writer) throws IOException {
+		if (!trainingFinished) {
+			throw new IllegalStateException("This instance is not fully trained yet.");
+		}
+		writePreprocessing(writer);
+	}
+
+	/**
+	 * Restores a trained state from a model snapshot, as an alternative to
+	 * {@link #train(List, List)}.
+	 * 
+	 * @param matrix
+	 *            The orders read by {@link #readOrderHistory(ModelSnapshotReader)}.
+	 * @param reader
+	 *            The snapshot reader, positioned at the state written by
+	 *            {@link #writeModel(ModelSnapshotWriter)}.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public void restore(UserItemMatrix matrix, ModelSnapshotReader reader) throws IOException {
+		long tic = System.currentTimeMillis();
+		userItemMatrix = matrix;
+		readPreprocessing(reader);
+		long toc = System.currentTimeMillis();
+		RecommenderMetrics.getInstance().recordPhase(getClass().getSimpleName() + ".restore", toc - tic);
+		LOG.info("Restoring recommender from snapshot finished. Restoring took: " + (toc - tic) + "ms.");
+		trainingFinished = true;
+	}
+
+	/**
+	 * Trains this recommender with the orders of the given matrix, e.g., built
+	 * once with {@link #buildUserItemMatrix(List, List)} for several
+	 * recommenders, or restored from a model snapshot that was written without
+	 * the state of this recommender.
+	 * 
+	 * @param matrix
+	 *            The orders, built by {@link #buildUserItemMatrix(List, List)} or
+	 *            read by {@link #readOrderHistory(ModelSnapshotReader)}.
+	 */
+	public void train(UserItemMatrix matrix) {
+		long tic = System.currentTimeMillis();
+		userItemMatrix = matrix;
 		executePreprocessing();
-		LOG.info("Training recommender finished. Training took: " + (System.currentTimeMillis() - tic) + "ms.");
+		long toc = System.currentTimeMillis();
+		RecommenderMetrics.getInstance().recordPhase(getClass().getSimpleName() + ".preprocessing", toc - tic);
+		LOG.info("Training recommender finished. Pre-processing took: " + (toc - tic) + "ms.");
 		trainingFinished = true;
 	}
 
 	/**
-	 * Triggers implementing classes if they want to execute a pre-processing step
-	 * during {@link AbstractRecommender#train(List, List)}.
+	 * Triggers implementing classes to write the state created by
+	 * {@link #executePreprocessing()} to a model snapshot. The default
+	 * implementation writes nothing.
+	 * 
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
 	 */
-	protected void executePreprocessing() {
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
 		// do nothing
 	}
 
+	/**
+	 * Triggers implementing classes to read the state written by
+	 * {@link #writePreprocessing(ModelSnapshotWriter)}. When called,
+	 * {@link #getUserItemMatrix()} is already restored. The default implementation
+	 * repeats the pre-processing.
+	 * 
+	 * @param reader
+	 *            The snapshot reader.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		executePreprocessing();
+	}
+
 	@Override
 	public List<Long> recommendProducts(Long userid, List<OrderItem> currentItems)
 			throws UnsupportedOperationException {
@@ -147,35 +424,41 @@ public abstract class AbstractRecommender implements IRecommender {
 	 *         {@link AbstractRecommender#MAX_NUMBER_OF_RECOMMENDATIONS}
 	 */
 	protected List<Long> filterRecommendations(Map<Long, Double> priorityList, List<Long> currentItems) {
-		TreeMap<Double, List<Long>> ranking = createRanking(priorityList);
-		List<Long> reco = new ArrayList<>(MAX_NUMBER_OF_RECOMMENDATIONS);
-		for (Double score : ranking.descendingKeySet()) {
-			List<Long> productIds = ranking.get(score);
-			for (long productId : productIds) {
-				if (reco.size() < MAX_NUMBER_OF_RECOMMENDATIONS) {
-					if (!currentItems.contains(productId)) {
-						reco.add(productId);
-					}
-				} else {
-					return reco;
-				}
+		Set<Long> excluded = new HashSet<>(currentItems);
+		TopKSelector selector = new TopKSelector(MAX_NUMBER_OF_RECOMMENDATIONS);
+		for (Entry<Long, Double> entry : priorityList.entrySet()) {
+			if (!excluded.contains(entry.getKey())) {
+				selector.offer(entry.getKey(), entry.getValue());
 			}
 		}
-		return reco;
+		return selector.toList();
 	}
 
-	private TreeMap<Double, List<Long>> createRanking(Map<Long, Double> map) {
-		// transforming the map into a treemap (for efficient access)
-		TreeMap<Double, List<Long>> ranking = new TreeMap<Double, List<Long>>();
-		for (Entry<Long, Double> entry : map.entrySet()) {
-			List<Long> productIds = ranking.get(entry.getValue());
-			if (productIds == null) {
-				productIds = new ArrayList<>();
-				ranking.put(entry.getValue(), productIds);
+	/**
+	 * Filters the given ranking of recommendations like
+	 * {@link #filterRecommendations(Map, List)}, but takes the scores as a
+	 * primitive array over a {@link ProductIndex}.
+	 * 
+	 * @param scores
+	 *            The unfiltered score of each product index.
+	 * @param productIndex
+	 *            The index mapping the positions of the scores to product IDs.
+	 * @param currentItems
+	 *            The list of item IDs that must NOT be contained in the returned
+	 *            list.
+	 * @return A sorted list of recommendations with a size not greater than
+	 *         {@link AbstractRecommender#MAX_NUMBER_OF_RECOMMENDATIONS}
+	 */
+	protected List<Long> filterRecommendations(double[] scores, ProductIndex productIndex, List<Long> currentItems) {
+		Set<Long> excluded = new HashSet<>(currentItems);
+		TopKSelector selector = new TopKSelector(MAX_NUMBER_OF_RECOMMENDATIONS);
+		for (int i = 0; i < scores.length; i++) {
+			long productId = productIndex.getId(i);
+			if (!excluded.contains(productId)) {
+				selector.offer(productId, scores[i]);
 			}
-			productIds.add(entry.getKey());
 		}
-		return ranking;
+		return selector.toList();
 	}
 
 	/**
@@ -192,95 +475,66 @@ public abstract class AbstractRecommender implements IRecommender {
 	 */
 	protected abstract List<Long> execute(Long userid, List<Long> currentItems);
 
-	private Order findOrder(List<Order> orders, long orderid) {
-		for (Order order : orders) {
-			if (order.getId() == orderid) {
-				return order;
-			}
-		}
-		return null;
-	}
-
 	/**
-	 * @return the userBuyingMatrix
+	 * @return The orders this recommender was trained with.
 	 */
-	public Map<Long, Map<Long, Double>> getUserBuyingMatrix() {
-		return userBuyingMatrix;
+	public UserItemMatrix getUserItemMatrix() {
+		return userItemMatrix;
 	}
 
 	/**
-	 * @param userBuyingMatrix
-	 *            the userBuyingMatrix to set
+	 * Creates the matrix assigning each user a frequency for each product ID.
+	 * Expensive, intended for inspection only; recommenders read
+	 * {@link #getUserItemMatrix()}.
+	 * 
+	 * @return the userBuyingMatrix
 	 */
-	public void setUserBuyingMatrix(Map<Long, Map<Long, Double>> userBuyingMatrix) {
-		this.userBuyingMatrix = userBuyingMatrix;
+	public Map<Long, Map<Long, Double>> getUserBuyingMatrix() {
+		return userItemMatrix.toUserBuyingMatrix();
 	}
 
 	/**
+	 * Creates the set of all products seen during the training phase. Expensive,
+	 * intended for inspection only; recommenders read {@link #getUserItemMatrix()}.
+	 * 
 	 * @return the totalProducts
 	 */
 	public Set<Long> getTotalProducts() {
-		return totalProducts;
-	}
-
-	/**
-	 * @param totalProducts
-	 *            the totalProducts to set
-	 */
-	public void setTotalProducts(Set<Long> totalProducts) {
-		this.totalProducts = totalProducts;
+		return userItemMatrix.getProductIds();
 	}
 
 	/**
+	 * Creates the map assigning each user ID all orders of the user. Expensive,
+	 * intended for inspection only; recommenders read {@link #getUserItemMatrix()}.
+	 * 
 	 * @return the userItemSets
 	 */
 	public Map<Long, Set<OrderItemSet>> getUserItemSets() {
-		return userItemSets;
+		return userItemMatrix.toUserItemSets();
 	}
 
 	/**
+	 * Replaces the orders. The user of each order is taken from its key. Like
+	 * before, the model is not retrained.
+	 * 
 	 * @param userItemSets
 	 *            the userItemSets to set
+	 * @deprecated Train with {@link #train(UserItemMatrix)} instead.
 	 */
+	@Deprecated
 	public void setUserItemSets(Map<Long, Set<OrderItemSet>> userItemSets) {
-		this.userItemSets = userItemSets;
-	}
-
-	/**
-	 * Transforms the list of orders into one matrix containing all user-IDs and
-	 * their number of buys (i.e., their rating) of all product-IDs. A
-	 * quantity/rating of a user is null, if the user did not buy that item. If the
-	 * user bought one item at least once, the contained value (rating) is the
-	 * number of times, he bought one given item.
-	 * 
-	 * @param useritemsets
-	 *            A map assigning each user-ID all its OrderItemSets
-	 * @return A Map representing a matrix of each user-ID assigning each item-ID
-	 *         its number of buys (as double value)
-	 */
-	private static Map<Long, Map<Long, Double>> createUserBuyingMatrix(Map<Long, Set<OrderItemSet>> useritemsets) {
-		Map<Long, Map<Long, Double>> matrix = new HashMap<>();
-		// for each user
-		for (Entry<Long, Set<OrderItemSet>> entry : useritemsets.entrySet()) {
-			// create a new line for this user-ID
-			Map<Long, Double> line = new HashMap<>();
-			// for all orders of that user
-			for (OrderItemSet orderset : entry.getValue()) {
-				// for all orderitems of that orderset
-				for (Entry<Long, Integer> product : orderset.getOrderset().entrySet()) {
-					// if key was not known before -> first occurence
-					if (!line.containsKey(product.getKey())) {
-						line.put(product.getKey(), Double.valueOf(product.getValue()));
-					} else {
-						// if key was known before -> increase counter
-						line.put(product.getKey(), Double.valueOf(line.get(product.getKey()) + product.getValue()));
-					}
-				}
+		List<OrderItemSet> itemSets = new ArrayList<>();
+		for (Entry<Long, Set<OrderItemSet>> user : userItemSets.entrySet()) {
+			for (OrderItemSet orders : user.getValue()) {
+				OrderItemSet itemSet = new OrderItemSet();
+				itemSet.setOrderId(orders.getOrderId());
+				itemSet.setUserId(user.getKey());
+				itemSet.setTime(orders.getTime());
+				itemSet.setOrderset(orders.getOrderset());
+				itemSets.add(itemSet);
 			}
-			// add this user-ID to the matrix
-			matrix.put(entry.getKey(), line);
 		}
-		return matrix;
+		userItemMatrix = UserItemMatrix.build(itemSets);
 	}
 
 }
@@ -0,0 +1,280 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.CoOccurrenceMatrix;
+
+/**
+ * Immutable table of the products most often bought together with each
+ * product, in compressed sparse row layout. Rows and entries are product
+ * indices of a {@link ProductIndex}. Each row holds at most a fixed number of
+ * products, sorted by descending number of common orders and ascending ID on
+ * ties. A request only merges the rows of the products in the cart, so it
+ * costs O(cart size) row lookups, independent of the number of users and
+ * orders. An update only selects the rows of the products in the added orders
+ * again.
+ */
+public final class CoPurchaseTable {
+
+	private final ProductIndex productIndex;
+
+	/**
+	 * The co-occurrences the rows were selected from, kept for updates.
+	 */
+	private final CoOccurrenceMatrix coOccurrences;
+
+	/**
+	 * The maximum number of products per row.
+	 */
+	private final int rowSize;
+
+	/**
+	 * Start of each row in the entry arrays; row i spans rowOffsets[i] to
+	 * rowOffsets[i + 1] - 1.
+	 */
+	private final int[] rowOffsets;
+
+	/**
+	 * The product index of each entry.
+	 */
+	private final int[] products;
+
+	/**
+	 * The number of orders containing both products of each entry.
+	 */
+	private final int[] counts;
+
+	private CoPurchaseTable(ProductIndex productIndex, CoOccurrenceMatrix coOccurrences, int rowSize,
+			int[] rowOffsets, int[] products, int[] counts) {
+		this.productIndex = productIndex;
+		this.coOccurrences = coOccurrences;
+		this.rowSize = rowSize;
+		this.rowOffsets = rowOffsets;
+		this.products = products;
+		this.counts = counts;
+	}
+
+	/**
+	 * Builds the table from the given orders.
+	 *
+	 * @param matrix
+	 *            The orders.
+	 * @param rowSize
+	 *            The maximum number of products kept per product.
+	 * @return The table.
+	 */
+	public static CoPurchaseTable build(UserItemMatrix matrix, int rowSize) {
+		return build(CoOccurrenceMatrix.build(matrix), matrix.getProductIndex(), rowSize);
+	}
+
+	/**
+	 * Builds the table from already counted co-occurrences, e.g., those of an
+	 * {@link tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender}.
+	 *
+	 * @param coOccurrences
+	 *            The co-occurrences of the orders. Are not modified.
+	 * @param index
+	 *            The product index of the co-occurrences.
+	 * @param rowSize
+	 *            The maximum number of products kept per product.
+	 * @return The table.
+	 */
+	public static CoPurchaseTable build(CoOccurrenceMatrix coOccurrences, ProductIndex index, int rowSize) {
+		int[] rowOffsets = new int[index.size() + 1];
+		int[] products = new int[(int) Math.min(coOccurrences.getEntries(), (long) index.size() * rowSize)];
+		int[] counts = new int[products.length];
+		int size = 0;
+		TopKSelector selector = new TopKSelector(rowSize);
+		for (int i = 0; i < index.size(); i++) {
+			size = selectRow(coOccurrences, i, selector, products, counts, size);
+			rowOffsets[i + 1] = size;
+		}
+		return new CoPurchaseTable(index, coOccurrences, rowSize, rowOffsets, products, counts);
+	}
+
+	/**
+	 * Creates a new table containing the orders of this table and the added
+	 * orders of the update, leaving this table untouched.
+	 *
+	 * @param update
+	 *            The update. Must be prepared for the orders of this table.
+	 * @return The new table.
+	 */
+	public CoPurchaseTable update(UserItemMatrixUpdate update) {
+		checkUpdate(update);
+		if (update.isEmpty()) {
+			return this;
+		}
+		ProductIndex newIndex = update.getMatrix().getProductIndex();
+		return update(update, coOccurrences.withOrders(productIndex, update.getAddedItemSets(), newIndex));
+	}
+
+	/**
+	 * Creates a new table containing the orders of this table and the added
+	 * orders of the update, leaving this table untouched. Only the rows of the
+	 * products in the added orders are selected again, the other rows are
+	 * copied, as their co-occurrences did not change.
+	 *
+	 * @param update
+	 *            The update. Must be prepared for the orders of this table.
+	 * @param updatedCoOccurrences
+	 *            The co-occurrences of all orders after the update, with the
+	 *            product index of the updated matrix, e.g., those of an updated
+	 *            {@link tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender}.
+	 * @return The new table.
+	 */
+	public CoPurchaseTable update(UserItemMatrixUpdate update, CoOccurrenceMatrix updatedCoOccurrences) {
+		checkUpdate(update);
+		if (update.isEmpty()) {
+			return this;
+		}
+		ProductIndex newIndex = update.getMatrix().getProductIndex();
+		boolean[] changed = new boolean[newIndex.size()];
+		int changedRows = 0;
+		for (OrderItemSet itemSet : update.getAddedItemSets()) {
+			for (Long product : itemSet.getOrderset().keySet()) {
+				int row = newIndex.indexOf(product);
+				if (!changed[row]) {
+					changed[row] = true;
+					changedRows++;
+				}
+			}
+		}
+		// the mapping keeps the order of indices, which also breaks ties within a
+		// row, so the copied rows stay sorted
+		int[] newIndices = productIndex.mapTo(newIndex);
+		int[] oldRows = new int[newIndex.size()];
+		Arrays.fill(oldRows, -1);
+		for (int i = 0; i < newIndices.length; i++) {
+			oldRows[newIndices[i]] = i;
+		}
+		int[] newRowOffsets = new int[newIndex.size() + 1];
+		int[] newProducts = new int[(int) Math.min(products.length + (long) changedRows * rowSize,
+				updatedCoOccurrences.getEntries())];
+		int[] newCounts = new int[newProducts.length];
+		int size = 0;
+		TopKSelector selector = new TopKSelector(rowSize);
+		for (int i = 0; i < newIndex.size(); i++) {
+			if (changed[i]) {
+				size = selectRow(updatedCoOccurrences, i, selector, newProducts, newCounts, size);
+			} else if (oldRows[i] >= 0) {
+				for (int k = rowOffsets[oldRows[i]]; k < rowOffsets[oldRows[i] + 1]; k++) {
+					newProducts[size] = newIndices[products[k]];
+					newCounts[size] = counts[k];
+					size++;
+				}
+			}
+			newRowOffsets[i + 1] = size;
+		}
+		return new CoPurchaseTable(newIndex, updatedCoOccurrences, rowSize, newRowOffsets, newProducts, newCounts);
+	}
+
+	private void checkUpdate(UserItemMatrixUpdate update) {
+		if (!productIndex.equals(update.getPreviousMatrix().getProductIndex())) {
+			throw new IllegalArgumentException(
+					"The update was prepared for other orders than this table was built with.");
+		}
+	}
+
+	/**
+	 * Selects the products most often bought together with one product and
+	 * appends them to the entry arrays.
+	 *
+	 * @return The new number of entries.
+	 */
+	private static int selectRow(CoOccurrenceMatrix coOccurrences, int row, TopKSelector selector, int[] products,
+			int[] counts, int size) {
+		for (int k = coOccurrences.getRowStart(row); k < coOccurrences.getRowEnd(row); k++) {
+			// the diagonal only counts the orders of the product itself
+			if (coOccurrences.getColumn(k) != row) {
+				selector.offer(coOccurrences.getColumn(k), coOccurrences.getCount(k));
+			}
+		}
+		int count = selector.size();
+		long[] rowProducts = new long[count];
+		double[] rowCounts = new double[count];
+		selector.sort(rowProducts, rowCounts);
+		for (int n = 0; n < count; n++) {
+			products[size] = (int) rowProducts[n];
+			counts[size] = (int) rowCounts[n];
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Recommends the products most often bought together with the products in
+	 * the cart. For a single product, these are the first products of its row;
+	 * for more products, the common orders are summed over their rows.
+	 *
+	 * @param currentItems
+	 *            The product IDs in the cart.
+	 * @param max
+	 *            The maximum number of recommendations.
+	 * @return The recommended product IDs, without the products in the cart;
+	 *         null if none of the products was bought together with a product
+	 *         outside the cart.
+	 */
+	public List<Long> recommend(List<Long> currentItems, int max) {
+		if (currentItems.size() == 1) {
+			int row = productIndex.indexOf(currentItems.get(0));
+			if (row < 0 || rowOffsets[row] == rowOffsets[row + 1]) {
+				return null;
+			}
+			int end = Math.min(rowOffsets[row + 1], rowOffsets[row] + max);
+			List<Long> recommended = new ArrayList<>(end - rowOffsets[row]);
+			for (int k = rowOffsets[row]; k < end; k++) {
+				recommended.add(productIndex.getId(products[k]));
+			}
+			return recommended;
+		}
+		HashMap<Long, Integer> scores = new HashMap<>();
+		for (Long product : currentItems) {
+			int row = productIndex.indexOf(product);
+			if (row < 0) {
+				// product was never bought
+				continue;
+			}
+			for (int k = rowOffsets[row]; k < rowOffsets[row + 1]; k++) {
+				scores.merge(productIndex.getId(products[k]), counts[k], Integer::sum);
+			}
+		}
+		Set<Long> excluded = new HashSet<>(currentItems);
+		TopKSelector selector = new TopKSelector(max);
+		for (Entry<Long, Integer> score : scores.entrySet()) {
+			if (!excluded.contains(score.getKey())) {
+				selector.offer(score.getKey(), score.getValue());
+			}
+		}
+		if (selector.size() == 0) {
+			return null;
+		}
+		return selector.toList();
+	}
+
+	/**
+	 * @return The number of stored product pairs.
+	 */
+	public int getEntries() {
+		return rowOffsets[rowOffsets.length - 1];
+	}
+}
@@ -43,6 +43,27 @@ public interface IRecommender {
 	 */
 	public void train(List<OrderItem> orderItems, List<Order> orders);
 
+	/**
+	 * Incorporates {@link OrderItem}s and {@link Order}s that were placed after the
+	 * last (re)training into this recommender. The result is the same as calling
+	 * {@link IRecommender#train(List, List)} with all orders seen so far, but
+	 * only the work on the buying history, such as pairing the products of a
+	 * user, is limited to the users that placed the new orders. The model is
+	 * still copied, so an update costs time linear in the size of the model.
+	 * Recommenders that derive state from all users or prune their model may
+	 * repeat their complete pre-processing. {@link Order}s that are already
+	 * known (by ID) are ignored. If this recommender was not trained yet, the
+	 * given orders are used for training.
+	 * 
+	 * @param newOrderItems
+	 *            A list of {@link OrderItem}s that were placed by users since the
+	 *            last training.
+	 * @param newOrders
+	 *            A list of {@link Order}s that were placed by users since the last
+	 *            training.
+	 */
+	public void update(List<OrderItem> newOrderItems, List<Order> newOrders);
+
 	/**
 	 * Return a list of all {@link Product}s, which are recommended for the given
 	 * {@link User} buying the given list of {@link OrderItem}s. <br>
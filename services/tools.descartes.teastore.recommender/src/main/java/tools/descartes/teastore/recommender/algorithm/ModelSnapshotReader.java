@@ -0,0 +1,193 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a binary model snapshot written by {@link ModelSnapshotWriter}. Snapshot
+ * files are memory-mapped, so arrays are copied from the page cache in bulk
+ * instead of being parsed value by value.
+ */
+public final class ModelSnapshotReader {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param buffer
+	 *            The buffer holding the snapshot, positioned at its start.
+	 */
+	public ModelSnapshotReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Memory-maps the given snapshot file.
+	 *
+	 * @param file
+	 *            The snapshot file.
+	 * @return A reader positioned at the start of the file.
+	 * @throws IOException
+	 *             If the file cannot be mapped.
+	 */
+	public static ModelSnapshotReader map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot " + file + " exceeds the maximum mappable size.");
+			}
+			// the mapping stays valid after closing the channel
+			return new ModelSnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw truncated(e);
+		}
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public long readLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw truncated(e);
+		}
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public String readString() throws IOException {
+		byte[] bytes = new byte[readLength(1)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The next array.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public int[] readIntArray() throws IOException {
+		int[] values = new int[readLength(Integer.BYTES)];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + values.length * Integer.BYTES);
+		return values;
+	}
+
+	/**
+	 * @return The next array.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public long[] readLongArray() throws IOException {
+		long[] values = new long[readLength(Long.BYTES)];
+		buffer.asLongBuffer().get(values);
+		buffer.position(buffer.position() + values.length * Long.BYTES);
+		return values;
+	}
+
+	/**
+	 * @return The next array.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public double[] readDoubleArray() throws IOException {
+		double[] values = new double[readLength(Double.BYTES)];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + values.length * Double.BYTES);
+		return values;
+	}
+
+	/**
+	 * @return The next array.
+	 * @throws IOException
+	 *             If the snapshot is truncated.
+	 */
+	public float[] readFloatArray() throws IOException {
+		float[] values = new float[readLength(Float.BYTES)];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + values.length * Float.BYTES);
+		return values;
+	}
+
+	/**
+	 * Checks that rows of a sparse matrix read from a snapshot are consistent, so
+	 * a corrupt snapshot is rejected instead of failing on the first
+	 * recommendation that visits the corrupt row.
+	 *
+	 * @param rowOffsets
+	 *            The position of the first entry of each row, followed by the
+	 *            number of entries.
+	 * @param columns
+	 *            The column of each entry.
+	 * @param columnCount
+	 *            The number of columns.
+	 * @param name
+	 *            The name of the matrix for the error message.
+	 * @throws IOException
+	 *             If the offsets do not increase monotonically from 0 to the
+	 *             number of entries or a column is out of range.
+	 */
+	public static void checkRows(int[] rowOffsets, int[] columns, int columnCount, String name)
+			throws IOException {
+		if (rowOffsets.length == 0 || rowOffsets[0] != 0 || rowOffsets[rowOffsets.length - 1] != columns.length) {
+			throw new IOException("Snapshot " + name + " is inconsistent.");
+		}
+		for (int row = 1; row < rowOffsets.length; row++) {
+			if (rowOffsets[row] < rowOffsets[row - 1]) {
+				throw new IOException("Snapshot " + name + " is inconsistent.");
+			}
+		}
+		for (int column : columns) {
+			if (column < 0 || column >= columnCount) {
+				throw new IOException("Snapshot " + name + " references unknown column " + column + ".");
+			}
+		}
+	}
+
+	private int readLength(int elementSize) throws IOException {
+		int length = readInt();
+		if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+			throw new IOException("Snapshot is truncated or corrupt.");
+		}
+		return length;
+	}
+
+	private static IOException truncated(BufferUnderflowException e) {
+		return new IOException("Snapshot is truncated or corrupt.", e);
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the binary model snapshot read by {@link ModelSnapshotReader}. Values
+ * are written in big-endian byte order; arrays are prefixed with their length.
+ */
+public final class ModelSnapshotWriter implements Closeable {
+
+	/**
+	 * Marks the start of a snapshot file.
+	 */
+	public static final int MAGIC = 0x54534D53;
+
+	/**
+	 * Version of the snapshot layout. Has to be increased with every change of the
+	 * layout of any recommender, older snapshots are then ignored.
+	 */
+	public static final int VERSION = 3;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final WritableByteChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Creates a new writer.
+	 *
+	 * @param channel
+	 *            The channel to write to. Is closed together with this writer.
+	 */
+	public ModelSnapshotWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeInt(int value) throws IOException {
+		ensureRemaining(Integer.BYTES);
+		buffer.putInt(value);
+	}
+
+	/**
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeLong(long value) throws IOException {
+		ensureRemaining(Long.BYTES);
+		buffer.putLong(value);
+	}
+
+	/**
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		int written = 0;
+		while (written < bytes.length) {
+			ensureRemaining(1);
+			int length = Math.min(buffer.remaining(), bytes.length - written);
+			buffer.put(bytes, written, length);
+			written += length;
+		}
+	}
+
+	/**
+	 * @param values
+	 *            The array to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeIntArray(int[] values) throws IOException {
+		writeInt(values.length);
+		int written = 0;
+		while (written < values.length) {
+			ensureRemaining(Integer.BYTES);
+			int length = Math.min(buffer.remaining() / Integer.BYTES, values.length - written);
+			buffer.asIntBuffer().put(values, written, length);
+			buffer.position(buffer.position() + length * Integer.BYTES);
+			written += length;
+		}
+	}
+
+	/**
+	 * @param values
+	 *            The array to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeLongArray(long[] values) throws IOException {
+		writeInt(values.length);
+		int written = 0;
+		while (written < values.length) {
+			ensureRemaining(Long.BYTES);
+			int length = Math.min(buffer.remaining() / Long.BYTES, values.length - written);
+			buffer.asLongBuffer().put(values, written, length);
+			buffer.position(buffer.position() + length * Long.BYTES);
+			written += length;
+		}
+	}
+
+	/**
+	 * @param values
+	 *            The array to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeDoubleArray(double[] values) throws IOException {
+		writeInt(values.length);
+		int written = 0;
+		while (written < values.length) {
+			ensureRemaining(Double.BYTES);
+			int length = Math.min(buffer.remaining() / Double.BYTES, values.length - written);
+			buffer.asDoubleBuffer().put(values, written, length);
+			buffer.position(buffer.position() + length * Double.BYTES);
+			written += length;
+		}
+	}
+
+	/**
+	 * @param values
+	 *            The array to write.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeFloatArray(float[] values) throws IOException {
+		writeInt(values.length);
+		int written = 0;
+		while (written < values.length) {
+			ensureRemaining(Float.BYTES);
+			int length = Math.min(buffer.remaining() / Float.BYTES, values.length - written);
+			buffer.asFloatBuffer().put(values, written, length);
+			buffer.position(buffer.position() + length * Float.BYTES);
+			written += length;
+		}
+	}
+
+	private void ensureRemaining(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all buffered values to the channel.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -47,6 +47,11 @@ public class OrderItemSet {
 	 */
 	private long orderId;
 
+	/**
+	 * The time the order was placed in milliseconds since the epoch, 0 if unknown.
+	 */
+	private long time;
+
 	/**
 	 * The productIds that were bought together with the given quantity.
 	 */
@@ -95,4 +100,20 @@ public class OrderItemSet {
 	public void setUserId(long userId) {
 		this.userId = userId;
 	}
+
+	/**
+	 * @return the time the order was placed in milliseconds since the epoch, 0 if
+	 *         unknown
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @param time
+	 *            the time the order was placed in milliseconds since the epoch
+	 */
+	public void setTime(long time) {
+		this.time = time;
+	}
 }
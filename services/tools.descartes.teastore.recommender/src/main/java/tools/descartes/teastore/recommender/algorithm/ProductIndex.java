@@ -0,0 +1,229 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import tools.descartes.teastore.entities.Product;
+
+/**
+ * Dense mapping of {@link Product} IDs to the consecutive indices 0 to
+ * {@link #size()} - 1. Algorithms can use these indices to store per-product
+ * values in primitive arrays instead of maps keyed by boxed IDs. The indices
+ * follow the ascending order of the IDs.
+ */
+public final class ProductIndex {
+
+	/**
+	 * The known product IDs in ascending order. The position of an ID is its
+	 * index.
+	 */
+	private final long[] ids;
+
+	/**
+	 * Creates a new index over the given product IDs. Duplicates are ignored.
+	 *
+	 * @param productIds
+	 *            The product IDs to index.
+	 */
+	public ProductIndex(Collection<Long> productIds) {
+		long[] unsorted = new long[productIds.size()];
+		int i = 0;
+		for (Long id : productIds) {
+			unsorted[i++] = id;
+		}
+		ids = distinctSorted(unsorted);
+	}
+
+	/**
+	 * Creates a new index over the given product IDs, e.g., the product of every
+	 * order item. Duplicates are ignored.
+	 *
+	 * @param productIds
+	 *            The product IDs to index. Are not modified.
+	 */
+	public ProductIndex(long[] productIds) {
+		ids = distinctSorted(productIds.clone());
+	}
+
+	private ProductIndex(long[] ids, boolean sorted) {
+		this.ids = ids;
+	}
+
+	/**
+	 * Sorts the given IDs and removes duplicates.
+	 *
+	 * @param ids
+	 *            The IDs, sorted in place.
+	 * @return The distinct IDs in ascending order.
+	 */
+	static long[] distinctSorted(long[] ids) {
+		Arrays.sort(ids);
+		int distinct = 0;
+		for (int j = 0; j < ids.length; j++) {
+			if (j == 0 || ids[j] != ids[distinct - 1]) {
+				ids[distinct++] = ids[j];
+			}
+		}
+		return distinct == ids.length ? ids : Arrays.copyOf(ids, distinct);
+	}
+
+	/**
+	 * Merges two arrays of distinct IDs in ascending order.
+	 *
+	 * @param first
+	 *            Distinct IDs in ascending order.
+	 * @param second
+	 *            Distinct IDs in ascending order.
+	 * @return The distinct IDs of both arrays in ascending order, the first array
+	 *         if it contains all IDs of the second one.
+	 */
+	static long[] mergeDistinct(long[] first, long[] second) {
+		long[] merged = new long[first.length + second.length];
+		int i = 0;
+		int j = 0;
+		int size = 0;
+		while (i < first.length || j < second.length) {
+			if (j == second.length || (i < first.length && first[i] <= second[j])) {
+				if (j < second.length && first[i] == second[j]) {
+					j++;
+				}
+				merged[size++] = first[i++];
+			} else {
+				merged[size++] = second[j++];
+			}
+		}
+		return size == first.length ? first : Arrays.copyOf(merged, size);
+	}
+
+	/**
+	 * Creates an index over the products of this index and the given ones. The
+	 * known IDs are merged with the given ones instead of sorting all of them
+	 * again.
+	 *
+	 * @param productIds
+	 *            The additional product IDs. Duplicates are ignored. Are not
+	 *            modified.
+	 * @return The new index, or this index if it already contains all given
+	 *         products.
+	 */
+	public ProductIndex withProducts(long[] productIds) {
+		long[] merged = mergeDistinct(ids, distinctSorted(productIds.clone()));
+		return merged == ids ? this : new ProductIndex(merged, true);
+	}
+
+	/**
+	 * Writes this index to a model snapshot.
+	 *
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void write(ModelSnapshotWriter writer) throws IOException {
+		writer.writeLongArray(ids);
+	}
+
+	/**
+	 * Reads an index written by {@link #write(ModelSnapshotWriter)}.
+	 *
+	 * @param reader
+	 *            The snapshot reader.
+	 * @return The index.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public static ProductIndex read(ModelSnapshotReader reader) throws IOException {
+		long[] ids = reader.readLongArray();
+		for (int i = 1; i < ids.length; i++) {
+			if (ids[i - 1] >= ids[i]) {
+				throw new IOException("Snapshot product index is not sorted.");
+			}
+		}
+		return new ProductIndex(ids, true);
+	}
+
+	/**
+	 * Returns the index of the given product ID.
+	 *
+	 * @param productId
+	 *            The product ID to look up.
+	 * @return The index of the product or -1, if the product is unknown.
+	 */
+	public int indexOf(long productId) {
+		int index = Arrays.binarySearch(ids, productId);
+		if (index < 0) {
+			return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the product ID stored at the given index.
+	 *
+	 * @param index
+	 *            The index, must be between 0 and {@link #size()} - 1.
+	 * @return The product ID.
+	 */
+	public long getId(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Maps the indices of this index to the indices of the same products in
+	 * another index. As both follow the order of the IDs, the mapping preserves
+	 * the order of indices.
+	 *
+	 * @param other
+	 *            The other index, e.g., the index after an update.
+	 * @return The index in the other index for every index of this one, -1 if
+	 *         the other index does not contain the product.
+	 */
+	public int[] mapTo(ProductIndex other) {
+		int[] indices = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			indices[i] = other.indexOf(ids[i]);
+		}
+		return indices;
+	}
+
+	/**
+	 * @return The number of indexed products.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Indices are equal if they index the same product IDs, i.e., assign each
+	 * product the same index.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ProductIndex)) {
+			return false;
+		}
+		return Arrays.equals(ids, ((ProductIndex) obj).ids);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(ids);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * Bounded, thread-safe cache of recommendation results for one trained model.
+ * Results are keyed by the user ID and the set of product IDs in the cart,
+ * independent of the order and quantities of the cart items. When the capacity
+ * is exceeded, the oldest entries are evicted first.
+ */
+public final class RecommendationCache {
+
+	private final int capacity;
+
+	private final ConcurrentHashMap<Key, List<Long>> results = new ConcurrentHashMap<>();
+
+	/**
+	 * The keys in insertion order, for eviction.
+	 */
+	private final Queue<Key> insertionOrder = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity
+	 *            The maximum number of cached results.
+	 */
+	public RecommendationCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Creates the key for a request.
+	 *
+	 * @param userid
+	 *            The user ID, may be null.
+	 * @param currentItems
+	 *            The items in the cart.
+	 * @return The key.
+	 */
+	public static Key createKey(Long userid, List<OrderItem> currentItems) {
+		long[] productIds = new long[currentItems.size()];
+		for (int i = 0; i < productIds.length; i++) {
+			productIds[i] = currentItems.get(i).getProductId();
+		}
+		Arrays.sort(productIds);
+		return new Key(userid, productIds);
+	}
+
+	/**
+	 * @param key
+	 *            The key of the request.
+	 * @return A copy of the cached result, or null if none is cached.
+	 */
+	public List<Long> get(Key key) {
+		List<Long> result = results.get(key);
+		if (result == null) {
+			return null;
+		}
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * Caches the result of a request.
+	 *
+	 * @param key
+	 *            The key of the request.
+	 * @param result
+	 *            The result, is copied.
+	 */
+	public void put(Key key, List<Long> result) {
+		if (results.putIfAbsent(key, Collections.unmodifiableList(new ArrayList<>(result))) == null) {
+			insertionOrder.add(key);
+			while (results.size() > capacity) {
+				Key oldest = insertionOrder.poll();
+				if (oldest == null) {
+					break;
+				}
+				results.remove(oldest);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of cached results.
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * Key of a request: user ID and sorted product IDs of the cart.
+	 */
+	public static final class Key {
+
+		private final Long userid;
+
+		private final long[] productIds;
+
+		private final int hash;
+
+		private Key(Long userid, long[] productIds) {
+			this.userid = userid;
+			this.productIds = productIds;
+			this.hash = 31 * Objects.hashCode(userid) + Arrays.hashCode(productIds);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && Objects.equals(userid, other.userid)
+					&& Arrays.equals(productIds, other.productIds);
+		}
+	}
+}
@@ -13,10 +13,31 @@
  */
 package tools.descartes.teastore.recommender.algorithm;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -26,11 +47,17 @@ import org.slf4j.LoggerFactory;
 
 import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
 import tools.descartes.teastore.recommender.algorithm.impl.cf.PreprocessedSlopeOneRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneMatrix;
 import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneRecommender;
 import tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.DecayedPopularityRecommender;
 import tools.descartes.teastore.recommender.algorithm.impl.pop.PopularityBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.similarity.ItemSimilarityRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.sketch.SketchRecommender;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
 import tools.descartes.teastore.entities.Order;
 import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.entities.message.RecommendationRequest;
 
 /**
  * A strategy selector for the Recommender functionality.
@@ -49,9 +76,12 @@ public final class RecommenderSelector implements IRecommender {
 	static {
 		recommenders = new HashMap<String, Class<? extends IRecommender>>();
 		recommenders.put("Popularity", PopularityBasedRecommender.class);
+		recommenders.put("DecayedPopularity", DecayedPopularityRecommender.class);
 		recommenders.put("SlopeOne", SlopeOneRecommender.class);
 		recommenders.put("PreprocessedSlopeOne", PreprocessedSlopeOneRecommender.class);
 		recommenders.put("OrderBased", OrderBasedRecommender.class);
+		recommenders.put("ItemSimilarity", ItemSimilarityRecommender.class);
+		recommenders.put("Sketch", SketchRecommender.class);
 	}
 
 	/**
@@ -59,19 +89,103 @@ public final class RecommenderSelector implements IRecommender {
 	 */
 	private static final Class<? extends IRecommender> DEFAULT_RECOMMENDER = SlopeOneRecommender.class;
 
+	/**
+	 * The default maximum number of cached recommendations, if no other size was
+	 * set.
+	 */
+	private static final int DEFAULT_CACHE_SIZE = 10000;
+
+	/**
+	 * The default maximum cart size of anonymous requests answered from the
+	 * {@link CoPurchaseTable}, if no other size was set.
+	 */
+	private static final int DEFAULT_CO_PURCHASE_CART_SIZE = 3;
+
+	/**
+	 * The default latency budget per request in milliseconds, if no other budget
+	 * was set. 0 disables the budget.
+	 */
+	private static final long DEFAULT_LATENCY_BUDGET = 0;
+
+	/**
+	 * The default share of requests replayed against the shadow recommender, if
+	 * no other rate was set.
+	 */
+	private static final double DEFAULT_SHADOW_SAMPLE_RATE = 0.01;
+
+	/**
+	 * The default time in seconds HTTP caches may reuse a recommendation, if no
+	 * other time was set.
+	 */
+	private static final int DEFAULT_RESPONSE_MAX_AGE = 60;
+
 	private static final Logger LOG = LoggerFactory.getLogger(RecommenderSelector.class);
 
 	private static RecommenderSelector instance;
 
-	private IRecommender fallbackrecommender;
+	/**
+	 * The currently published models. Training builds new models off to the side
+	 * and swaps them in at once, so requests always see a complete model.
+	 */
+	private final AtomicReference<Models> models = new AtomicReference<>();
+
+	/**
+	 * The maximum number of cached recommendations per model, 0 disables the cache.
+	 */
+	private final int cacheSize;
+
+	/**
+	 * The maximum cart size of anonymous requests answered from the
+	 * {@link CoPurchaseTable}, 0 disables the table.
+	 */
+	private final int coPurchaseCartSize;
+
+	/**
+	 * The latency budget per request in nanoseconds, 0 if disabled.
+	 */
+	private final long latencyBudget;
+
+	/**
+	 * Runs the configured recommender for time-budgeted requests, null if the
+	 * budget is disabled.
+	 */
+	private final ExecutorService refinementExecutor;
+
+	/**
+	 * The algorithm evaluated on replayed requests, null if shadow mode is
+	 * disabled.
+	 */
+	private final Class<? extends IRecommender> shadowAlgorithm;
+
+	/**
+	 * Replays sampled requests against the shadow recommender, null if shadow
+	 * mode is disabled.
+	 */
+	private final ShadowEvaluator shadowEvaluator;
+
+	/**
+	 * The time in seconds HTTP caches may reuse a recommendation without
+	 * revalidating it.
+	 */
+	private final int responseMaxAge;
+
+	/**
+	 * Calculates the differences matrix of the configured recommender, if it is a
+	 * {@link SlopeOneRecommender}; null for the default.
+	 */
+	private volatile Function<UserItemMatrix, SlopeOneMatrix> slopeOneMatrixBuilder;
+
+	private final LongAdder cacheHits = new LongAdder();
 
-	private IRecommender recommender;
+	private final LongAdder cacheMisses = new LongAdder();
 
 	/**
 	 * Private Constructor.
 	 */
 	private RecommenderSelector() {
-		fallbackrecommender = new PopularityBasedRecommender();
+		IRecommender fallbackrecommender;
+		IRecommender recommender = null;
+		fallbackrecommender = lookupFallbackRecommender();
 		try {
 			String recommendername = (String) new InitialContext().lookup("java:comp/env/recommenderAlgorithm");
 			// if a specific algorithm is set, we can use that algorithm
@@ -129,19 +243,220 @@ public final class RecommenderSelector implements IRecommender {
 				recommender = fallbackrecommender;
 			}
 		}
+		int size = DEFAULT_CACHE_SIZE;
+		try {
+			size = (Integer) new InitialContext().lookup("java:comp/env/recommenderCacheSize");
+		} catch (NamingException e) {
+			LOG.info("Recommender cache size not set. Using default cache size (" + DEFAULT_CACHE_SIZE + ").");
+		}
+		cacheSize = Math.max(0, size);
+		int cartSize = DEFAULT_CO_PURCHASE_CART_SIZE;
+		try {
+			cartSize = (Integer) new InitialContext().lookup("java:comp/env/recommenderCoPurchaseCartSize");
+		} catch (NamingException e) {
+			LOG.info("Recommender co-purchase cart size not set. Using default size ("
+					+ DEFAULT_CO_PURCHASE_CART_SIZE + ").");
+		}
+		coPurchaseCartSize = Math.max(0, cartSize);
+		long budget = DEFAULT_LATENCY_BUDGET;
+		try {
+			budget = (Long) new InitialContext().lookup("java:comp/env/recommenderLatencyBudget");
+		} catch (NamingException e) {
+			LOG.info("Recommender latency budget not set. Waiting for the recommender on every request.");
+		}
+		latencyBudget = TimeUnit.MILLISECONDS.toNanos(Math.max(0, budget));
+		refinementExecutor = latencyBudget > 0 ? newRefinementExecutor() : null;
+		int maxAge = DEFAULT_RESPONSE_MAX_AGE;
+		try {
+			maxAge = (Integer) new InitialContext().lookup("java:comp/env/recommenderResponseMaxAge");
+		} catch (NamingException e) {
+			LOG.info("Recommender response max age not set. Using default max age (" + DEFAULT_RESPONSE_MAX_AGE
+					+ "s).");
+		}
+		responseMaxAge = Math.max(0, maxAge);
+		shadowAlgorithm = lookupShadowAlgorithm(recommender);
+		double sampleRate = DEFAULT_SHADOW_SAMPLE_RATE;
+		try {
+			sampleRate = (Double) new InitialContext().lookup("java:comp/env/recommenderShadowSampleRate");
+		} catch (NamingException e) {
+			if (shadowAlgorithm != null) {
+				LOG.info("Recommender shadow sample rate not set. Using default rate (" + DEFAULT_SHADOW_SAMPLE_RATE
+						+ ").");
+			}
+		}
+		shadowEvaluator = shadowAlgorithm != null && sampleRate > 0
+				? new ShadowEvaluator(Math.min(1, sampleRate), RecommenderMetrics.getInstance().getShadow())
+				: null;
+		models.set(new Models(recommender, fallbackrecommender, null, newCache(), null,
+				budget(recommender, fallbackrecommender)));
+	}
+
+	/**
+	 * @return All available recommending approaches by their name for the
+	 *         environment variable, sorted by name.
+	 */
+	public static Map<String, Class<? extends IRecommender>> getAlgorithms() {
+		return new TreeMap<>(recommenders);
+	}
+
+	/**
+	 * Creates the fallback recommender set in the context. Only popularity-based
+	 * algorithms are accepted, as they recommend for every user and cart.
+	 * 
+	 * @return The fallback recommender, a {@link DecayedPopularityRecommender} if
+	 *         none or an unsuitable algorithm was set.
+	 */
+	private static IRecommender lookupFallbackRecommender() {
+		String fallbackname;
+		try {
+			fallbackname = (String) new InitialContext().lookup("java:comp/env/recommenderFallbackAlgorithm");
+		} catch (NamingException e) {
+			LOG.info("Recommender fallback algorithm not set. Using default fallback (DecayedPopularity).");
+			return new DecayedPopularityRecommender();
+		}
+		if ("Popularity".equals(fallbackname)) {
+			return new PopularityBasedRecommender();
+		}
+		if (!"DecayedPopularity".equals(fallbackname)) {
+			LOG.warn("Fallback recommendername: " + fallbackname
+					+ " is not a popularity-based algorithm. Using default fallback (DecayedPopularity).");
+		}
+		// keeps only the top products, so each fallback costs only a walk past the
+		// products in the cart
+		return new DecayedPopularityRecommender();
+	}
+
+	/**
+	 * Looks up the algorithm set as recommenderShadowAlgorithm in the context.
+	 * 
+	 * @param recommender
+	 *            The configured recommender.
+	 * @return The algorithm, or null if none is set, it is unknown or it is the
+	 *         configured one.
+	 */
+	private static Class<? extends IRecommender> lookupShadowAlgorithm(IRecommender recommender) {
+		String shadowname;
+		try {
+			shadowname = (String) new InitialContext().lookup("java:comp/env/recommenderShadowAlgorithm");
+		} catch (NamingException e) {
+			LOG.info("Recommender shadow algorithm not set. Shadow mode is disabled.");
+			return null;
+		}
+		if (shadowname == null || shadowname.isEmpty()) {
+			return null;
+		}
+		Class<? extends IRecommender> shadowAlgorithm = recommenders.get(shadowname);
+		if (shadowAlgorithm == null) {
+			LOG.warn("Shadow recommendername: " + shadowname + " was not found. Shadow mode is disabled.");
+			return null;
+		}
+		if (shadowAlgorithm == recommender.getClass()) {
+			LOG.warn("Shadow recommender " + shadowname + " is the configured recommender. Shadow mode is disabled.");
+			return null;
+		}
+		return shadowAlgorithm;
 	}
 
 	@Override
 	public List<Long> recommendProducts(Long userid, List<OrderItem> currentItems)
 			throws UnsupportedOperationException {
+		// use the same models for the whole request, even if a training finishes
+		// meanwhile
+		return recommendProductsCached(models.get(), userid, currentItems);
+	}
+
+	/**
+	 * Recommends products for a batch of requests. All requests are evaluated in
+	 * parallel against the same models, even if a training finishes meanwhile.
+	 * 
+	 * @param requests
+	 *            The requests, each consisting of a user ID (may be null) and the
+	 *            product IDs in the user's cart.
+	 * @return The recommended product IDs for each request, in the order of the
+	 *         requests.
+	 * @throws UnsupportedOperationException
+	 *             If the recommender is not trained yet.
+	 */
+	public List<List<Long>> recommendProducts(List<RecommendationRequest> requests)
+			throws UnsupportedOperationException {
+		Models current = models.get();
+		return requests.parallelStream()
+				.map(request -> recommendProductsCached(current, request.getUID(), toOrderItems(request)))
+				.collect(Collectors.toList());
+	}
+
+	private static List<OrderItem> toOrderItems(RecommendationRequest request) {
+		List<Long> productIds = request.getProductIds();
+		if (productIds == null) {
+			return new ArrayList<>();
+		}
+		List<OrderItem> items = new ArrayList<>(productIds.size());
+		for (Long productId : productIds) {
+			OrderItem item = new OrderItem();
+			item.setProductId(productId);
+			item.setQuantity(1);
+			items.add(item);
+		}
+		return items;
+	}
+
+	private List<Long> recommendProductsCached(Models current, Long userid, List<OrderItem> currentItems) {
+		List<Long> recommended = lookupOrRecommendProducts(current, userid, currentItems);
+		if (current.shadow != null && currentItems != null && recommended != null) {
+			// replayed in the background, the answer is not delayed
+			shadowEvaluator.offer(current.recommender, current.shadow, current.fallbackrecommender, userid,
+					currentItems, recommended);
+		}
+		return recommended;
+	}
+
+	private List<Long> lookupOrRecommendProducts(Models current, Long userid, List<OrderItem> currentItems) {
+		if (current.cache == null || currentItems == null) {
+			return recommendProducts(current, userid, currentItems).products;
+		}
+		RecommendationCache.Key key = RecommendationCache.createKey(userid, currentItems);
+		List<Long> cached = current.cache.get(key);
+		if (cached != null) {
+			cacheHits.increment();
+			return cached;
+		}
+		cacheMisses.increment();
+		Answer recommended = recommendProducts(current, userid, currentItems);
+		// degraded answers would otherwise be served until the next training
+		if (recommended.products != null && recommended.cacheable) {
+			current.cache.put(key, recommended.products);
+		}
+		return recommended.products;
+	}
+
+	private Answer recommendProducts(Models current, Long userid, List<OrderItem> currentItems) {
+		if (current.coPurchases != null && currentItems != null && !currentItems.isEmpty()
+				&& currentItems.size() <= coPurchaseCartSize && !isKnownUser(current, userid)) {
+			// most anonymous requests come with a single product, which the
+			// collaborative algorithms cannot handle without a fallback anyway
+			List<Long> recommended = recommendCoPurchases(current, currentItems);
+			if (recommended != null) {
+				return new Answer(recommended, true);
+			}
+		}
+		// under a latency budget, the recommender only refines the fallback answer
+		IRecommender recommender = current.budgeted != null ? current.budgeted : current.recommender;
+		long start = System.nanoTime();
 		try {
-			return recommender.recommendProducts(userid, currentItems);
+			if (current.budgeted != null) {
+				TimeBudgetedRecommender.Result result = current.budgeted.recommend(userid, currentItems);
+				return new Answer(result.getProducts(), result.isCacheable());
+			}
+			return new Answer(recommender.recommendProducts(userid, currentItems), true);
 		} catch (UseFallBackException e) {
 			// a UseFallBackException is usually ignored (as it is conceptual and might
 			// occur quite often)
 			LOG.trace("Executing " + recommender.getClass().getName()
 					+ " as recommender failed. Using fallback recommender. Reason:\n" + e.getMessage());
-			return fallbackrecommender.recommendProducts(userid, currentItems);
+			RecommenderMetrics.getInstance()
+					.recordFallback(recommender.getClass().getSimpleName() + ": " + e.getMessage());
+			// the recommender cannot answer this request with the published models
+			return new Answer(recommendFallback(current, userid, currentItems), true);
 		} catch (UnsupportedOperationException e) {
 			// if algorithm is not yet trained, we throw the error
 			LOG.error("Executing " + recommender.getClass().getName()
@@ -151,7 +466,43 @@ public final class RecommenderSelector implements IRecommender {
 			// any other exception is just reported
 			LOG.warn("Executing " + recommender.getClass().getName()
 					+ " threw an unexpected error. Using fallback recommender. Reason:\n" + e.getMessage());
-			return fallbackrecommender.recommendProducts(userid, currentItems);
+			// the message of an unexpected error may be specific to the request
+			RecommenderMetrics.getInstance()
+					.recordFallback(recommender.getClass().getSimpleName() + ": " + e.getClass().getName());
+			// the error may be transient, so the answer is not cached
+			return new Answer(recommendFallback(current, userid, currentItems), false);
+		} finally {
+			// attributed to the configured algorithm, also if it is time-budgeted
+			RecommenderMetrics.getInstance().recordLatency(current.recommender.getClass().getSimpleName(),
+					System.nanoTime() - start);
+		}
+	}
+
+	private static boolean isKnownUser(Models current, Long userid) {
+		return userid != null
+				&& ((AbstractRecommender) current.recommender).getUserItemMatrix().indexOfUser(userid) >= 0;
+	}
+
+	private static List<Long> recommendCoPurchases(Models current, List<OrderItem> currentItems) {
+		long start = System.nanoTime();
+		List<Long> items = new ArrayList<>(currentItems.size());
+		for (OrderItem item : currentItems) {
+			items.add(item.getProductId());
+		}
+		List<Long> recommended = current.coPurchases.recommend(items,
+				AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS);
+		RecommenderMetrics.getInstance().recordLatency(CoPurchaseTable.class.getSimpleName(),
+				System.nanoTime() - start);
+		return recommended;
+	}
+
+	private static List<Long> recommendFallback(Models current, Long userid, List<OrderItem> currentItems) {
+		long start = System.nanoTime();
+		try {
+			return current.fallbackrecommender.recommendProducts(userid, currentItems);
+		} finally {
+			RecommenderMetrics.getInstance().recordLatency(
+					"fallback " + current.fallbackrecommender.getClass().getSimpleName(), System.nanoTime() - start);
 		}
 	}
 
@@ -176,9 +527,667 @@ public final class RecommenderSelector implements IRecommender {
 	 * java.util.List)
 	 */
 	@Override
-	public void train(List<OrderItem> orderItems, List<Order> orders) {
-		recommender.train(orderItems, orders);
-		fallbackrecommender.train(orderItems, orders);
+	public synchronized void train(List<OrderItem> orderItems, List<Order> orders) {
+		// train new instances, the current ones keep serving requests meanwhile
+		Models current = models.get();
+		IRecommender recommender = configure(newInstance(current.recommender));
+		IRecommender fallbackrecommender = newInstance(current.fallbackrecommender);
+		// the orders are grouped once and shared by all recommenders
+		UserItemMatrix matrix = AbstractRecommender.buildUserItemMatrix(orderItems, orders);
+		trainShared(recommender, matrix, orderItems, orders);
+		if (current.recommender == current.fallbackrecommender) {
+			fallbackrecommender = recommender;
+		} else {
+			trainShared(fallbackrecommender, matrix, orderItems, orders);
+		}
+		IRecommender shadow = null;
+		if (shadowEvaluator != null) {
+			shadow = newShadow();
+			try {
+				trainShared(shadow, matrix, orderItems, orders);
+			} catch (RuntimeException e) {
+				shadow = shadowFailed(e);
+			}
+		}
+		models.set(new Models(recommender, fallbackrecommender, shadow, newCache(), buildCoPurchases(recommender),
+				budget(recommender, fallbackrecommender)));
+	}
+
+	@Override
+	public synchronized void update(List<OrderItem> newOrderItems, List<Order> newOrders) {
+		// update copies of the current instances, which keep serving requests
+		// meanwhile
+		Models current = models.get();
+		IRecommender recommender = copy(current.recommender);
+		IRecommender fallbackrecommender = copy(current.fallbackrecommender);
+		// the new orders are grouped once and shared by all recommenders trained
+		// with the same orders
+		UserItemMatrixUpdate update = prepareUpdate(current.recommender, newOrderItems, newOrders);
+		updateShared(recommender, update, newOrderItems, newOrders);
+		if (current.recommender == current.fallbackrecommender) {
+			fallbackrecommender = recommender;
+		} else {
+			updateShared(fallbackrecommender, update, newOrderItems, newOrders);
+		}
+		IRecommender shadow = null;
+		if (current.shadow != null) {
+			shadow = copy(current.shadow);
+			try {
+				updateShared(shadow, update, newOrderItems, newOrders);
+			} catch (RuntimeException e) {
+				shadow = shadowFailed(e);
+			}
+		}
+		models.set(new Models(recommender, fallbackrecommender, shadow, newCache(),
+				updateCoPurchases(current.coPurchases, recommender, update), budget(recommender, fallbackrecommender)));
+	}
+
+	/**
+	 * Writes the published models to a binary snapshot file. The file is written
+	 * next to the target and then moved, so readers never see a partial snapshot.
+	 * 
+	 * @param file
+	 *            The snapshot file.
+	 * @param maxTime
+	 *            The maximum order time considered by the models.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeSnapshot(Path file, long maxTime) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeSnapshot(channel, maxTime);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the published models as binary snapshot to a channel, e.g., to
+	 * transfer them to another recommender instance. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            The channel to write to.
+	 * @param maxTime
+	 *            The maximum order time considered by the models.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeSnapshot(WritableByteChannel channel, long maxTime) throws IOException {
+		Models current = models.get();
+		if (!(current.recommender instanceof AbstractRecommender)
+				|| !(current.fallbackrecommender instanceof AbstractRecommender)) {
+			throw new IOException("Snapshots are only supported for subclasses of AbstractRecommender.");
+		}
+		AbstractRecommender recommender = (AbstractRecommender) current.recommender;
+		AbstractRecommender fallbackrecommender = (AbstractRecommender) current.fallbackrecommender;
+		// the writer is not closed, as this would close the channel
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(channel);
+		writer.writeInt(ModelSnapshotWriter.MAGIC);
+		writer.writeInt(ModelSnapshotWriter.VERSION);
+		writer.writeLong(maxTime);
+		writer.writeString(recommender.getClass().getName());
+		writer.writeString(fallbackrecommender.getClass().getName());
+		// both models were trained with the same orders
+		recommender.writeOrderHistory(writer);
+		recommender.writeModel(writer);
+		if (fallbackrecommender != recommender) {
+			fallbackrecommender.writeModel(writer);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Restores the models from a snapshot file written by
+	 * {@link #writeSnapshot(Path, long)} and publishes them. The snapshot must have
+	 * been written with the currently configured algorithms.
+	 * 
+	 * @param file
+	 *            The snapshot file.
+	 * @return The maximum order time considered by the restored models.
+	 * @throws IOException
+	 *             If the file cannot be read, was written by another version or
+	 *             with other algorithms, or is corrupt.
+	 */
+	public long readSnapshot(Path file) throws IOException {
+		return readSnapshot(ModelSnapshotReader.map(file), "Snapshot " + file);
+	}
+
+	/**
+	 * Restores the models from a snapshot written by
+	 * {@link #writeSnapshot(WritableByteChannel, long)}, e.g., received from
+	 * another recommender instance, and publishes them. The snapshot must have been
+	 * written with the currently configured algorithms.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the snapshot, positioned at its start.
+	 * @return The maximum order time considered by the restored models.
+	 * @throws IOException
+	 *             If the snapshot was written by another version or with other
+	 *             algorithms, or is corrupt.
+	 */
+	public long readSnapshot(ByteBuffer buffer) throws IOException {
+		return readSnapshot(new ModelSnapshotReader(buffer), "Received snapshot");
+	}
+
+	/**
+	 * Reads the maximum order time of a snapshot written by
+	 * {@link #writeSnapshot(WritableByteChannel, long)} without restoring the
+	 * models, e.g., to skip a snapshot older than the published models.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the snapshot, positioned at its start. Its
+	 *            position is not changed.
+	 * @return The maximum order time considered by the models of the snapshot.
+	 * @throws IOException
+	 *             If the snapshot was written by another version or is corrupt.
+	 */
+	public static long readSnapshotMaxTime(ByteBuffer buffer) throws IOException {
+		return readHeader(new ModelSnapshotReader(buffer.duplicate()), "Received snapshot");
+	}
+
+	private static long readHeader(ModelSnapshotReader reader, String source) throws IOException {
+		if (reader.readInt() != ModelSnapshotWriter.MAGIC) {
+			throw new IOException(source + " is not a recommender snapshot.");
+		}
+		int version = reader.readInt();
+		if (version != ModelSnapshotWriter.VERSION) {
+			throw new IOException("Snapshot version " + version + " is not supported, expected "
+					+ ModelSnapshotWriter.VERSION + ".");
+		}
+		return reader.readLong();
+	}
+
+	private synchronized long readSnapshot(ModelSnapshotReader reader, String source) throws IOException {
+		Models current = models.get();
+		long maxTime = readHeader(reader, source);
+		String recommenderName = reader.readString();
+		String fallbackName = reader.readString();
+		if (!recommenderName.equals(current.recommender.getClass().getName())
+				|| !fallbackName.equals(current.fallbackrecommender.getClass().getName())) {
+			throw new IOException("Snapshot was written for " + recommenderName + " and " + fallbackName
+					+ ", but " + current.recommender.getClass().getName() + " is configured.");
+		}
+		IRecommender recommender = configure(newInstance(current.recommender));
+		IRecommender fallbackrecommender = newInstance(current.fallbackrecommender);
+		if (!(recommender instanceof AbstractRecommender) || !(fallbackrecommender instanceof AbstractRecommender)) {
+			throw new IOException("Snapshots are only supported for subclasses of AbstractRecommender.");
+		}
+		UserItemMatrix itemSets;
+		try {
+			itemSets = AbstractRecommender.readOrderHistory(reader);
+			((AbstractRecommender) recommender).restore(itemSets, reader);
+			if (current.recommender == current.fallbackrecommender) {
+				fallbackrecommender = recommender;
+			} else {
+				((AbstractRecommender) fallbackrecommender).restore(itemSets, reader);
+			}
+		} catch (RuntimeException e) {
+			// inconsistent offsets or indices
+			throw new IOException(source + " is corrupt.", e);
+		}
+		IRecommender shadow = null;
+		if (shadowEvaluator != null) {
+			// the snapshot does not depend on the shadow algorithm, so the shadow is
+			// trained with the restored orders
+			shadow = newShadow();
+			try {
+				if (!(shadow instanceof AbstractRecommender)) {
+					throw new IllegalStateException(
+							"Only subclasses of AbstractRecommender can be trained from a snapshot.");
+				}
+				((AbstractRecommender) shadow).train(itemSets);
+			} catch (RuntimeException e) {
+				shadow = shadowFailed(e);
+			}
+		}
+		models.set(new Models(recommender, fallbackrecommender, shadow, newCache(), buildCoPurchases(recommender),
+				budget(recommender, fallbackrecommender)));
+		return maxTime;
+	}
+
+	/**
+	 * Returns the version of the published models. The version identifies the
+	 * algorithms and the orders the models were trained with, so all instances
+	 * serving models of the same orders, whether trained, updated or restored
+	 * from a snapshot, return the same version, also across restarts.
+	 * Recommendations are equal as long as the version is, provided that the
+	 * instances share their configuration. Recommendations requested after this
+	 * call are answered by models at least as new as the returned version.
+	 * 
+	 * @return The model version.
+	 */
+	public String getModelVersion() {
+		return models.get().version;
+	}
+
+	/**
+	 * Replaces how the configured recommender calculates its differences matrix,
+	 * if it is a {@link SlopeOneRecommender}, see
+	 * {@link SlopeOneRecommender#setMatrixBuilder(Function)}. Applies from the
+	 * next training on; the fallback and shadow recommenders always build their
+	 * models locally.
+	 * 
+	 * @param builder
+	 *            The builder, null restores the default.
+	 */
+	public void setSlopeOneMatrixBuilder(Function<UserItemMatrix, SlopeOneMatrix> builder) {
+		slopeOneMatrixBuilder = builder;
+	}
+
+	/**
+	 * @return The time in seconds HTTP caches may reuse a recommendation without
+	 *         revalidating it, 0 if they must always revalidate.
+	 */
+	public int getResponseMaxAge() {
+		return responseMaxAge;
+	}
+
+	/**
+	 * @return The number of recommendations served from the cache.
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return The number of recommendations that had to be computed, because they
+	 *         were not cached.
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * @return The number of recommendations cached for the published models.
+	 */
+	public int getCacheSize() {
+		RecommendationCache cache = models.get().cache;
+		return cache == null ? 0 : cache.size();
+	}
+
+	/**
+	 * Estimates the memory of the published models by their serialized size. The
+	 * estimate is computed once per published model.
+	 * 
+	 * @return The size in bytes of the orders known to the models and of the
+	 *         state of each model, by algorithm, including the shadow
+	 *         recommender; empty if the models are not
+	 *         trained or do not support snapshots.
+	 */
+	public Map<String, Long> getModelSizes() {
+		Models current = models.get();
+		Map<String, Long> sizes = current.sizes;
+		if (sizes == null) {
+			sizes = computeModelSizes(current);
+			current.sizes = sizes;
+		}
+		return sizes;
+	}
+
+	private static Map<String, Long> computeModelSizes(Models current) {
+		Map<String, Long> sizes = new LinkedHashMap<>();
+		if (!(current.recommender instanceof AbstractRecommender)
+				|| !(current.fallbackrecommender instanceof AbstractRecommender)) {
+			return sizes;
+		}
+		AbstractRecommender recommender = (AbstractRecommender) current.recommender;
+		AbstractRecommender fallbackrecommender = (AbstractRecommender) current.fallbackrecommender;
+		try {
+			CountingChannel channel = new CountingChannel();
+			ModelSnapshotWriter writer = new ModelSnapshotWriter(channel);
+			recommender.writeOrderHistory(writer);
+			writer.flush();
+			sizes.put("orderHistory", channel.reset());
+			recommender.writeModel(writer);
+			writer.flush();
+			sizes.put(recommender.getClass().getSimpleName(), channel.reset());
+			if (fallbackrecommender != recommender) {
+				fallbackrecommender.writeModel(writer);
+				writer.flush();
+				sizes.put(fallbackrecommender.getClass().getSimpleName(), channel.reset());
+			}
+			if (current.shadow instanceof AbstractRecommender) {
+				((AbstractRecommender) current.shadow).writeModel(writer);
+				writer.flush();
+				sizes.put("shadow " + current.shadow.getClass().getSimpleName(), channel.reset());
+			}
+		} catch (IOException | RuntimeException e) {
+			// not trained yet
+			sizes.clear();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Precomputes the products bought together with each product, so anonymous
+	 * requests with small carts are answered without the recommender.
+	 * 
+	 * @param recommender
+	 *            The trained recommender, providing the orders.
+	 * @return The table, or null if it is disabled or the recommender does not
+	 *         provide its orders.
+	 */
+	private CoPurchaseTable buildCoPurchases(IRecommender recommender) {
+		if (coPurchaseCartSize == 0 || !(recommender instanceof AbstractRecommender)) {
+			return null;
+		}
+		AbstractRecommender trained = (AbstractRecommender) recommender;
+		long tic = System.currentTimeMillis();
+		// each row must still fill a recommendation after removing the other
+		// products of the cart
+		int rowSize = AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS + coPurchaseCartSize - 1;
+		CoPurchaseTable table;
+		if (recommender instanceof OrderBasedRecommender) {
+			// the recommender already counted the co-occurrences
+			table = CoPurchaseTable.build(((OrderBasedRecommender) recommender).getCoOccurrences(),
+					trained.getUserItemMatrix().getProductIndex(), rowSize);
+		} else {
+			table = CoPurchaseTable.build(trained.getUserItemMatrix(), rowSize);
+		}
+		RecommenderMetrics.getInstance().recordPhase(CoPurchaseTable.class.getSimpleName() + ".build",
+				System.currentTimeMillis() - tic);
+		return table;
+	}
+
+	/**
+	 * Folds the new orders into the table of the previous models, instead of
+	 * building it again from all orders.
+	 * 
+	 * @param coPurchases
+	 *            The table of the previous models, may be null.
+	 * @param recommender
+	 *            The updated recommender, providing the orders.
+	 * @param update
+	 *            The update the recommender was updated with, may be null.
+	 * @return The table, or null if it is disabled or the recommender does not
+	 *         provide its orders.
+	 */
+	private CoPurchaseTable updateCoPurchases(CoPurchaseTable coPurchases, IRecommender recommender,
+			UserItemMatrixUpdate update) {
+		if (coPurchases == null || update == null || !(recommender instanceof AbstractRecommender)
+				|| ((AbstractRecommender) recommender).getUserItemMatrix() != update.getMatrix()) {
+			// the recommender was not updated with the shared update
+			return buildCoPurchases(recommender);
+		}
+		long tic = System.currentTimeMillis();
+		CoPurchaseTable table;
+		if (recommender instanceof OrderBasedRecommender) {
+			table = coPurchases.update(update, ((OrderBasedRecommender) recommender).getCoOccurrences());
+		} else {
+			table = coPurchases.update(update);
+		}
+		RecommenderMetrics.getInstance().recordPhase(CoPurchaseTable.class.getSimpleName() + ".update",
+				System.currentTimeMillis() - tic);
+		return table;
+	}
+
+	/**
+	 * Combines the recommender with the fallback recommender, if a latency budget
+	 * is set.
+	 * 
+	 * @param recommender
+	 *            The recommender.
+	 * @param fallbackrecommender
+	 *            The fallback recommender, answering first.
+	 * @return The combined recommender, or null if no budget is set or both are
+	 *         the same.
+	 */
+	private TimeBudgetedRecommender budget(IRecommender recommender, IRecommender fallbackrecommender) {
+		if (refinementExecutor == null || recommender == fallbackrecommender) {
+			return null;
+		}
+		return new TimeBudgetedRecommender(fallbackrecommender, recommender, latencyBudget, refinementExecutor);
+	}
+
+	/**
+	 * Creates one worker per core and queues at most one further request per
+	 * core. The workers keep computing after a deadline, so further requests are
+	 * rejected and answered by the fallback while the workers are saturated.
+	 * 
+	 * @return The executor.
+	 */
+	private static ExecutorService newRefinementExecutor() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads), runnable -> {
+					Thread thread = new Thread(runnable, "recommender-refinement-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Each published model gets its own cache, so results of previous models are
+	 * discarded together with them.
+	 * 
+	 * @return A new empty cache, or null if caching is disabled.
+	 */
+	private RecommendationCache newCache() {
+		return cacheSize > 0 ? new RecommendationCache(cacheSize) : null;
+	}
+
+	private IRecommender newShadow() {
+		try {
+			return shadowAlgorithm.getDeclaredConstructor().newInstance();
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new IllegalStateException(
+					"Could not create a new instance of " + shadowAlgorithm.getName() + " for training.", e);
+		}
+	}
+
+	/**
+	 * A failing shadow recommender must not affect the published models, so it
+	 * is only reported and evaluated again after the next training.
+	 * 
+	 * @param e
+	 *            The error of the shadow recommender.
+	 * @return null, as no shadow is published.
+	 */
+	private IRecommender shadowFailed(RuntimeException e) {
+		LOG.warn("Training shadow recommender " + shadowAlgorithm.getName()
+				+ " failed. Shadow mode is paused until the next training. Reason:\n" + e.getMessage());
+		return null;
+	}
+
+	/**
+	 * Trains the recommender with the shared matrix, if it supports it, or with
+	 * the orders otherwise.
+	 */
+	private static void trainShared(IRecommender recommender, UserItemMatrix matrix, List<OrderItem> orderItems,
+			List<Order> orders) {
+		if (recommender instanceof AbstractRecommender) {
+			((AbstractRecommender) recommender).train(matrix);
+		} else {
+			recommender.train(orderItems, orders);
+		}
+	}
+
+	/**
+	 * Prepares the update of the orders the given recommender was trained with.
+	 * 
+	 * @return The update, or null if the recommender is not trained or does not
+	 *         provide its orders.
+	 */
+	private static UserItemMatrixUpdate prepareUpdate(IRecommender recommender, List<OrderItem> newOrderItems,
+			List<Order> newOrders) {
+		if (!(recommender instanceof AbstractRecommender)
+				|| ((AbstractRecommender) recommender).getUserItemMatrix() == null) {
+			return null;
+		}
+		return UserItemMatrixUpdate.create(((AbstractRecommender) recommender).getUserItemMatrix(), newOrderItems,
+				newOrders);
+	}
+
+	/**
+	 * Updates the recommender with the shared update, if it was trained with the
+	 * orders the update was prepared for, or with the new orders otherwise.
+	 */
+	private static void updateShared(IRecommender recommender, UserItemMatrixUpdate update,
+			List<OrderItem> newOrderItems, List<Order> newOrders) {
+		if (update != null && recommender instanceof AbstractRecommender
+				&& ((AbstractRecommender) recommender).getUserItemMatrix() == update.getPreviousMatrix()) {
+			((AbstractRecommender) recommender).update(update);
+		} else {
+			recommender.update(newOrderItems, newOrders);
+		}
+	}
+
+	/**
+	 * Applies the settings that only concern the configured recommender.
+	 * 
+	 * @param recommender
+	 *            A new instance of the configured recommender.
+	 * @return The recommender.
+	 */
+	private IRecommender configure(IRecommender recommender) {
+		if (recommender instanceof SlopeOneRecommender) {
+			((SlopeOneRecommender) recommender).setMatrixBuilder(slopeOneMatrixBuilder);
+		}
+		return recommender;
+	}
+
+	private static IRecommender newInstance(IRecommender recommender) {
+		try {
+			return recommender.getClass().getDeclaredConstructor().newInstance();
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new IllegalStateException("Could not create a new instance of " + recommender.getClass().getName()
+					+ " for training.", e);
+		}
+	}
+
+	private static IRecommender copy(IRecommender recommender) {
+		if (recommender instanceof AbstractRecommender) {
+			return ((AbstractRecommender) recommender).clone();
+		}
+		// unknown implementations can only be updated in place
+		return recommender;
+	}
+
+	/**
+	 * The recommender, fallback recommender and shadow recommender that are
+	 * published together, with the cache of their results.
+	 */
+	private static final class Models {
+
+		/**
+		 * Numbers models that do not provide their orders, which only identify
+		 * the models of this run of this instance.
+		 */
+		private static final AtomicLong VERSIONS = new AtomicLong();
+
+		private static final String INSTANCE_TAG = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+		/**
+		 * Identifies the algorithms and the orders of the models.
+		 */
+		private final String version;
+
+		private final IRecommender recommender;
+
+		private final IRecommender fallbackrecommender;
+
+		/**
+		 * The recommender evaluated on replayed requests, null if disabled.
+		 */
+		private final IRecommender shadow;
+
+		private final RecommendationCache cache;
+
+		/**
+		 * The products bought together with each product, null if disabled.
+		 */
+		private final CoPurchaseTable coPurchases;
+
+		/**
+		 * The recommender combined with the fallback under the latency budget, null
+		 * if disabled.
+		 */
+		private final TimeBudgetedRecommender budgeted;
+
+		/**
+		 * The estimated sizes of the models, computed on first request.
+		 */
+		private volatile Map<String, Long> sizes;
+
+		private Models(IRecommender recommender, IRecommender fallbackrecommender, IRecommender shadow,
+				RecommendationCache cache, CoPurchaseTable coPurchases, TimeBudgetedRecommender budgeted) {
+			this.recommender = recommender;
+			this.fallbackrecommender = fallbackrecommender;
+			this.shadow = shadow;
+			this.cache = cache;
+			this.coPurchases = coPurchases;
+			this.budgeted = budgeted;
+			this.version = identify(recommender, fallbackrecommender);
+		}
+
+		private static String identify(IRecommender recommender, IRecommender fallbackrecommender) {
+			UserItemMatrix matrix = recommender instanceof AbstractRecommender
+					? ((AbstractRecommender) recommender).getUserItemMatrix()
+					: null;
+			if (matrix == null) {
+				return "local-" + INSTANCE_TAG + "-" + Long.toString(VERSIONS.incrementAndGet(), Character.MAX_RADIX);
+			}
+			String algorithms = recommender.getClass().getName() + "," + fallbackrecommender.getClass().getName();
+			return Integer.toString(algorithms.hashCode() & Integer.MAX_VALUE, Character.MAX_RADIX) + "-"
+					+ Integer.toString(matrix.getOrders(), Character.MAX_RADIX) + "-"
+					+ Long.toString(matrix.getMaxOrderTime(), Character.MAX_RADIX) + "-"
+					+ Long.toUnsignedString(matrix.getFingerprint(), Character.MAX_RADIX);
+		}
+	}
+
+	/**
+	 * Recommended products and whether they may be cached for the published
+	 * models.
+	 */
+	private static final class Answer {
+
+		private final List<Long> products;
+
+		private final boolean cacheable;
+
+		private Answer(List<Long> products, boolean cacheable) {
+			this.products = products;
+			this.cacheable = cacheable;
+		}
+	}
+
+	/**
+	 * Channel that discards all bytes and only counts them.
+	 */
+	private static final class CountingChannel implements WritableByteChannel {
+
+		private long count = 0;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int written = src.remaining();
+			src.position(src.limit());
+			count += written;
+			return written;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+
+		/**
+		 * @return The number of bytes written since the last reset.
+		 */
+		private long reset() {
+			long written = count;
+			count = 0;
+			return written;
+		}
 	}
 
 }
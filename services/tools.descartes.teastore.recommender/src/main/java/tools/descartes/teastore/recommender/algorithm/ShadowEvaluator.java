@@ -0,0 +1,229 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.metrics.ShadowStatistics;
+
+/**
+ * Replays a sample of live requests against a shadow recommender on a
+ * background thread, to compare it with the configured recommender before
+ * switching algorithms. Each replay runs both recommenders on the same thread,
+ * measures their latency and allocated memory, and compares the shadow answer
+ * with the live answer. The request thread only draws the sample and hands the
+ * request over; if the background thread falls behind, sampled requests are
+ * dropped instead of queued.
+ */
+public final class ShadowEvaluator {
+
+	/**
+	 * The maximum number of sampled requests waiting for their replay.
+	 */
+	public static final int QUEUE_SIZE = 64;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShadowEvaluator.class);
+
+	private final double sampleRate;
+
+	private final Executor executor;
+
+	private final ShadowStatistics statistics;
+
+	/**
+	 * Measures the allocations per thread, null if the JVM does not support it.
+	 */
+	private final com.sun.management.ThreadMXBean allocations;
+
+	/**
+	 * Creates an evaluator replaying on a single daemon thread.
+	 *
+	 * @param sampleRate
+	 *            The share of requests to replay, between 0 and 1.
+	 * @param statistics
+	 *            The statistics to record the comparison in.
+	 */
+	public ShadowEvaluator(double sampleRate, ShadowStatistics statistics) {
+		this(sampleRate, statistics, newShadowExecutor());
+	}
+
+	/**
+	 * Creates an evaluator replaying on the given executor.
+	 *
+	 * @param sampleRate
+	 *            The share of requests to replay, between 0 and 1.
+	 * @param statistics
+	 *            The statistics to record the comparison in.
+	 * @param executor
+	 *            The executor running the replays. Should reject tasks when it is
+	 *            saturated, so that no backlog builds up.
+	 */
+	public ShadowEvaluator(double sampleRate, ShadowStatistics statistics, Executor executor) {
+		this.sampleRate = sampleRate;
+		this.statistics = statistics;
+		this.executor = executor;
+		this.allocations = lookupAllocations();
+	}
+
+	private static com.sun.management.ThreadMXBean lookupAllocations() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+				return bean;
+			}
+		}
+		LOG.info("Allocated memory per thread is not supported. Shadow evaluation only compares latencies.");
+		return null;
+	}
+
+	/**
+	 * Replays the request in the background with the given probability. Returns
+	 * immediately.
+	 *
+	 * @param primary
+	 *            The recommender that answered the request.
+	 * @param shadow
+	 *            The recommender to evaluate, trained with the same orders.
+	 * @param fallback
+	 *            The fallback recommender, answering if a recommender requests
+	 *            to use the fallback.
+	 * @param userid
+	 *            The user ID of the request, may be null.
+	 * @param currentItems
+	 *            The items in the cart of the request.
+	 * @param answer
+	 *            The recommendations returned for the request.
+	 */
+	public void offer(IRecommender primary, IRecommender shadow, IRecommender fallback, Long userid,
+			List<OrderItem> currentItems, List<Long> answer) {
+		if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+			return;
+		}
+		// the caller may change the lists after the request
+		List<OrderItem> items = new ArrayList<>(currentItems);
+		List<Long> live = new ArrayList<>(answer);
+		try {
+			executor.execute(() -> replay(primary, shadow, fallback, userid, items, live));
+		} catch (RejectedExecutionException e) {
+			statistics.recordDropped();
+		}
+	}
+
+	private void replay(IRecommender primary, IRecommender shadow, IRecommender fallback, Long userid,
+			List<OrderItem> currentItems, List<Long> live) {
+		try {
+			// the live latency may stem from the cache, so the primary is replayed as
+			// well, under the same conditions as the shadow
+			long primaryBytes = allocatedBytes();
+			long start = System.nanoTime();
+			answer(primary, fallback, userid, currentItems);
+			long primaryNanos = System.nanoTime() - start;
+			primaryBytes = allocatedBytes() - primaryBytes;
+			long shadowBytes = allocatedBytes();
+			start = System.nanoTime();
+			List<Long> shadowAnswer = answer(shadow, null, userid, currentItems);
+			boolean shadowFallback = shadowAnswer == null;
+			if (shadowFallback) {
+				shadowAnswer = fallback.recommendProducts(userid, currentItems);
+			}
+			long shadowNanos = System.nanoTime() - start;
+			shadowBytes = allocatedBytes() - shadowBytes;
+			if (allocations == null) {
+				primaryBytes = -1;
+				shadowBytes = -1;
+			}
+			statistics.recordReplay(primaryNanos, shadowNanos, primaryBytes, shadowBytes, shadowFallback,
+					overlap(live, shadowAnswer));
+		} catch (RuntimeException e) {
+			LOG.warn("Replaying a request against shadow recommender " + shadow.getClass().getName()
+					+ " failed. Reason:\n" + e.getMessage());
+			statistics.recordFailure();
+		}
+	}
+
+	/**
+	 * @return The answer of the recommender; of the fallback if the recommender
+	 *         requests it, or null if no fallback is given.
+	 */
+	private static List<Long> answer(IRecommender recommender, IRecommender fallback, Long userid,
+			List<OrderItem> currentItems) {
+		try {
+			return recommender.recommendProducts(userid, currentItems);
+		} catch (UseFallBackException e) {
+			return fallback == null ? null : fallback.recommendProducts(userid, currentItems);
+		}
+	}
+
+	private long allocatedBytes() {
+		return allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @param live
+	 *            The live recommendations.
+	 * @param shadow
+	 *            The recommendations of the shadow recommender.
+	 * @return The share of the live recommendations also recommended by the
+	 *         shadow, 1 if both are empty.
+	 */
+	static double overlap(List<Long> live, List<Long> shadow) {
+		if (live.isEmpty()) {
+			return shadow == null || shadow.isEmpty() ? 1 : 0;
+		}
+		if (shadow == null) {
+			return 0;
+		}
+		Set<Long> liveProducts = new HashSet<>(live);
+		Set<Long> shadowProducts = new HashSet<>(shadow);
+		int common = 0;
+		for (Long product : liveProducts) {
+			if (shadowProducts.contains(product)) {
+				common++;
+			}
+		}
+		return (double) common / liveProducts.size();
+	}
+
+	/**
+	 * Creates a single low-priority daemon thread, so the replays take at most one
+	 * core from the live requests.
+	 *
+	 * @return The executor.
+	 */
+	private static Executor newShadowExecutor() {
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+				runnable -> {
+					Thread thread = new Thread(runnable, "recommender-shadow");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				});
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
+
+/**
+ * Recommender that answers each request within a latency budget. It first
+ * computes the answer of a cheap recommender, then refines it with an
+ * expensive recommender on a worker thread, as long as the budget lasts. If
+ * the deadline hits, all workers are busy or the expensive recommender cannot
+ * answer, the cheap answer is returned. The path taken is counted in the
+ * {@link RecommenderMetrics}, as are the reasons the expensive recommender
+ * could not answer, and returned by {@link #recommend(Long, List)}, as
+ * answers cut short by the deadline, the load or an error are not stable
+ * enough to be cached.
+ */
+public final class TimeBudgetedRecommender implements IRecommender {
+
+	/**
+	 * The expensive recommender answered within the budget.
+	 */
+	public static final String PATH_REFINED = "refined";
+
+	/**
+	 * The budget was exhausted before the expensive recommender answered.
+	 */
+	public static final String PATH_DEADLINE = "deadline";
+
+	/**
+	 * All workers were busy, so the expensive recommender was not asked.
+	 */
+	public static final String PATH_OVERLOAD = "overload";
+
+	/**
+	 * The expensive recommender requested to use the fallback.
+	 */
+	public static final String PATH_FALLBACK = "fallback";
+
+	/**
+	 * The expensive recommender failed unexpectedly.
+	 */
+	public static final String PATH_ERROR = "error";
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimeBudgetedRecommender.class);
+
+	private final IRecommender cheap;
+
+	private final IRecommender expensive;
+
+	private final long budgetNanos;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a new recommender combining the given ones.
+	 *
+	 * @param cheap
+	 *            The recommender computing the first answer of each request.
+	 * @param expensive
+	 *            The recommender refining the answer while the budget lasts.
+	 * @param budgetNanos
+	 *            The latency budget per request in nanoseconds.
+	 * @param executor
+	 *            The executor running the expensive recommender. Should reject
+	 *            tasks when it is saturated, so that the expensive recommender is
+	 *            skipped under load.
+	 */
+	public TimeBudgetedRecommender(IRecommender cheap, IRecommender expensive, long budgetNanos,
+			ExecutorService executor) {
+		this.cheap = cheap;
+		this.expensive = expensive;
+		this.budgetNanos = budgetNanos;
+		this.executor = executor;
+	}
+
+	@Override
+	public void train(List<OrderItem> orderItems, List<Order> orders) {
+		cheap.train(orderItems, orders);
+		if (expensive != cheap) {
+			expensive.train(orderItems, orders);
+		}
+	}
+
+	@Override
+	public void update(List<OrderItem> newOrderItems, List<Order> newOrders) {
+		cheap.update(newOrderItems, newOrders);
+		if (expensive != cheap) {
+			expensive.update(newOrderItems, newOrders);
+		}
+	}
+
+	@Override
+	public List<Long> recommendProducts(Long userid, List<OrderItem> currentItems)
+			throws UnsupportedOperationException {
+		return recommend(userid, currentItems).getProducts();
+	}
+
+	/**
+	 * Recommends products like {@link #recommendProducts(Long, List)}, but also
+	 * returns the path that produced the answer.
+	 *
+	 * @param userid
+	 *            The id of the user, may be null.
+	 * @param currentItems
+	 *            The items in the cart of the user.
+	 * @return The recommended products and the path that produced them.
+	 * @throws UnsupportedOperationException
+	 *             If the cheap recommender is not trained yet.
+	 */
+	public Result recommend(Long userid, List<OrderItem> currentItems) throws UnsupportedOperationException {
+		long deadline = System.nanoTime() + budgetNanos;
+		// the cheap answer is always available, also if the deadline hits
+		List<Long> answer = cheap.recommendProducts(userid, currentItems);
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0) {
+			return record(PATH_DEADLINE, answer);
+		}
+		Future<List<Long>> refinement;
+		try {
+			refinement = executor.submit(() -> expensive.recommendProducts(userid, currentItems));
+		} catch (RejectedExecutionException e) {
+			// all workers are busy refining other requests
+			return record(PATH_OVERLOAD, answer);
+		}
+		try {
+			return record(PATH_REFINED, refinement.get(remaining, TimeUnit.NANOSECONDS));
+		} catch (TimeoutException e) {
+			// the computation itself is not interruptible, but a queued task is dropped
+			refinement.cancel(true);
+			return record(PATH_DEADLINE, answer);
+		} catch (InterruptedException e) {
+			refinement.cancel(true);
+			Thread.currentThread().interrupt();
+			return record(PATH_DEADLINE, answer);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UseFallBackException) {
+				LOG.trace("Refining with " + expensive.getClass().getName()
+						+ " failed. Using answer of cheap recommender. Reason:\n" + e.getCause().getMessage());
+				RecommenderMetrics.getInstance()
+						.recordFallback(expensive.getClass().getSimpleName() + ": " + e.getCause().getMessage());
+				return record(PATH_FALLBACK, answer);
+			}
+			LOG.warn("Refining with " + expensive.getClass().getName()
+					+ " threw an unexpected error. Using answer of cheap recommender. Reason:\n"
+					+ e.getCause().getMessage());
+			// the message of an unexpected error may be specific to the request
+			RecommenderMetrics.getInstance()
+					.recordFallback(expensive.getClass().getSimpleName() + ": " + e.getCause().getClass().getName());
+			return record(PATH_ERROR, answer);
+		}
+	}
+
+	private static Result record(String path, List<Long> answer) {
+		RecommenderMetrics.getInstance().recordBudgetedPath(path);
+		return new Result(path, answer);
+	}
+
+	/**
+	 * The answer of a time-budgeted request together with the path that produced
+	 * it.
+	 */
+	public static final class Result {
+
+		private final String path;
+
+		private final List<Long> products;
+
+		private Result(String path, List<Long> products) {
+			this.path = path;
+			this.products = products;
+		}
+
+		/**
+		 * @return The path that produced the answer, one of the PATH_ constants.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return Whether the expensive recommender answered within the budget.
+		 */
+		public boolean isRefined() {
+			return PATH_REFINED.equals(path);
+		}
+
+		/**
+		 * @return Whether the answer stays the same for the same models, that is,
+		 *         the expensive recommender answered or requested the fallback.
+		 */
+		public boolean isCacheable() {
+			return PATH_REFINED.equals(path) || PATH_FALLBACK.equals(path);
+		}
+
+		/**
+		 * @return The recommended products.
+		 */
+		public List<Long> getProducts() {
+			return products;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the highest scored product IDs out of an arbitrary number of offered
+ * ones, keeping only a bounded min-heap of primitive values. Products with a
+ * higher score rank first, products with equal scores rank by ascending ID.
+ * Scores are compared with {@link Double#compare(double, double)}.
+ */
+public final class TopKSelector {
+
+	private final long[] ids;
+
+	private final double[] scores;
+
+	private int size = 0;
+
+	/**
+	 * Creates a new selector.
+	 *
+	 * @param capacity
+	 *            The number of products to select.
+	 */
+	public TopKSelector(int capacity) {
+		ids = new long[capacity];
+		scores = new double[capacity];
+	}
+
+	/**
+	 * Offers a product to the selection.
+	 *
+	 * @param productId
+	 *            The product ID.
+	 * @param score
+	 *            The score of the product.
+	 */
+	public void offer(long productId, double score) {
+		if (size < ids.length) {
+			// the heap is not full yet, insert at the end and move up
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (!isWorse(productId, score, ids[parent], scores[parent])) {
+					break;
+				}
+				ids[i] = ids[parent];
+				scores[i] = scores[parent];
+				i = parent;
+			}
+			ids[i] = productId;
+			scores[i] = score;
+		} else if (size > 0 && isWorse(ids[0], scores[0], productId, score)) {
+			// replace the worst selected product
+			siftDown(productId, score, size);
+		}
+	}
+
+	/**
+	 * @return The number of selected products.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the selected product IDs, best first. Empties the selector.
+	 *
+	 * @return The selected product IDs.
+	 */
+	public List<Long> toList() {
+		long[] sortedIds = new long[size];
+		sort(sortedIds, new double[size]);
+		List<Long> result = new ArrayList<>(sortedIds.length);
+		for (long id : sortedIds) {
+			result.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the selected products, best first, into the given arrays. Empties
+	 * the selector.
+	 *
+	 * @param sortedIds
+	 *            Receives the product IDs, must have a length of {@link #size()}.
+	 * @param sortedScores
+	 *            Receives the corresponding scores, must have a length of
+	 *            {@link #size()}.
+	 */
+	public void sort(long[] sortedIds, double[] sortedScores) {
+		// repeatedly remove the worst product and fill the arrays from the end
+		while (size > 0) {
+			int last = --size;
+			sortedIds[last] = ids[0];
+			sortedScores[last] = scores[0];
+			siftDown(ids[last], scores[last], last);
+		}
+	}
+
+	private void siftDown(long productId, double score, int heapSize) {
+		int i = 0;
+		while (2 * i + 1 < heapSize) {
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && isWorse(ids[child + 1], scores[child + 1], ids[child], scores[child])) {
+				child++;
+			}
+			if (!isWorse(ids[child], scores[child], productId, score)) {
+				break;
+			}
+			ids[i] = ids[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		if (heapSize > 0) {
+			ids[i] = productId;
+			scores[i] = score;
+		}
+	}
+
+	private static boolean isWorse(long id, double score, long otherId, double otherScore) {
+		int comparison = Double.compare(score, otherScore);
+		return comparison < 0 || (comparison == 0 && id > otherId);
+	}
+}
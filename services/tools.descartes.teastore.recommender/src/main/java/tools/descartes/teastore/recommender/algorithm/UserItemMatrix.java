@@ -0,0 +1,811 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable matrix of the orders a recommender is trained with, built once per
+ * training and shared by all algorithms. Users are numbered by ascending ID,
+ * products by a {@link ProductIndex}. The matrix holds three views in primitive
+ * arrays:
+ * <ul>
+ * <li>the rows: the products of each user with the summed quantity over all
+ * orders of the user, in compressed sparse row layout,</li>
+ * <li>the columns: the users of each product, in compressed sparse column
+ * layout, pointing to the row entries,</li>
+ * <li>the orders of each user with their products and quantities.</li>
+ * </ul>
+ * Row products and column users are sorted ascending. Orders without products
+ * are ignored.
+ */
+public final class UserItemMatrix {
+
+	private static final UserItemMatrix EMPTY = build(new long[0], new long[0], new long[0], new int[1], new long[0],
+			new int[0]);
+
+	/**
+	 * The ID of each user index, ascending.
+	 */
+	private final long[] userIds;
+
+	private final ProductIndex productIndex;
+
+	/**
+	 * Start of each user row in the row arrays; row u spans rowOffsets[u] to
+	 * rowOffsets[u + 1] - 1.
+	 */
+	private final int[] rowOffsets;
+
+	/**
+	 * The product index of each row entry.
+	 */
+	private final int[] rowProducts;
+
+	/**
+	 * The quantity the user bought of the product of each row entry.
+	 */
+	private final double[] rowQuantities;
+
+	/**
+	 * Start of each product column in the column arrays.
+	 */
+	private final int[] columnOffsets;
+
+	/**
+	 * The user index of each column entry.
+	 */
+	private final int[] columnUsers;
+
+	/**
+	 * The position of each column entry in the row arrays.
+	 */
+	private final int[] columnEntries;
+
+	/**
+	 * Start of the orders of each user in the order arrays.
+	 */
+	private final int[] userOrderOffsets;
+
+	private final long[] orderIds;
+
+	private final long[] orderTimes;
+
+	/**
+	 * Start of each order in the order item arrays.
+	 */
+	private final int[] orderOffsets;
+
+	/**
+	 * The product index of each order item, ascending per order.
+	 */
+	private final int[] orderProducts;
+
+	private final int[] orderQuantities;
+
+	private UserItemMatrix(long[] userIds, ProductIndex productIndex, int[] rowOffsets, int[] rowProducts,
+			double[] rowQuantities, int[] columnOffsets, int[] columnUsers, int[] columnEntries,
+			int[] userOrderOffsets, long[] orderIds, long[] orderTimes, int[] orderOffsets, int[] orderProducts,
+			int[] orderQuantities) {
+		this.userIds = userIds;
+		this.productIndex = productIndex;
+		this.rowOffsets = rowOffsets;
+		this.rowProducts = rowProducts;
+		this.rowQuantities = rowQuantities;
+		this.columnOffsets = columnOffsets;
+		this.columnUsers = columnUsers;
+		this.columnEntries = columnEntries;
+		this.userOrderOffsets = userOrderOffsets;
+		this.orderIds = orderIds;
+		this.orderTimes = orderTimes;
+		this.orderOffsets = orderOffsets;
+		this.orderProducts = orderProducts;
+		this.orderQuantities = orderQuantities;
+	}
+
+	/**
+	 * @return A matrix without any orders.
+	 */
+	public static UserItemMatrix empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Builds the matrix from flat order arrays, the layout of a model snapshot.
+	 * If an order contains a product more than once, the last quantity counts.
+	 *
+	 * @param orderIds
+	 *            The ID of each order.
+	 * @param userIds
+	 *            The user ID of each order.
+	 * @param times
+	 *            The time of each order in milliseconds since the epoch.
+	 * @param offsets
+	 *            Start of each order in the item arrays, with one additional
+	 *            entry for the end of the last order.
+	 * @param productIds
+	 *            The product ID of each order item.
+	 * @param quantities
+	 *            The quantity of each order item.
+	 * @return The matrix.
+	 */
+	public static UserItemMatrix build(long[] orderIds, long[] userIds, long[] times, int[] offsets,
+			long[] productIds, int[] quantities) {
+		ProductIndex productIndex = new ProductIndex(productIds);
+		int products = productIndex.size();
+		int orders = orderIds.length;
+		// only users with at least one item are known
+		int nonEmpty = 0;
+		for (int o = 0; o < orders; o++) {
+			if (offsets[o + 1] > offsets[o]) {
+				nonEmpty++;
+			}
+		}
+		long[] users = new long[nonEmpty];
+		nonEmpty = 0;
+		for (int o = 0; o < orders; o++) {
+			if (offsets[o + 1] > offsets[o]) {
+				users[nonEmpty++] = userIds[o];
+			}
+		}
+		users = ProductIndex.distinctSorted(users);
+
+		// group the orders by user, keeping their sequence
+		int[] orderUser = new int[orders];
+		int[] userOrderOffsets = new int[users.length + 1];
+		for (int o = 0; o < orders; o++) {
+			if (offsets[o + 1] > offsets[o]) {
+				orderUser[o] = Arrays.binarySearch(users, userIds[o]);
+				userOrderOffsets[orderUser[o] + 1]++;
+			} else {
+				orderUser[o] = -1;
+			}
+		}
+		for (int u = 0; u < users.length; u++) {
+			userOrderOffsets[u + 1] += userOrderOffsets[u];
+		}
+		int[] sortedOrders = new int[nonEmpty];
+		int[] fill = Arrays.copyOf(userOrderOffsets, users.length);
+		for (int o = 0; o < orders; o++) {
+			if (orderUser[o] >= 0) {
+				sortedOrders[fill[orderUser[o]]++] = o;
+			}
+		}
+
+		// the items of each order, without duplicate products
+		long[] sortedOrderIds = new long[nonEmpty];
+		long[] sortedTimes = new long[nonEmpty];
+		int[] orderOffsets = new int[nonEmpty + 1];
+		int[] orderProducts = new int[productIds.length];
+		int[] orderQuantities = new int[productIds.length];
+		int[] lastSeen = new int[products];
+		Arrays.fill(lastSeen, -1);
+		int[] quantityOf = new int[products];
+		int items = 0;
+		for (int i = 0; i < nonEmpty; i++) {
+			int o = sortedOrders[i];
+			sortedOrderIds[i] = orderIds[o];
+			sortedTimes[i] = times[o];
+			int start = items;
+			for (int k = offsets[o]; k < offsets[o + 1]; k++) {
+				int p = productIndex.indexOf(productIds[k]);
+				if (lastSeen[p] != i) {
+					lastSeen[p] = i;
+					orderProducts[items++] = p;
+				}
+				quantityOf[p] = quantities[k];
+			}
+			Arrays.sort(orderProducts, start, items);
+			for (int k = start; k < items; k++) {
+				orderQuantities[k] = quantityOf[orderProducts[k]];
+			}
+			orderOffsets[i + 1] = items;
+		}
+		orderProducts = Arrays.copyOf(orderProducts, items);
+		orderQuantities = Arrays.copyOf(orderQuantities, items);
+
+		// sum the quantities of each user per product
+		int[] rowOffsets = new int[users.length + 1];
+		int[] rowProducts = new int[items];
+		double[] rowQuantities = new double[items];
+		double[] sums = new double[products];
+		Arrays.fill(lastSeen, -1);
+		int entries = 0;
+		for (int u = 0; u < users.length; u++) {
+			int start = entries;
+			for (int i = userOrderOffsets[u]; i < userOrderOffsets[u + 1]; i++) {
+				for (int k = orderOffsets[i]; k < orderOffsets[i + 1]; k++) {
+					int p = orderProducts[k];
+					if (lastSeen[p] != u) {
+						lastSeen[p] = u;
+						sums[p] = 0;
+						rowProducts[entries++] = p;
+					}
+					sums[p] += orderQuantities[k];
+				}
+			}
+			Arrays.sort(rowProducts, start, entries);
+			for (int k = start; k < entries; k++) {
+				rowQuantities[k] = sums[rowProducts[k]];
+			}
+			rowOffsets[u + 1] = entries;
+		}
+		return withColumns(users, productIndex, rowOffsets, Arrays.copyOf(rowProducts, entries),
+				Arrays.copyOf(rowQuantities, entries), userOrderOffsets, sortedOrderIds, sortedTimes, orderOffsets,
+				orderProducts, orderQuantities);
+	}
+
+	/**
+	 * Creates the matrix from its rows and orders, transposing the rows to find
+	 * all users of one product.
+	 */
+	private static UserItemMatrix withColumns(long[] users, ProductIndex productIndex, int[] rowOffsets,
+			int[] rowProducts, double[] rowQuantities, int[] userOrderOffsets, long[] orderIds, long[] orderTimes,
+			int[] orderOffsets, int[] orderProducts, int[] orderQuantities) {
+		int products = productIndex.size();
+		int entries = rowProducts.length;
+		int[] columnOffsets = new int[products + 1];
+		for (int k = 0; k < entries; k++) {
+			columnOffsets[rowProducts[k] + 1]++;
+		}
+		for (int p = 0; p < products; p++) {
+			columnOffsets[p + 1] += columnOffsets[p];
+		}
+		int[] columnUsers = new int[entries];
+		int[] columnEntries = new int[entries];
+		int[] fill = Arrays.copyOf(columnOffsets, products);
+		for (int u = 0; u < users.length; u++) {
+			for (int k = rowOffsets[u]; k < rowOffsets[u + 1]; k++) {
+				int c = fill[rowProducts[k]]++;
+				columnUsers[c] = u;
+				columnEntries[c] = k;
+			}
+		}
+		return new UserItemMatrix(users, productIndex, rowOffsets, rowProducts, rowQuantities, columnOffsets,
+				columnUsers, columnEntries, userOrderOffsets, orderIds, orderTimes, orderOffsets, orderProducts,
+				orderQuantities);
+	}
+
+	/**
+	 * Builds the matrix from the given orders.
+	 *
+	 * @param itemSets
+	 *            The orders.
+	 * @return The matrix.
+	 */
+	public static UserItemMatrix build(Collection<OrderItemSet> itemSets) {
+		return empty().withOrders(itemSets);
+	}
+
+	/**
+	 * Creates a new matrix containing the orders of this matrix and the given
+	 * ones, leaving this matrix untouched. The orders and rows of users without
+	 * new orders are copied as they are, only the rows of the users of the new
+	 * orders are summed again. The columns are transposed from the new rows.
+	 * Orders without products are ignored.
+	 *
+	 * @param itemSets
+	 *            The orders to add. Must not be contained in this matrix.
+	 * @return The new matrix, this matrix if no order has products.
+	 */
+	public UserItemMatrix withOrders(Collection<OrderItemSet> itemSets) {
+		List<OrderItemSet> added = new ArrayList<>(itemSets.size());
+		int addedItems = 0;
+		for (OrderItemSet itemSet : itemSets) {
+			if (!itemSet.getOrderset().isEmpty()) {
+				added.add(itemSet);
+				addedItems += itemSet.getOrderset().size();
+			}
+		}
+		if (added.isEmpty()) {
+			return this;
+		}
+		long[] addedUserIds = new long[added.size()];
+		long[] addedProductIds = new long[addedItems];
+		int k = 0;
+		for (int a = 0; a < added.size(); a++) {
+			addedUserIds[a] = added.get(a).getUserId();
+			for (Long product : added.get(a).getOrderset().keySet()) {
+				addedProductIds[k++] = product;
+			}
+		}
+		ProductIndex newIndex = productIndex.withProducts(addedProductIds);
+		// the mapping keeps the order of indices, so copied rows and orders stay
+		// sorted; null if no product was added
+		int[] productMap = newIndex == productIndex ? null : productIndex.mapTo(newIndex);
+		long[] newUserIds = ProductIndex.mergeDistinct(userIds, ProductIndex.distinctSorted(addedUserIds));
+		int users = newUserIds.length;
+
+		// group the added orders by user, keeping their sequence
+		int[] addedOffsets = new int[users + 1];
+		int[] addedUsers = new int[added.size()];
+		for (int a = 0; a < added.size(); a++) {
+			addedUsers[a] = Arrays.binarySearch(newUserIds, added.get(a).getUserId());
+			addedOffsets[addedUsers[a] + 1]++;
+		}
+		for (int u = 0; u < users; u++) {
+			addedOffsets[u + 1] += addedOffsets[u];
+		}
+		int[] addedOrders = new int[added.size()];
+		int[] fill = Arrays.copyOf(addedOffsets, users);
+		for (int a = 0; a < added.size(); a++) {
+			addedOrders[fill[addedUsers[a]]++] = a;
+		}
+
+		int orders = getOrders() + added.size();
+		int[] newUserOrderOffsets = new int[users + 1];
+		long[] newOrderIds = new long[orders];
+		long[] newOrderTimes = new long[orders];
+		int[] newOrderOffsets = new int[orders + 1];
+		int[] newOrderProducts = new int[orderProducts.length + addedItems];
+		int[] newOrderQuantities = new int[newOrderProducts.length];
+		int[] newRowOffsets = new int[users + 1];
+		int[] newRowProducts = new int[rowProducts.length + addedItems];
+		double[] newRowQuantities = new double[newRowProducts.length];
+		// scratch space for the rows of the users with added orders
+		double[] sums = new double[newIndex.size()];
+		int[] lastSeen = new int[newIndex.size()];
+		Arrays.fill(lastSeen, -1);
+		int o = 0;
+		int items = 0;
+		int entries = 0;
+		int previousUser = 0;
+		for (int u = 0; u < users; u++) {
+			int user = -1;
+			if (previousUser < userIds.length && userIds[previousUser] == newUserIds[u]) {
+				user = previousUser++;
+			}
+			int userItems = items;
+			if (user >= 0) {
+				// the known orders of the user are stored contiguously
+				int firstOrder = userOrderOffsets[user];
+				int endOrder = userOrderOffsets[user + 1];
+				System.arraycopy(orderIds, firstOrder, newOrderIds, o, endOrder - firstOrder);
+				System.arraycopy(orderTimes, firstOrder, newOrderTimes, o, endOrder - firstOrder);
+				int shift = items - orderOffsets[firstOrder];
+				for (int i = firstOrder; i < endOrder; i++) {
+					newOrderOffsets[++o] = orderOffsets[i + 1] + shift;
+				}
+				items = copyProducts(orderProducts, orderOffsets[firstOrder], orderOffsets[endOrder], productMap,
+						newOrderProducts, items);
+				System.arraycopy(orderQuantities, orderOffsets[firstOrder], newOrderQuantities, userItems,
+						items - userItems);
+			}
+			for (int a = addedOffsets[u]; a < addedOffsets[u + 1]; a++) {
+				OrderItemSet itemSet = added.get(addedOrders[a]);
+				newOrderIds[o] = itemSet.getOrderId();
+				newOrderTimes[o] = itemSet.getTime();
+				int orderStart = items;
+				for (Long product : itemSet.getOrderset().keySet()) {
+					newOrderProducts[items++] = newIndex.indexOf(product);
+				}
+				Arrays.sort(newOrderProducts, orderStart, items);
+				for (int i = orderStart; i < items; i++) {
+					newOrderQuantities[i] = itemSet.getOrderset().get(newIndex.getId(newOrderProducts[i]));
+				}
+				newOrderOffsets[++o] = items;
+			}
+			newUserOrderOffsets[u + 1] = o;
+
+			int rowStart = entries;
+			if (addedOffsets[u] == addedOffsets[u + 1]) {
+				entries = copyProducts(rowProducts, rowOffsets[user], rowOffsets[user + 1], productMap,
+						newRowProducts, entries);
+				System.arraycopy(rowQuantities, rowOffsets[user], newRowQuantities, rowStart, entries - rowStart);
+			} else {
+				// sum the quantities of all orders of the user, as the build does
+				for (int i = userItems; i < items; i++) {
+					int p = newOrderProducts[i];
+					if (lastSeen[p] != u) {
+						lastSeen[p] = u;
+						sums[p] = 0;
+						newRowProducts[entries++] = p;
+					}
+					sums[p] += newOrderQuantities[i];
+				}
+				Arrays.sort(newRowProducts, rowStart, entries);
+				for (int e = rowStart; e < entries; e++) {
+					newRowQuantities[e] = sums[newRowProducts[e]];
+				}
+			}
+			newRowOffsets[u + 1] = entries;
+		}
+		return withColumns(newUserIds, newIndex, newRowOffsets, Arrays.copyOf(newRowProducts, entries),
+				Arrays.copyOf(newRowQuantities, entries), newUserOrderOffsets, newOrderIds, newOrderTimes,
+				newOrderOffsets, newOrderProducts, newOrderQuantities);
+	}
+
+	/**
+	 * Copies product indices into the given array, mapping them to a new
+	 * product index.
+	 *
+	 * @return The position after the last copied index.
+	 */
+	private static int copyProducts(int[] products, int from, int to, int[] productMap, int[] target,
+			int position) {
+		if (productMap == null) {
+			System.arraycopy(products, from, target, position, to - from);
+			return position + to - from;
+		}
+		for (int k = from; k < to; k++) {
+			target[position++] = productMap[products[k]];
+		}
+		return position;
+	}
+
+	/**
+	 * @return The number of users with at least one order.
+	 */
+	public int getUsers() {
+		return userIds.length;
+	}
+
+	/**
+	 * @param user
+	 *            The user index.
+	 * @return The user ID.
+	 */
+	public long getUserId(int user) {
+		return userIds[user];
+	}
+
+	/**
+	 * @param userId
+	 *            The user ID.
+	 * @return The user index or a negative value if the user placed no order.
+	 */
+	public int indexOfUser(long userId) {
+		return Arrays.binarySearch(userIds, userId);
+	}
+
+	/**
+	 * @return The index of all products bought in the orders.
+	 */
+	public ProductIndex getProductIndex() {
+		return productIndex;
+	}
+
+	/**
+	 * @param user
+	 *            The user index.
+	 * @return The position of the first row entry of the user.
+	 */
+	public int getRowStart(int user) {
+		return rowOffsets[user];
+	}
+
+	/**
+	 * @param user
+	 *            The user index.
+	 * @return The position after the last row entry of the user.
+	 */
+	public int getRowEnd(int user) {
+		return rowOffsets[user + 1];
+	}
+
+	/**
+	 * @param entry
+	 *            The row entry position.
+	 * @return The product index of the entry.
+	 */
+	public int getProduct(int entry) {
+		return rowProducts[entry];
+	}
+
+	/**
+	 * @param entry
+	 *            The row entry position.
+	 * @return The quantity the user bought of the product, over all orders.
+	 */
+	public double getQuantity(int entry) {
+		return rowQuantities[entry];
+	}
+
+	/**
+	 * @param product
+	 *            The product index.
+	 * @return The position of the first column entry of the product.
+	 */
+	public int getColumnStart(int product) {
+		return columnOffsets[product];
+	}
+
+	/**
+	 * @param product
+	 *            The product index.
+	 * @return The position after the last column entry of the product.
+	 */
+	public int getColumnEnd(int product) {
+		return columnOffsets[product + 1];
+	}
+
+	/**
+	 * @param column
+	 *            The column entry position.
+	 * @return The user index of the entry.
+	 */
+	public int getColumnUser(int column) {
+		return columnUsers[column];
+	}
+
+	/**
+	 * @param column
+	 *            The column entry position.
+	 * @return The position of the entry in the rows, for
+	 *         {@link #getQuantity(int)}.
+	 */
+	public int getColumnEntry(int column) {
+		return columnEntries[column];
+	}
+
+	/**
+	 * @return The start of each user row, one entry more than users. Must not be
+	 *         modified by the caller.
+	 */
+	public int[] getRowOffsets() {
+		return rowOffsets;
+	}
+
+	/**
+	 * @return The product index of each row entry. Must not be modified by the
+	 *         caller.
+	 */
+	public int[] getRowProducts() {
+		return rowProducts;
+	}
+
+	/**
+	 * @return The quantity of each row entry. Must not be modified by the caller.
+	 */
+	public double[] getRowQuantities() {
+		return rowQuantities;
+	}
+
+	/**
+	 * @return The start of each product column, one entry more than products.
+	 *         Must not be modified by the caller.
+	 */
+	public int[] getColumnOffsets() {
+		return columnOffsets;
+	}
+
+	/**
+	 * @return The user index of each column entry. Must not be modified by the
+	 *         caller.
+	 */
+	public int[] getColumnUsers() {
+		return columnUsers;
+	}
+
+	/**
+	 * @return The row entry position of each column entry. Must not be modified
+	 *         by the caller.
+	 */
+	public int[] getColumnEntries() {
+		return columnEntries;
+	}
+
+	/**
+	 * @return The number of orders.
+	 */
+	public int getOrders() {
+		return orderIds.length;
+	}
+
+	/**
+	 * @return The latest order time in milliseconds since the epoch, or
+	 *         {@link Long#MIN_VALUE} if there are no orders.
+	 */
+	public long getMaxOrderTime() {
+		long maxTime = Long.MIN_VALUE;
+		for (long time : orderTimes) {
+			maxTime = Math.max(maxTime, time);
+		}
+		return maxTime;
+	}
+
+	/**
+	 * Hashes the orders of this matrix, independent of how the matrix was built.
+	 * Matrices with the same orders, e.g., on different instances, have the same
+	 * fingerprint.
+	 *
+	 * @return The fingerprint of the order, user and time of all orders.
+	 */
+	public long getFingerprint() {
+		long fingerprint = 0;
+		for (int u = 0; u < userIds.length; u++) {
+			for (int i = userOrderOffsets[u]; i < userOrderOffsets[u + 1]; i++) {
+				// summed, so the sequence of the orders does not matter
+				fingerprint += mix(mix(mix(orderIds[i]) + userIds[u]) + orderTimes[i]);
+			}
+		}
+		return fingerprint;
+	}
+
+	private static long mix(long value) {
+		// finalizer of SplitMix64, spreading each input bit over the whole hash
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param user
+	 *            The user index.
+	 * @return The index of the first order of the user.
+	 */
+	public int getUserOrderStart(int user) {
+		return userOrderOffsets[user];
+	}
+
+	/**
+	 * @param user
+	 *            The user index.
+	 * @return The index after the last order of the user.
+	 */
+	public int getUserOrderEnd(int user) {
+		return userOrderOffsets[user + 1];
+	}
+
+	/**
+	 * @param order
+	 *            The order index.
+	 * @return The order ID.
+	 */
+	public long getOrderId(int order) {
+		return orderIds[order];
+	}
+
+	/**
+	 * @param order
+	 *            The order index.
+	 * @return The time of the order in milliseconds since the epoch, 0 if
+	 *         unknown.
+	 */
+	public long getOrderTime(int order) {
+		return orderTimes[order];
+	}
+
+	/**
+	 * @param order
+	 *            The order index.
+	 * @return The position of the first item of the order.
+	 */
+	public int getOrderStart(int order) {
+		return orderOffsets[order];
+	}
+
+	/**
+	 * @param order
+	 *            The order index.
+	 * @return The position after the last item of the order.
+	 */
+	public int getOrderEnd(int order) {
+		return orderOffsets[order + 1];
+	}
+
+	/**
+	 * @param item
+	 *            The order item position.
+	 * @return The product index of the item.
+	 */
+	public int getOrderProduct(int item) {
+		return orderProducts[item];
+	}
+
+	/**
+	 * @param item
+	 *            The order item position.
+	 * @return The quantity of the item.
+	 */
+	public int getOrderQuantity(int item) {
+		return orderQuantities[item];
+	}
+
+	/**
+	 * @param userId
+	 *            The user ID of the order.
+	 * @param orderId
+	 *            The order ID.
+	 * @return True if the matrix contains the order.
+	 */
+	public boolean containsOrder(long userId, long orderId) {
+		int user = indexOfUser(userId);
+		if (user < 0) {
+			return false;
+		}
+		for (int i = userOrderOffsets[user]; i < userOrderOffsets[user + 1]; i++) {
+			if (orderIds[i] == orderId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param userId
+	 *            The user ID.
+	 * @return The row of the user, assigning each product ID the quantity the
+	 *         user bought; null if the user placed no order.
+	 */
+	public Map<Long, Double> getRow(long userId) {
+		int user = indexOfUser(userId);
+		if (user < 0) {
+			return null;
+		}
+		Map<Long, Double> row = new HashMap<>();
+		for (int k = rowOffsets[user]; k < rowOffsets[user + 1]; k++) {
+			row.put(productIndex.getId(rowProducts[k]), rowQuantities[k]);
+		}
+		return row;
+	}
+
+	/**
+	 * Creates the rows of all users as maps. Expensive, intended for inspection
+	 * only.
+	 *
+	 * @return A map assigning each user ID its row.
+	 */
+	public Map<Long, Map<Long, Double>> toUserBuyingMatrix() {
+		Map<Long, Map<Long, Double>> matrix = new HashMap<>();
+		for (long userId : userIds) {
+			matrix.put(userId, getRow(userId));
+		}
+		return matrix;
+	}
+
+	/**
+	 * Creates the orders of all users as {@link OrderItemSet}s. Expensive,
+	 * intended for inspection only.
+	 *
+	 * @return A map assigning each user ID its orders.
+	 */
+	public Map<Long, Set<OrderItemSet>> toUserItemSets() {
+		Map<Long, Set<OrderItemSet>> itemSets = new HashMap<>();
+		for (int u = 0; u < userIds.length; u++) {
+			Set<OrderItemSet> sets = new HashSet<>();
+			for (int i = userOrderOffsets[u]; i < userOrderOffsets[u + 1]; i++) {
+				OrderItemSet itemSet = new OrderItemSet();
+				itemSet.setOrderId(orderIds[i]);
+				itemSet.setUserId(userIds[u]);
+				itemSet.setTime(orderTimes[i]);
+				for (int k = orderOffsets[i]; k < orderOffsets[i + 1]; k++) {
+					itemSet.getOrderset().put(productIndex.getId(orderProducts[k]), orderQuantities[k]);
+				}
+				sets.add(itemSet);
+			}
+			itemSets.put(userIds[u], sets);
+		}
+		return itemSets;
+	}
+
+	/**
+	 * @return The IDs of all products bought in the orders.
+	 */
+	public Set<Long> getProductIds() {
+		Set<Long> ids = new HashSet<>();
+		for (int i = 0; i < productIndex.size(); i++) {
+			ids.add(productIndex.getId(i));
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * The orders added to a {@link UserItemMatrix} by an update, prepared once and
+ * shared by all recommenders trained with that matrix, see
+ * {@link AbstractRecommender#update(UserItemMatrixUpdate)}. Besides the
+ * orders, the update holds the previous row of each user that placed one of
+ * them, in compressed sparse row layout with the product indices of the
+ * updated matrix, so algorithms can replace the contribution of these users.
+ * Immutable.
+ */
+public final class UserItemMatrixUpdate {
+
+	private final UserItemMatrix previousMatrix;
+
+	private final UserItemMatrix matrix;
+
+	/**
+	 * The user index in the updated matrix of each user that placed one of the
+	 * added orders, ascending.
+	 */
+	private final int[] changedUsers;
+
+	/**
+	 * Start of the previous row of each changed user in the previous row arrays.
+	 */
+	private final int[] previousRowOffsets;
+
+	/**
+	 * The product index of each previous row entry, in the product index of the
+	 * updated matrix.
+	 */
+	private final int[] previousRowProducts;
+
+	/**
+	 * The quantity of each previous row entry.
+	 */
+	private final double[] previousRowQuantities;
+
+	private final Collection<OrderItemSet> addedItemSets;
+
+	private UserItemMatrixUpdate(UserItemMatrix previousMatrix, UserItemMatrix matrix, int[] changedUsers,
+			int[] previousRowOffsets, int[] previousRowProducts, double[] previousRowQuantities,
+			Collection<OrderItemSet> addedItemSets) {
+		this.previousMatrix = previousMatrix;
+		this.matrix = matrix;
+		this.changedUsers = changedUsers;
+		this.previousRowOffsets = previousRowOffsets;
+		this.previousRowProducts = previousRowProducts;
+		this.previousRowQuantities = previousRowQuantities;
+		this.addedItemSets = Collections.unmodifiableCollection(addedItemSets);
+	}
+
+	/**
+	 * Prepares the update of the given matrix with new orders. Orders the matrix
+	 * already contains are skipped, as are items of unknown orders.
+	 *
+	 * @param previousMatrix
+	 *            The matrix to update.
+	 * @param newOrderItems
+	 *            The items of the new orders.
+	 * @param newOrders
+	 *            The new orders.
+	 * @return The update.
+	 */
+	public static UserItemMatrixUpdate create(UserItemMatrix previousMatrix, List<OrderItem> newOrderItems,
+			List<Order> newOrders) {
+		// only consider orders that are not known yet
+		Map<Long, Order> addedOrders = new HashMap<>();
+		for (Order order : newOrders) {
+			if (!previousMatrix.containsOrder(order.getUserId(), order.getId())) {
+				addedOrders.put(order.getId(), order);
+			}
+		}
+		Map<Long, OrderItemSet> addedItemSets = new LinkedHashMap<>();
+		for (OrderItem orderItem : newOrderItems) {
+			Order order = addedOrders.get(orderItem.getOrderId());
+			if (order == null) {
+				continue;
+			}
+			OrderItemSet itemSet = addedItemSets.get(order.getId());
+			if (itemSet == null) {
+				itemSet = new OrderItemSet();
+				itemSet.setOrderId(order.getId());
+				itemSet.setUserId(order.getUserId());
+				itemSet.setTime(AbstractRecommender.toMillis(order.getTime()));
+				addedItemSets.put(order.getId(), itemSet);
+			}
+			itemSet.getOrderset().put(orderItem.getProductId(), orderItem.getQuantity());
+		}
+		if (addedItemSets.isEmpty()) {
+			return new UserItemMatrixUpdate(previousMatrix, previousMatrix, new int[0], new int[1], new int[0],
+					new double[0], addedItemSets.values());
+		}
+		UserItemMatrix matrix = previousMatrix.withOrders(addedItemSets.values());
+		long[] userIds = new long[addedItemSets.size()];
+		int i = 0;
+		for (OrderItemSet itemSet : addedItemSets.values()) {
+			userIds[i++] = itemSet.getUserId();
+		}
+		userIds = ProductIndex.distinctSorted(userIds);
+
+		// copy the previous rows of the changed users into the new product index
+		ProductIndex previousIndex = previousMatrix.getProductIndex();
+		ProductIndex index = matrix.getProductIndex();
+		int[] changedUsers = new int[userIds.length];
+		int[] previousUsers = new int[userIds.length];
+		int[] previousRowOffsets = new int[userIds.length + 1];
+		for (int u = 0; u < userIds.length; u++) {
+			changedUsers[u] = matrix.indexOfUser(userIds[u]);
+			previousUsers[u] = previousMatrix.indexOfUser(userIds[u]);
+			int length = previousUsers[u] < 0 ? 0
+					: previousMatrix.getRowEnd(previousUsers[u]) - previousMatrix.getRowStart(previousUsers[u]);
+			previousRowOffsets[u + 1] = previousRowOffsets[u] + length;
+		}
+		int[] previousRowProducts = new int[previousRowOffsets[userIds.length]];
+		double[] previousRowQuantities = new double[previousRowProducts.length];
+		for (int u = 0; u < userIds.length; u++) {
+			if (previousUsers[u] < 0) {
+				continue;
+			}
+			int k = previousRowOffsets[u];
+			int user = previousUsers[u];
+			for (int r = previousMatrix.getRowStart(user); r < previousMatrix.getRowEnd(user); r++) {
+				int product = previousMatrix.getProduct(r);
+				// the matrix keeps the index if no product was added
+				previousRowProducts[k] = index == previousIndex ? product
+						: index.indexOf(previousIndex.getId(product));
+				previousRowQuantities[k] = previousMatrix.getQuantity(r);
+				k++;
+			}
+		}
+		return new UserItemMatrixUpdate(previousMatrix, matrix, changedUsers, previousRowOffsets,
+				previousRowProducts, previousRowQuantities, addedItemSets.values());
+	}
+
+	/**
+	 * @return Whether no new orders were added.
+	 */
+	public boolean isEmpty() {
+		return addedItemSets.isEmpty();
+	}
+
+	/**
+	 * @return The matrix the update was prepared for.
+	 */
+	public UserItemMatrix getPreviousMatrix() {
+		return previousMatrix;
+	}
+
+	/**
+	 * @return The matrix containing the previous and the added orders.
+	 */
+	public UserItemMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return The user index in {@link #getMatrix()} of each user that placed one
+	 *         of the added orders, ascending. Must not be modified by the caller.
+	 */
+	public int[] getChangedUsers() {
+		return changedUsers;
+	}
+
+	/**
+	 * @param changedUser
+	 *            The position of the user in {@link #getChangedUsers()}.
+	 * @return The position of the first previous row entry of the user.
+	 */
+	public int getPreviousRowStart(int changedUser) {
+		return previousRowOffsets[changedUser];
+	}
+
+	/**
+	 * @param changedUser
+	 *            The position of the user in {@link #getChangedUsers()}.
+	 * @return The position after the last previous row entry of the user. Equals
+	 *         the start for users without previous orders.
+	 */
+	public int getPreviousRowEnd(int changedUser) {
+		return previousRowOffsets[changedUser + 1];
+	}
+
+	/**
+	 * @param entry
+	 *            The previous row entry position.
+	 * @return The product index of the entry, in the product index of
+	 *         {@link #getMatrix()}.
+	 */
+	public int getPreviousProduct(int entry) {
+		return previousRowProducts[entry];
+	}
+
+	/**
+	 * @param entry
+	 *            The previous row entry position.
+	 * @return The quantity the user bought of the product before the update.
+	 */
+	public double getPreviousQuantity(int entry) {
+		return previousRowQuantities[entry];
+	}
+
+	/**
+	 * @return The added orders.
+	 */
+	public Collection<OrderItemSet> getAddedItemSets() {
+		return addedItemSets;
+	}
+}
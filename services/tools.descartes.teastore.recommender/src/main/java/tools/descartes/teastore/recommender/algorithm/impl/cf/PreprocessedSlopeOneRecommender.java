@@ -13,8 +13,21 @@
  */
 package tools.descartes.teastore.recommender.algorithm.impl.cf;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.TopKSelector;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrixUpdate;
 
 /**
  * Recommender based on item-based collaborative filtering with the slope one
@@ -26,42 +39,226 @@ import java.util.Map;
 public class PreprocessedSlopeOneRecommender extends SlopeOneRecommender {
 
 	/**
-	 * Represents a matrix, assigning each user a calculated score for each item.
-	 * This score can be used to recommend items.
+	 * Number of products stored per user in addition to
+	 * {@link #MAX_NUMBER_OF_RECOMMENDATIONS}. Products in the cart are removed
+	 * from the stored ranking, so this many of them can be in the cart without
+	 * having to predict the user again.
 	 */
-	private Map<Long, Map<Long, Double>> predictedRatings;
+	private static final int CART_SLACK = 10;
 
 	/**
-	 * @return the predictedRatings
+	 * Assigns each user the highest scored products. These can be used to
+	 * recommend items.
 	 */
-	public Map<Long, Map<Long, Double>> getPredictedRatings() {
-		return predictedRatings;
+	private Map<Long, UserRanking> predictedRatings;
+
+	/**
+	 * Creates a recommender with the model budget and minimum frequency set in
+	 * the context, see {@link SlopeOneRecommender#SlopeOneRecommender()}.
+	 */
+	public PreprocessedSlopeOneRecommender() {
+		super();
+	}
+
+	/**
+	 * Creates a recommender with the given model budget and minimum frequency.
+	 * If either is set, the predicted scores are stored as floats.
+	 * 
+	 * @param modelBudget
+	 *            The memory of the model in bytes, 0 or less disables the budget.
+	 * @param minFrequency
+	 *            The minimum number of common buyers of a stored product pair.
+	 */
+	public PreprocessedSlopeOneRecommender(long modelBudget, int minFrequency) {
+		super(modelBudget, minFrequency);
 	}
 
 	/**
-	 * @param predictedRatings
-	 *            the predictedRatings to set
+	 * Creates a boxed copy of the predicted ratings. Expensive, intended for
+	 * inspection only.
+	 * 
+	 * @return the predictedRatings, assigning each user ID a score for each of the
+	 *         stored top ranked product IDs
 	 */
-	public void setPredictedRatings(Map<Long, Map<Long, Double>> predictedRatings) {
-		this.predictedRatings = predictedRatings;
+	public Map<Long, Map<Long, Double>> getPredictedRatings() {
+		Map<Long, Map<Long, Double>> ratings = new HashMap<>();
+		for (Map.Entry<Long, UserRanking> user : predictedRatings.entrySet()) {
+			Map<Long, Double> row = new HashMap<>();
+			for (int i = 0; i < user.getValue().productIds.length; i++) {
+				row.put(user.getValue().productIds[i], user.getValue().getScore(i));
+			}
+			ratings.put(user.getKey(), row);
+		}
+		return ratings;
 	}
 
 	@Override
-	protected Map<Long, Double> getUserVector(Long userid) {
-		// improve performance by preprocessing and storing userids
-		return predictedRatings.get(userid);
+	protected List<Long> execute(Long userid, List<Long> currentItems) {
+		UserRanking ranking = null;
+		if (userid != null) {
+			ranking = predictedRatings.get(userid);
+		}
+		if (ranking == null) {
+			// let the slope one implementation deal with unknown users
+			return super.execute(userid, currentItems);
+		}
+		// improve performance by preprocessing and storing the best products per user
+		Set<Long> excluded = new HashSet<>(currentItems);
+		List<Long> reco = new ArrayList<>(MAX_NUMBER_OF_RECOMMENDATIONS);
+		for (int i = 0; i < ranking.productIds.length && reco.size() < MAX_NUMBER_OF_RECOMMENDATIONS; i++) {
+			if (!excluded.contains(ranking.productIds[i])) {
+				reco.add(ranking.productIds[i]);
+			}
+		}
+		if (reco.size() < MAX_NUMBER_OF_RECOMMENDATIONS && ranking.productIds.length < getProductIndex().size()) {
+			// the cart hides too many of the stored products, predict this user again
+			return super.execute(userid, currentItems);
+		}
+		return reco;
 	}
 
 	@Override
 	protected void executePreprocessing() {
 		super.executePreprocessing();
-		predictedRatings = new HashMap<>();
+		predictUserRatings();
+	}
+
+	@Override
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		super.executeUpdate(update);
+		// changed differences affect the predictions of all users
+		predictUserRatings();
+	}
+
+	@Override
+	protected long estimateAdditionalBytes() {
+		// the stored rankings of all users, with float scores
+		return (long) getUserItemMatrix().getUsers() * (MAX_NUMBER_OF_RECOMMENDATIONS + CART_SLACK)
+				* (Long.BYTES + Float.BYTES);
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		super.writePreprocessing(writer);
+		// all rankings are written as one flat array with offsets per user
+		long[] userIds = new long[predictedRatings.size()];
+		int[] offsets = new int[userIds.length + 1];
+		int entries = 0;
+		for (UserRanking ranking : predictedRatings.values()) {
+			entries += ranking.productIds.length;
+		}
+		long[] productIds = new long[entries];
+		double[] scores = null;
+		float[] floatScores = null;
+		if (isCompact()) {
+			floatScores = new float[entries];
+		} else {
+			scores = new double[entries];
+		}
+		int u = 0;
+		for (Map.Entry<Long, UserRanking> user : predictedRatings.entrySet()) {
+			UserRanking ranking = user.getValue();
+			userIds[u] = user.getKey();
+			System.arraycopy(ranking.productIds, 0, productIds, offsets[u], ranking.productIds.length);
+			for (int i = 0; i < ranking.productIds.length; i++) {
+				if (floatScores != null) {
+					floatScores[offsets[u] + i] = (float) ranking.getScore(i);
+				} else {
+					scores[offsets[u] + i] = ranking.getScore(i);
+				}
+			}
+			offsets[u + 1] = offsets[u] + ranking.productIds.length;
+			u++;
+		}
+		writer.writeLongArray(userIds);
+		writer.writeIntArray(offsets);
+		writer.writeLongArray(productIds);
+		writer.writeInt(floatScores != null ? 1 : 0);
+		if (floatScores != null) {
+			writer.writeFloatArray(floatScores);
+		} else {
+			writer.writeDoubleArray(scores);
+		}
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		super.readPreprocessing(reader);
+		long[] userIds = reader.readLongArray();
+		int[] offsets = reader.readIntArray();
+		long[] productIds = reader.readLongArray();
+		boolean compact = reader.readInt() != 0;
+		double[] scores = null;
+		float[] floatScores = null;
+		int values;
+		if (compact) {
+			floatScores = reader.readFloatArray();
+			values = floatScores.length;
+		} else {
+			scores = reader.readDoubleArray();
+			values = scores.length;
+		}
+		if (offsets.length != userIds.length + 1 || offsets[userIds.length] != productIds.length
+				|| values != productIds.length) {
+			throw new IOException("Snapshot user rankings are inconsistent.");
+		}
+		Map<Long, UserRanking> ratings = new HashMap<>();
+		for (int u = 0; u < userIds.length; u++) {
+			UserRanking ranking = new UserRanking(offsets[u + 1] - offsets[u], compact);
+			System.arraycopy(productIds, offsets[u], ranking.productIds, 0, ranking.productIds.length);
+			if (compact) {
+				System.arraycopy(floatScores, offsets[u], ranking.floatScores, 0, ranking.floatScores.length);
+			} else {
+				System.arraycopy(scores, offsets[u], ranking.scores, 0, ranking.scores.length);
+			}
+			ratings.put(userIds[u], ranking);
+		}
+		predictedRatings = ratings;
+	}
+
+	private void predictUserRatings() {
 		// Moving the matrix calculation to the preprocessing to optimize runtime
-		// behavior
-		for (Long userid : getUserBuyingMatrix().keySet()) {
-			// for all known users
-			Map<Long, Double> pred = super.getUserVector(userid);
-			predictedRatings.put(userid, pred);
+		// behavior, the users are predicted independently of each other
+		UserItemMatrix users = getUserItemMatrix();
+		predictedRatings = IntStream.range(0, users.getUsers()).parallel().mapToObj(users::getUserId)
+				.collect(Collectors.toConcurrentMap(userid -> userid, userid -> rankUser(userid)));
+	}
+
+	private UserRanking rankUser(Long userid) {
+		double[] pred = getUserVector(userid);
+		TopKSelector selector = new TopKSelector(MAX_NUMBER_OF_RECOMMENDATIONS + CART_SLACK);
+		for (int i = 0; i < pred.length; i++) {
+			selector.offer(getProductIndex().getId(i), pred[i]);
+		}
+		UserRanking ranking = new UserRanking(selector.size(), isCompact());
+		double[] scores = ranking.scores != null ? ranking.scores : new double[selector.size()];
+		selector.sort(ranking.productIds, scores);
+		if (ranking.floatScores != null) {
+			for (int i = 0; i < scores.length; i++) {
+				ranking.floatScores[i] = (float) scores[i];
+			}
+		}
+		return ranking;
+	}
+
+	/**
+	 * The highest scored products of one user, best first. The scores are
+	 * stored as floats in a compact model.
+	 */
+	private static final class UserRanking {
+
+		private final long[] productIds;
+		private final double[] scores;
+		private final float[] floatScores;
+
+		private UserRanking(int size, boolean compact) {
+			productIds = new long[size];
+			scores = compact ? null : new double[size];
+			floatScores = compact ? new float[size] : null;
+		}
+
+		private double getScore(int i) {
+			return scores != null ? scores[i] : floatScores[i];
 		}
 	}
 }
@@ -13,13 +13,30 @@
  */
 package tools.descartes.teastore.recommender.algorithm.impl.cf;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrixUpdate;
 import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
 
 /**
  * Recommender based on item-based collaborative filtering with the slope one
@@ -31,45 +48,182 @@ import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
 public class SlopeOneRecommender extends AbstractRecommender {
 
 	/**
-	 * Represents a matrix, assigning each itemid an average difference (in
-	 * rating/buying) to any other itemid.
+	 * The default memory budget of the model in bytes. 0 disables the budget.
 	 */
-	private Map<Long, Map<Long, Double>> differences = new HashMap<>();
+	public static final long DEFAULT_MODEL_BUDGET = 0;
 
 	/**
-	 * Represents a matrix, counting the frequencies of each combination (i.e. users
-	 * rating/buying both items).
+	 * The default minimum number of common buyers of a stored product pair.
 	 */
-	private Map<Long, Map<Long, Integer>> frequencies = new HashMap<>();
+	public static final int DEFAULT_MIN_FREQUENCY = 1;
 
 	/**
-	 * @return the differences
+	 * The maximum number of users whose recommendations are compared to estimate
+	 * the accuracy impact of a compact model.
 	 */
-	public Map<Long, Map<Long, Double>> getDifferences() {
-		return differences;
+	private static final int ACCURACY_SAMPLE = 100;
+
+	private static final Logger LOG = LoggerFactory.getLogger(SlopeOneRecommender.class);
+
+	/**
+	 * Calculates the differences matrix of all users, see
+	 * {@link #setMatrixBuilder(Function)}. Null to calculate it on this
+	 * instance.
+	 */
+	private Function<UserItemMatrix, SlopeOneMatrix> matrixBuilder;
+
+	private final long modelBudget;
+
+	private final int minFrequency;
+
+	/**
+	 * Assigns each product ID the row/column used in the {@link #matrix}.
+	 */
+	private ProductIndex productIndex;
+
+	/**
+	 * Represents a matrix, assigning each item an average difference (in
+	 * rating/buying) to any other item and counting the frequencies of each
+	 * combination (i.e. users rating/buying both items).
+	 */
+	private SlopeOneMatrix matrix;
+
+	/**
+	 * Creates a recommender with the model budget and minimum frequency set as
+	 * recommenderModelBudget and recommenderMinFrequency in the context, or the
+	 * {@link #DEFAULT_MODEL_BUDGET} and {@link #DEFAULT_MIN_FREQUENCY}.
+	 */
+	public SlopeOneRecommender() {
+		this(lookupModelBudget(), lookupMinFrequency());
 	}
 
 	/**
-	 * @param differences
-	 *            the differences to set
+	 * Creates a recommender with the given model budget and minimum frequency.
+	 * If either is set, the model is stored compact, see
+	 * {@link SlopeOneMatrix#compact(int)}. A compact model is never updated
+	 * incrementally, each update rebuilds it from all users.
+	 * 
+	 * @param modelBudget
+	 *            The memory of the model in bytes, 0 or less disables the budget.
+	 * @param minFrequency
+	 *            The minimum number of common buyers of a stored product pair.
 	 */
-	public void setDifferences(Map<Long, Map<Long, Double>> differences) {
-		this.differences = differences;
+	public SlopeOneRecommender(long modelBudget, int minFrequency) {
+		this.modelBudget = modelBudget;
+		this.minFrequency = minFrequency;
 	}
 
 	/**
-	 * @return the frequencies
+	 * Replaces how this recommender calculates the differences matrix of all
+	 * users when training, e.g., to distribute the calculation across several
+	 * instances. Copies made by {@link #clone()} keep the builder, other
+	 * instances are not affected. The builder must return the full, non-compact
+	 * matrix over the product index of the given user item matrix. A compact
+	 * model is pruned after the builder returned, so the full matrix is held on
+	 * the heap for a moment. Updates of a model that is not compact only
+	 * calculate the matrix of the changed users and are not affected. Must be
+	 * set before training.
+	 * 
+	 * @param builder
+	 *            The builder, null restores {@link SlopeOneMatrix#build(UserItemMatrix)}.
+	 */
+	public void setMatrixBuilder(Function<UserItemMatrix, SlopeOneMatrix> builder) {
+		matrixBuilder = builder;
+	}
+
+	private static long lookupModelBudget() {
+		try {
+			return (Long) new InitialContext().lookup("java:comp/env/recommenderModelBudget");
+		} catch (NamingException e) {
+			LOG.info("Model budget not set. Model size is not limited.");
+			return DEFAULT_MODEL_BUDGET;
+		}
+	}
+
+	private static int lookupMinFrequency() {
+		try {
+			return (Integer) new InitialContext().lookup("java:comp/env/recommenderMinFrequency");
+		} catch (NamingException e) {
+			LOG.info("Minimum frequency not set. Using default minimum frequency (" + DEFAULT_MIN_FREQUENCY + ").");
+			return DEFAULT_MIN_FREQUENCY;
+		}
+	}
+
+	/**
+	 * @return Whether the model is stored compact, i.e., a budget or minimum
+	 *         frequency is set.
+	 */
+	protected boolean isCompact() {
+		return modelBudget > 0 || minFrequency > DEFAULT_MIN_FREQUENCY;
+	}
+
+	/**
+	 * Estimates the memory that subclasses need in addition to the difference
+	 * matrix, which is subtracted from the model budget. The default
+	 * implementation returns 0.
+	 * 
+	 * @return The additional memory in bytes.
+	 */
+	protected long estimateAdditionalBytes() {
+		return 0;
+	}
+
+	/**
+	 * Creates a boxed copy of the differences matrix. Expensive, intended for
+	 * inspection only.
+	 * 
+	 * @return the differences, assigning each product ID the average difference
+	 *         to each other product ID
+	 */
+	public Map<Long, Map<Long, Double>> getDifferences() {
+		Map<Long, Map<Long, Double>> differences = new HashMap<>();
+		for (int i = 0; i < matrix.getRows(); i++) {
+			if (matrix.getRowStart(i) == matrix.getRowEnd(i)) {
+				continue;
+			}
+			Map<Long, Double> row = new HashMap<>();
+			for (int k = matrix.getRowStart(i); k < matrix.getRowEnd(i); k++) {
+				row.put(productIndex.getId(matrix.getColumn(k)), matrix.getDifference(k));
+			}
+			differences.put(productIndex.getId(i), row);
+		}
+		return differences;
+	}
+
+	/**
+	 * Creates a boxed copy of the frequencies matrix. Expensive, intended for
+	 * inspection only.
+	 * 
+	 * @return the frequencies, assigning each product ID the number of users
+	 *         that bought it together with each other product ID
 	 */
 	public Map<Long, Map<Long, Integer>> getFrequencies() {
+		Map<Long, Map<Long, Integer>> frequencies = new HashMap<>();
+		for (int i = 0; i < matrix.getRows(); i++) {
+			if (matrix.getRowStart(i) == matrix.getRowEnd(i)) {
+				continue;
+			}
+			Map<Long, Integer> row = new HashMap<>();
+			for (int k = matrix.getRowStart(i); k < matrix.getRowEnd(i); k++) {
+				row.put(productIndex.getId(matrix.getColumn(k)), matrix.getFrequency(k));
+			}
+			frequencies.put(productIndex.getId(i), row);
+		}
 		return frequencies;
 	}
 
 	/**
-	 * @param frequencies
-	 *            the frequencies to set
+	 * @return the productIndex
 	 */
-	public void setFrequencies(Map<Long, Map<Long, Integer>> frequencies) {
-		this.frequencies = frequencies;
+	protected ProductIndex getProductIndex() {
+		return productIndex;
+	}
+
+	/**
+	 * @return the matrix
+	 */
+	protected SlopeOneMatrix getMatrix() {
+		return matrix;
 	}
 
 	/*
@@ -85,118 +239,243 @@ public class SlopeOneRecommender extends AbstractRecommender {
 			throw new UseFallBackException(this.getClass().getName()
 					+ " does not support null userids. Use a pseudouser or switch to another approach.");
 		}
-		if (getUserBuyingMatrix().get(userid) == null) {
+		if (getUserItemMatrix().indexOfUser(userid) < 0) {
 			// this user has not bought anything yet, so we do not have any information
 			throw new UseFallBackException("No user information.");
 		}
-		Map<Long, Double> importances = getUserVector(userid);
-		return filterRecommendations(importances, currentItems);
+		return filterRecommendations(getUserVector(userid), productIndex, currentItems);
 
 	}
 
 	/**
 	 * Generates one row of the matrix for the given user. (Predicts the user score
-	 * for each product ID.)
+	 * for each product.)
 	 * 
 	 * @param userid
 	 *            The user to predict for
-	 * @return A Map assigning each product ID a (predicted) score (for the given
-	 *         user)
+	 * @return An array assigning each product index of the
+	 *         {@link #getProductIndex()} a (predicted) score (for the given user).
+	 *         Must not be modified by the caller.
 	 */
-	protected Map<Long, Double> getUserVector(Long userid) {
+	protected double[] getUserVector(Long userid) {
 		// This could be further optimized by moving this part into the pre-processing
 		// step, but we want to have nicer performance behavior
-		HashMap<Long, Double> importances = new HashMap<>();
-		for (Long productid : getTotalProducts()) {
-			try {
-				importances.put(productid, calculateScoreForItem(userid, productid));
-			} catch (NullPointerException e) {
-				// this exception can be thrown if we have not enough information
-				importances.put(productid, -1.0);
-			}
-		}
-		return importances;
+		UserItemMatrix users = getUserItemMatrix();
+		return predict(matrix, users, users.indexOfUser(userid));
 	}
 
-	private double calculateScoreForItem(long userid, long itemid) {
-		double score = 0;
-		double cumWeights = 0;
-		for (Entry<Long, Double> useritem : getUserBuyingMatrix().get(userid).entrySet()) {
-			// if we find that the user actually bought this item before, we can return this
-			// value
-			// (considering it is his rating, we can directly return this rating)
-			if (useritem.getKey() == itemid) {
-				return useritem.getValue();
+	/**
+	 * @param differences
+	 *            The differences matrix over the product index of the users.
+	 * @param users
+	 *            The user item matrix.
+	 * @param user
+	 *            The index of the user to predict for.
+	 * @return The predicted score of each product index.
+	 */
+	private static double[] predict(SlopeOneMatrix differences, UserItemMatrix users, int user) {
+		int products = users.getProductIndex().size();
+		double[] scores = new double[products];
+		double[] cumWeights = new double[products];
+		// counts how many of the user's items were bought together with each product
+		int[] matches = new int[products];
+		int ratings = users.getRowEnd(user) - users.getRowStart(user);
+		for (int r = users.getRowStart(user); r < users.getRowEnd(user); r++) {
+			int i = users.getProduct(r);
+			double rating = users.getQuantity(r);
+			// calculate the (expected) rating for each product based on item i
+			for (int k = differences.getRowStart(i); k < differences.getRowEnd(i); k++) {
+				int j = differences.getColumn(k);
+				int frequency = differences.getFrequency(k);
+				scores[j] += rating * frequency;
+				scores[j] += differences.getDifference(k) * frequency;
+				cumWeights[j] += frequency;
+				matches[j]++;
+			}
+		}
+		for (int j = 0; j < products; j++) {
+			if (matches[j] == ratings) {
+				// normalize
+				scores[j] = scores[j] / cumWeights[j];
+			} else {
+				// at least one item of the user was never bought together with this
+				// product, so we have not enough information
+				scores[j] = -1.0;
 			}
-			// if not, we can calculate the (expected) rating for that user based on item i
-			int frequency = frequencies.get(useritem.getKey()).get(itemid);
-			score += useritem.getValue() * frequency;
-			score += differences.get(useritem.getKey()).get(itemid) * frequency;
-			cumWeights += frequency;
 		}
-		// normalize
-		return score / cumWeights;
+		for (int r = users.getRowStart(user); r < users.getRowEnd(user); r++) {
+			// if the user actually bought this item before, we can use this value
+			// (considering it is his rating, we can directly return this rating)
+			scores[users.getProduct(r)] = users.getQuantity(r);
+		}
+		return scores;
 	}
 
 	@Override
 	protected void executePreprocessing() {
 		// The buying matrix is considered to be the rating
 		// i.e. the more buys, the higher the rating
-		buildDifferencesMatrices(getUserBuyingMatrix());
+		productIndex = getUserItemMatrix().getProductIndex();
+		buildDifferencesMatrix();
+	}
+
+	@Override
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		if (isCompact() || matrix.isCompact()) {
+			// the exact sums of the pruned pairs are lost, so a compact model is never
+			// updated incrementally but rebuilt from all users, without the full matrix
+			productIndex = getUserItemMatrix().getProductIndex();
+			buildDifferencesMatrix();
+			return;
+		}
+		ProductIndex newIndex = getUserItemMatrix().getProductIndex();
+		SlopeOneMatrix current = matrix;
+		if (newIndex.size() != productIndex.size()) {
+			// new products were bought, move the known sums to the larger index
+			current = current.remap(productIndex.mapTo(newIndex), newIndex.size());
+		}
+		// the delta removes the previous row of each changed user and adds the new one
+		UserItemMatrix users = getUserItemMatrix();
+		int[] changedUsers = update.getChangedUsers();
+		int entries = 0;
+		for (int i = 0; i < changedUsers.length; i++) {
+			entries += update.getPreviousRowEnd(i) - update.getPreviousRowStart(i)
+					+ users.getRowEnd(changedUsers[i]) - users.getRowStart(changedUsers[i]);
+		}
+		int[] userOffsets = new int[2 * changedUsers.length + 1];
+		int[] userItems = new int[entries];
+		double[] userRatings = new double[entries];
+		int[] weights = new int[2 * changedUsers.length];
+		int k = 0;
+		for (int i = 0; i < changedUsers.length; i++) {
+			for (int r = update.getPreviousRowStart(i); r < update.getPreviousRowEnd(i); r++) {
+				userItems[k] = update.getPreviousProduct(r);
+				userRatings[k] = update.getPreviousQuantity(r);
+				k++;
+			}
+			weights[2 * i] = -1;
+			userOffsets[2 * i + 1] = k;
+			int start = users.getRowStart(changedUsers[i]);
+			int length = users.getRowEnd(changedUsers[i]) - start;
+			System.arraycopy(users.getRowProducts(), start, userItems, k, length);
+			System.arraycopy(users.getRowQuantities(), start, userRatings, k, length);
+			k += length;
+			weights[2 * i + 1] = 1;
+			userOffsets[2 * i + 2] = k;
+		}
+		SlopeOneMatrix delta = SlopeOneMatrix.build(userOffsets, userItems, userRatings, weights, newIndex.size());
+		matrix = current.add(delta);
+		productIndex = newIndex;
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		productIndex.write(writer);
+		matrix.write(writer);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		ProductIndex index = ProductIndex.read(reader);
+		if (!index.equals(getUserItemMatrix().getProductIndex())) {
+			throw new IOException("Snapshot product index does not match the order history.");
+		}
+		matrix = SlopeOneMatrix.read(reader, index.size());
+		productIndex = getUserItemMatrix().getProductIndex();
 	}
 
 	/**
 	 * Based on the available data, calculate the relationships between the items
-	 * and number of occurrences. Fill the difference and frequencies matrix.
+	 * and number of occurrences. Fill the difference and frequencies matrix. The
+	 * user item matrix is considered to be the rating.
+	 */
+	private void buildDifferencesMatrix() {
+		UserItemMatrix users = getUserItemMatrix();
+		if (!isCompact()) {
+			matrix = matrixBuilder != null ? matrixBuilder.apply(users) : SlopeOneMatrix.build(users);
+			return;
+		}
+		long budget = Math.max(0, modelBudget - estimateAdditionalBytes());
+		int threshold = Math.max(DEFAULT_MIN_FREQUENCY, minFrequency);
+		if (matrixBuilder != null) {
+			// partial matrices only add up with exact sums, so the full matrix is pruned
+			// afterwards
+			SlopeOneMatrix full = matrixBuilder.apply(users);
+			if (modelBudget > 0) {
+				threshold = Math.max(threshold, full.getMinFrequency(budget));
+			}
+			matrix = full.compact(threshold);
+			reportStatistics(threshold, full.getEntries(), full);
+			return;
+		}
+		// the pairs are counted first, so the full matrix is never held on the heap
+		long[] pairs = SlopeOneMatrix.countPairs(users);
+		if (modelBudget > 0) {
+			threshold = Math.max(threshold, SlopeOneMatrix.getMinFrequency(pairs, productIndex.size(), budget));
+		}
+		matrix = SlopeOneMatrix.buildCompact(users, threshold);
+		long entries = 0;
+		for (long count : pairs) {
+			entries += count;
+		}
+		reportStatistics(threshold, entries, null);
+	}
+
+	/**
+	 * Reports the retained size of the compact {@link #matrix} and how much the
+	 * recommendations of a sample of users change.
 	 * 
-	 * @param data
-	 *            The user rating matrix
-	 */
-	private void buildDifferencesMatrices(Map<Long, Map<Long, Double>> userRatingMatrix) {
-		for (Map<Long, Double> uservalues : userRatingMatrix.values()) {
-			for (Entry<Long, Double> singleRating : uservalues.entrySet()) {
-				// if not present -> create
-				if (!frequencies.containsKey(singleRating.getKey())) {
-					frequencies.put(singleRating.getKey(), new HashMap<Long, Integer>());
-					differences.put(singleRating.getKey(), new HashMap<Long, Double>());
-				}
-				// for all other ratings of that user
-				for (Entry<Long, Double> otherRating : uservalues.entrySet()) {
-					int currCount = 0;
-					Integer count = frequencies.get(singleRating.getKey()).get(otherRating.getKey());
-					if (count != null) {
-						// count is != null, if the key is actually found
-						// if so, we use the known count value as count, otherwise the count until now
-						// is 0
-						currCount = count.intValue();
-					}
-
-					double currDiff = 0;
-					Double diff = differences.get(singleRating.getKey()).get(otherRating.getKey());
-					if (diff != null) {
-						// diff is != null, if the key is actually found
-						// if so, we use the known difference value as currDiff, otherwise the diff
-						// until now is 0.0
-						currDiff = diff.doubleValue();
-					}
-
-					// get the diff value of this user
-					double userdiff = singleRating.getValue() - otherRating.getValue();
-					frequencies.get(singleRating.getKey()).put(otherRating.getKey(), currCount + 1);
-					differences.get(singleRating.getKey()).put(otherRating.getKey(), currDiff + userdiff);
+	 * @param threshold
+	 *            The minimum frequency of the retained pairs.
+	 * @param entries
+	 *            The number of pairs of the full matrix.
+	 * @param full
+	 *            The full matrix, or null to calculate only the rows the sample
+	 *            needs.
+	 */
+	private void reportStatistics(int threshold, long entries, SlopeOneMatrix full) {
+		// compare the recommendations of every n-th user, ordered by ID
+		UserItemMatrix users = getUserItemMatrix();
+		int step = Math.max(1, users.getUsers() / ACCURACY_SAMPLE);
+		SlopeOneMatrix exact = full;
+		if (exact == null) {
+			boolean[] rows = new boolean[productIndex.size()];
+			for (int u = 0; u < users.getUsers(); u += step) {
+				for (int r = users.getRowStart(u); r < users.getRowEnd(u); r++) {
+					rows[users.getProduct(r)] = true;
 				}
 			}
+			exact = SlopeOneMatrix.buildRows(users, rows);
 		}
-
-		// now, transform the differences matrix into real differences (not just the sum
-		// of all found differences)
-		for (Long i : differences.keySet()) {
-			for (Long j : differences.get(i).keySet()) {
-				// for all matrix entries divide the differences by the sum of occurences
-				double diffval = differences.get(i).get(j);
-				double freq = frequencies.get(i).get(j);
-				differences.get(i).put(j, diffval / freq);
+		double overlap = 0;
+		int sampled = 0;
+		for (int u = 0; u < users.getUsers(); u += step) {
+			List<Long> expected = filterRecommendations(predict(exact, users, u), productIndex,
+					Collections.emptyList());
+			Set<Long> actual = new HashSet<>(
+					filterRecommendations(predict(matrix, users, u), productIndex, Collections.emptyList()));
+			int common = 0;
+			for (Long product : expected) {
+				if (actual.contains(product)) {
+					common++;
+				}
 			}
+			overlap += expected.isEmpty() ? 1 : (double) common / expected.size();
+			sampled++;
 		}
+		long bytes = SlopeOneMatrix.estimateBytes(productIndex.size(), entries, false);
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("minFrequency", threshold);
+		statistics.put("entries", entries);
+		statistics.put("retainedEntries", matrix.getEntries());
+		statistics.put("bytes", bytes);
+		statistics.put("retainedBytes", matrix.getBytes());
+		statistics.put("sampledUsers", sampled);
+		statistics.put("topOverlap", sampled == 0 ? 1 : overlap / sampled);
+		RecommenderMetrics.getInstance().recordModelStatistics(getClass().getSimpleName(), statistics);
+		LOG.info("Compacted slope one matrix with minimum frequency " + threshold + ": retained "
+				+ matrix.getEntries() + " of " + entries + " pairs, " + matrix.getBytes() + " of " + bytes
+				+ " bytes, overlap of the top " + MAX_NUMBER_OF_RECOMMENDATIONS + ": "
+				+ statistics.get("topOverlap") + ".");
 	}
 }
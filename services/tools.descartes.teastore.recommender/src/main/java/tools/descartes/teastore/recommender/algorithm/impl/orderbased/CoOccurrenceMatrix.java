@@ -0,0 +1,286 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.orderbased;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.OrderItemSet;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+
+/**
+ * Immutable matrix counting in how many orders two products were bought
+ * together, in compressed sparse row layout. Rows and columns are product
+ * indices of a {@link ProductIndex}; the diagonal holds the number of orders
+ * containing a product. Only pairs bought together at least once are stored,
+ * the columns of each row are sorted ascending.
+ */
+public final class CoOccurrenceMatrix {
+
+	/**
+	 * Start of each row in the entry arrays; row i spans rowOffsets[i] to
+	 * rowOffsets[i + 1] - 1.
+	 */
+	private final int[] rowOffsets;
+
+	/**
+	 * The column (product index) of each entry.
+	 */
+	private final int[] columns;
+
+	/**
+	 * The number of orders containing both products of each entry.
+	 */
+	private final int[] counts;
+
+	private CoOccurrenceMatrix(int[] rowOffsets, int[] columns, int[] counts) {
+		this.rowOffsets = rowOffsets;
+		this.columns = columns;
+		this.counts = counts;
+	}
+
+	/**
+	 * Counts the co-occurrences of all products in the given orders. Rows and
+	 * columns are the product indices of the matrix.
+	 *
+	 * @param matrix
+	 *            The orders.
+	 * @return The matrix.
+	 */
+	public static CoOccurrenceMatrix build(UserItemMatrix matrix) {
+		int products = matrix.getProductIndex().size();
+		int orders = matrix.getOrders();
+		int[] orderOffsets = new int[orders + 1];
+		for (int o = 0; o < orders; o++) {
+			orderOffsets[o + 1] = matrix.getOrderEnd(o);
+		}
+		int items = orderOffsets[orders];
+		int[] orderItems = new int[items];
+		for (int k = 0; k < items; k++) {
+			orderItems[k] = matrix.getOrderProduct(k);
+		}
+		// transpose to find all orders containing one product
+		int[] productOffsets = new int[products + 1];
+		for (int k = 0; k < items; k++) {
+			productOffsets[orderItems[k] + 1]++;
+		}
+		for (int p = 0; p < products; p++) {
+			productOffsets[p + 1] += productOffsets[p];
+		}
+		int[] productOrders = new int[items];
+		int[] fill = Arrays.copyOf(productOffsets, products);
+		for (int i = 0; i < orders; i++) {
+			for (int k = orderOffsets[i]; k < orderOffsets[i + 1]; k++) {
+				productOrders[fill[orderItems[k]]++] = i;
+			}
+		}
+
+		int[] rowOffsets = new int[products + 1];
+		int[] columns = new int[Math.max(16, items)];
+		int[] counts = new int[columns.length];
+		int size = 0;
+		// scratch space for one row
+		int[] rowCounts = new int[products];
+		int[] touched = new int[products];
+		for (int i = 0; i < products; i++) {
+			int touchedCount = 0;
+			for (int po = productOffsets[i]; po < productOffsets[i + 1]; po++) {
+				int order = productOrders[po];
+				for (int k = orderOffsets[order]; k < orderOffsets[order + 1]; k++) {
+					int j = orderItems[k];
+					if (rowCounts[j]++ == 0) {
+						touched[touchedCount++] = j;
+					}
+				}
+			}
+			Arrays.sort(touched, 0, touchedCount);
+			if (size + touchedCount > columns.length) {
+				int capacity = Math.max(size + touchedCount, columns.length * 2);
+				columns = Arrays.copyOf(columns, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+			}
+			for (int t = 0; t < touchedCount; t++) {
+				int j = touched[t];
+				columns[size] = j;
+				counts[size] = rowCounts[j];
+				size++;
+				rowCounts[j] = 0;
+			}
+			rowOffsets[i + 1] = size;
+		}
+		return new CoOccurrenceMatrix(rowOffsets, Arrays.copyOf(columns, size), Arrays.copyOf(counts, size));
+	}
+
+	/**
+	 * Creates a new matrix counting the orders of this matrix and the given ones,
+	 * leaving this matrix untouched. Only the pairs of the added orders are
+	 * counted; the rows of this matrix are copied into the new product index, as
+	 * rows of products outside the added orders do not change. Costs
+	 * O(entries + sum of the squared order sizes).
+	 *
+	 * @param index
+	 *            The product index of this matrix.
+	 * @param itemSets
+	 *            The added orders.
+	 * @param newIndex
+	 *            The product index containing the products of this matrix and
+	 *            the added orders.
+	 * @return The new matrix, with rows and columns of the new index.
+	 */
+	public CoOccurrenceMatrix withOrders(ProductIndex index, Collection<OrderItemSet> itemSets,
+			ProductIndex newIndex) {
+		int products = newIndex.size();
+		// collect the pairs of the added orders as row * products + column
+		long pairCount = 0;
+		for (OrderItemSet itemSet : itemSets) {
+			pairCount += (long) itemSet.getOrderset().size() * itemSet.getOrderset().size();
+		}
+		long[] pairs = new long[Math.toIntExact(pairCount)];
+		int pairSize = 0;
+		for (OrderItemSet itemSet : itemSets) {
+			int[] items = new int[itemSet.getOrderset().size()];
+			int n = 0;
+			for (Long product : itemSet.getOrderset().keySet()) {
+				items[n++] = newIndex.indexOf(product);
+			}
+			for (int a : items) {
+				for (int b : items) {
+					pairs[pairSize++] = (long) a * products + b;
+				}
+			}
+		}
+		Arrays.sort(pairs, 0, pairSize);
+
+		// the mapping keeps the order of indices, so the copied columns stay sorted
+		int[] newIndices = index.mapTo(newIndex);
+		int[] oldRows = new int[products];
+		Arrays.fill(oldRows, -1);
+		for (int i = 0; i < newIndices.length; i++) {
+			oldRows[newIndices[i]] = i;
+		}
+		int[] newRowOffsets = new int[products + 1];
+		int[] newColumns = new int[columns.length + pairSize];
+		int[] newCounts = new int[newColumns.length];
+		int size = 0;
+		int p = 0;
+		for (int i = 0; i < products; i++) {
+			int k = oldRows[i] < 0 ? 0 : rowOffsets[oldRows[i]];
+			int end = oldRows[i] < 0 ? 0 : rowOffsets[oldRows[i] + 1];
+			long rowStart = (long) i * products;
+			while (k < end || (p < pairSize && pairs[p] < rowStart + products)) {
+				int oldColumn = k < end ? newIndices[columns[k]] : Integer.MAX_VALUE;
+				int addedColumn = p < pairSize && pairs[p] < rowStart + products ? (int) (pairs[p] - rowStart)
+						: Integer.MAX_VALUE;
+				int column = Math.min(oldColumn, addedColumn);
+				int count = 0;
+				if (oldColumn == column) {
+					count += counts[k++];
+				}
+				while (p < pairSize && pairs[p] == rowStart + column) {
+					count++;
+					p++;
+				}
+				newColumns[size] = column;
+				newCounts[size] = count;
+				size++;
+			}
+			newRowOffsets[i + 1] = size;
+		}
+		return new CoOccurrenceMatrix(newRowOffsets, Arrays.copyOf(newColumns, size), Arrays.copyOf(newCounts, size));
+	}
+
+	/**
+	 * Writes this matrix to a model snapshot.
+	 *
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void write(ModelSnapshotWriter writer) throws IOException {
+		writer.writeIntArray(rowOffsets);
+		writer.writeIntArray(columns);
+		writer.writeIntArray(counts);
+	}
+
+	/**
+	 * Reads a matrix written by {@link #write(ModelSnapshotWriter)}.
+	 *
+	 * @param reader
+	 *            The snapshot reader.
+	 * @param products
+	 *            The number of products of the index the matrix was written with.
+	 * @return The matrix.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public static CoOccurrenceMatrix read(ModelSnapshotReader reader, int products) throws IOException {
+		int[] rowOffsets = reader.readIntArray();
+		int[] columns = reader.readIntArray();
+		int[] counts = reader.readIntArray();
+		if (rowOffsets.length != products + 1 || rowOffsets[products] != columns.length
+				|| counts.length != columns.length) {
+			throw new IOException("Snapshot co-occurrence matrix is inconsistent.");
+		}
+		ModelSnapshotReader.checkRows(rowOffsets, columns, products, "co-occurrence matrix");
+		return new CoOccurrenceMatrix(rowOffsets, columns, counts);
+	}
+
+	/**
+	 * @param row
+	 *            The row (product index).
+	 * @return The position of the first entry of the row.
+	 */
+	public int getRowStart(int row) {
+		return rowOffsets[row];
+	}
+
+	/**
+	 * @param row
+	 *            The row (product index).
+	 * @return The position after the last entry of the row.
+	 */
+	public int getRowEnd(int row) {
+		return rowOffsets[row + 1];
+	}
+
+	/**
+	 * @param entry
+	 *            The entry position.
+	 * @return The column (product index) of the entry.
+	 */
+	public int getColumn(int entry) {
+		return columns[entry];
+	}
+
+	/**
+	 * @param entry
+	 *            The entry position.
+	 * @return The number of orders containing both products of the entry.
+	 */
+	public int getCount(int entry) {
+		return counts[entry];
+	}
+
+	/**
+	 * @return The number of stored product pairs.
+	 */
+	public int getEntries() {
+		return columns.length;
+	}
+}
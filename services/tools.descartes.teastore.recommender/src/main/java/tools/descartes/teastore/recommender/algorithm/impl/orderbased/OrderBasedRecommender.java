@@ -13,12 +13,16 @@
  */
 package tools.descartes.teastore.recommender.algorithm.impl.orderbased;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 
 import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
-import tools.descartes.teastore.recommender.algorithm.OrderItemSet;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrixUpdate;
 import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
 
 /**
@@ -30,6 +34,10 @@ import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
  */
 public class OrderBasedRecommender extends AbstractRecommender {
 
+	private ProductIndex productIndex;
+
+	private CoOccurrenceMatrix coOccurrences;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -67,23 +75,58 @@ public class OrderBasedRecommender extends AbstractRecommender {
 	 *            The product id of the specific product.
 	 */
 	private void addAllCountsOfProduct(HashMap<Long, Double> counts, Long product) {
-		for (Set<OrderItemSet> set : getUserItemSets().values()) {
-			// ignore which user bought which set
-			for (OrderItemSet orderset : set) {
-				// look through all orders bought
-				if (orderset.getOrderset().keySet().contains(product)) {
-					for (Long o : orderset.getOrderset().keySet()) {
-						// we count all order of the set (including the product we are currently looking
-						// at)
-						if (counts.containsKey(o)) {
-							// we do not count the NUMBER of items, just if the item occurred in the order
-							counts.put(o, counts.get(o) + 1);
-						} else {
-							counts.put(o, 1.0);
-						}
-					}
-				}
-			}
+		int row = productIndex.indexOf(product);
+		if (row < 0) {
+			// product was never bought
+			return;
+		}
+		// the row includes the product itself, as the original order sets did
+		for (int k = coOccurrences.getRowStart(row); k < coOccurrences.getRowEnd(row); k++) {
+			// we do not count the NUMBER of items, just if the item occurred in the order
+			counts.merge(productIndex.getId(coOccurrences.getColumn(k)), (double) coOccurrences.getCount(k),
+					Double::sum);
+		}
+	}
+
+	@Override
+	protected void executePreprocessing() {
+		// count once which products were bought together, instead of walking all
+		// orders on every request
+		UserItemMatrix matrix = getUserItemMatrix();
+		coOccurrences = CoOccurrenceMatrix.build(matrix);
+		productIndex = matrix.getProductIndex();
+	}
+
+	@Override
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		// only the rows of the products in the new orders change
+		ProductIndex newIndex = getUserItemMatrix().getProductIndex();
+		coOccurrences = coOccurrences.withOrders(productIndex, update.getAddedItemSets(), newIndex);
+		productIndex = newIndex;
+	}
+
+	/**
+	 * @return The co-occurrences of the products in the trained orders, with rows
+	 *         and columns of the product index of
+	 *         {@link #getUserItemMatrix()}.
+	 */
+	public CoOccurrenceMatrix getCoOccurrences() {
+		return coOccurrences;
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		productIndex.write(writer);
+		coOccurrences.write(writer);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		ProductIndex index = ProductIndex.read(reader);
+		if (!index.equals(getUserItemMatrix().getProductIndex())) {
+			throw new IOException("Snapshot product index does not match the order history.");
 		}
+		coOccurrences = CoOccurrenceMatrix.read(reader, index.size());
+		productIndex = getUserItemMatrix().getProductIndex();
 	}
 }
@@ -0,0 +1,287 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.pop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.OrderItemSet;
+import tools.descartes.teastore.recommender.algorithm.TopKSelector;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrixUpdate;
+
+/**
+ * Recommender based on the popularity of the products, where the quantity of
+ * each order decays exponentially with its age. Each order is weighted
+ * relative to a fixed landmark time (forward decay), so the weights of known
+ * orders never change and new orders are simply added by an update. Only the
+ * most popular products are kept ranked, so a request only walks the ranking
+ * past the products in the cart. As weights only grow, an update ranks the
+ * kept products together with the products of the new orders.
+ */
+public class DecayedPopularityRecommender extends AbstractRecommender {
+
+	/**
+	 * The default half-life of the quantities in milliseconds. 0 disables the
+	 * decay, i.e., all orders count equally.
+	 */
+	public static final long DEFAULT_HALF_LIFE = 0;
+
+	/**
+	 * The number of half-lives between the landmark and a new order after which
+	 * the landmark is moved to keep the weights in the range of a double.
+	 */
+	private static final double REBASE_HALF_LIVES = 64;
+
+	/**
+	 * The number of most popular products kept ranked. Carts containing so many
+	 * of them that no recommendation is left are answered by ranking all
+	 * products.
+	 */
+	private static final int RANKING_SIZE = 4 * MAX_NUMBER_OF_RECOMMENDATIONS;
+
+	private static final Logger LOG = LoggerFactory.getLogger(DecayedPopularityRecommender.class);
+
+	private final long halfLife;
+
+	/**
+	 * The time in milliseconds at which an order has the weight 1.
+	 */
+	private long landmark;
+
+	/**
+	 * The decayed quantity of each product, relative to the landmark.
+	 */
+	private HashMap<Long, Double> weights;
+
+	/**
+	 * The {@link #RANKING_SIZE} most popular products, the most popular first.
+	 */
+	private long[] ranking;
+
+	/**
+	 * Creates a recommender with the half-life set as
+	 * recommenderPopularityHalfLife in the context, or the
+	 * {@link #DEFAULT_HALF_LIFE}.
+	 */
+	public DecayedPopularityRecommender() {
+		this(lookupHalfLife());
+	}
+
+	/**
+	 * Creates a recommender with the given half-life.
+	 *
+	 * @param halfLife
+	 *            The time in milliseconds after which the quantity of an order
+	 *            counts half, 0 or less disables the decay.
+	 */
+	public DecayedPopularityRecommender(long halfLife) {
+		this.halfLife = halfLife;
+	}
+
+	private static long lookupHalfLife() {
+		try {
+			return (Long) new InitialContext().lookup("java:comp/env/recommenderPopularityHalfLife");
+		} catch (NamingException e) {
+			LOG.info("Popularity half-life not set. Counting all orders equally.");
+			return DEFAULT_HALF_LIFE;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * tools.descartes.teastore.recommender.algorithm.AbstractRecommender#
+	 * execute(java.lang.Long, java.util.List)
+	 */
+	@Override
+	protected List<Long> execute(Long userid, List<Long> currentItems) {
+		Set<Long> excluded = new HashSet<>(currentItems);
+		List<Long> recommended = new ArrayList<>(MAX_NUMBER_OF_RECOMMENDATIONS);
+		// at most the products in the cart are skipped
+		for (int i = 0; i < ranking.length && recommended.size() < MAX_NUMBER_OF_RECOMMENDATIONS; i++) {
+			if (!excluded.contains(ranking[i])) {
+				recommended.add(ranking[i]);
+			}
+		}
+		if (recommended.size() < MAX_NUMBER_OF_RECOMMENDATIONS && ranking.length < weights.size()) {
+			// the cart covers most of the kept ranking
+			TopKSelector selector = new TopKSelector(MAX_NUMBER_OF_RECOMMENDATIONS);
+			for (Entry<Long, Double> weight : weights.entrySet()) {
+				if (!excluded.contains(weight.getKey())) {
+					selector.offer(weight.getKey(), weight.getValue());
+				}
+			}
+			return selector.toList();
+		}
+		return recommended;
+	}
+
+	@Override
+	protected void executePreprocessing() {
+		// the newest order has the weight 1, so older orders cannot overflow
+		UserItemMatrix matrix = getUserItemMatrix();
+		long newLandmark = 0;
+		for (int o = 0; o < matrix.getOrders(); o++) {
+			newLandmark = o == 0 ? matrix.getOrderTime(o) : Math.max(newLandmark, matrix.getOrderTime(o));
+		}
+		double[] productWeights = new double[matrix.getProductIndex().size()];
+		for (int o = 0; o < matrix.getOrders(); o++) {
+			double weight = decay(matrix.getOrderTime(o), newLandmark);
+			for (int k = matrix.getOrderStart(o); k < matrix.getOrderEnd(o); k++) {
+				productWeights[matrix.getOrderProduct(k)] += matrix.getOrderQuantity(k) * weight;
+			}
+		}
+		HashMap<Long, Double> newWeights = new HashMap<>();
+		for (int p = 0; p < productWeights.length; p++) {
+			newWeights.put(matrix.getProductIndex().getId(p), productWeights[p]);
+		}
+		publish(newLandmark, newWeights);
+	}
+
+	@Override
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		Collection<OrderItemSet> addedItemSets = update.getAddedItemSets();
+		HashMap<Long, Double> newWeights = new HashMap<>(weights);
+		long newLandmark = landmark;
+		boolean rebased = false;
+		for (OrderItemSet itemSet : addedItemSets) {
+			if (halfLife > 0 && (itemSet.getTime() - newLandmark) / (double) halfLife > REBASE_HALF_LIVES) {
+				// move the landmark to the new order and scale the known weights accordingly
+				double factor = decay(newLandmark, itemSet.getTime());
+				newWeights.replaceAll((product, weight) -> weight * factor);
+				newLandmark = itemSet.getTime();
+				rebased = true;
+			}
+			addOrder(newWeights, itemSet, newLandmark);
+		}
+		if (rebased) {
+			// rare, scaling may change the order of almost equal weights
+			publish(newLandmark, newWeights);
+			return;
+		}
+		// products outside the ranking and the new orders kept their weight, which
+		// is below the weights of all ranked products
+		Set<Long> candidates = new HashSet<>();
+		for (long product : ranking) {
+			candidates.add(product);
+		}
+		for (OrderItemSet itemSet : addedItemSets) {
+			candidates.addAll(itemSet.getOrderset().keySet());
+		}
+		TopKSelector selector = new TopKSelector(Math.min(RANKING_SIZE, newWeights.size()));
+		for (Long product : candidates) {
+			selector.offer(product, newWeights.get(product));
+		}
+		publish(newLandmark, newWeights, selector);
+	}
+
+	private void addOrder(Map<Long, Double> orderWeights, OrderItemSet itemSet, long orderLandmark) {
+		double weight = decay(itemSet.getTime(), orderLandmark);
+		for (Entry<Long, Integer> product : itemSet.getOrderset().entrySet()) {
+			orderWeights.merge(product.getKey(), product.getValue() * weight, Double::sum);
+		}
+	}
+
+	/**
+	 * @return The weight of an order placed at the given time relative to an
+	 *         order placed at the reference time.
+	 */
+	private double decay(long time, long reference) {
+		if (halfLife <= 0) {
+			return 1;
+		}
+		return Math.pow(2, (time - reference) / (double) halfLife);
+	}
+
+	/**
+	 * Publishes the given weights, ranking all products.
+	 */
+	private void publish(long newLandmark, HashMap<Long, Double> newWeights) {
+		TopKSelector selector = new TopKSelector(Math.min(RANKING_SIZE, newWeights.size()));
+		for (Entry<Long, Double> weight : newWeights.entrySet()) {
+			selector.offer(weight.getKey(), weight.getValue());
+		}
+		publish(newLandmark, newWeights, selector);
+	}
+
+	/**
+	 * Publishes the given weights with the products selected for the ranking.
+	 */
+	private void publish(long newLandmark, HashMap<Long, Double> newWeights, TopKSelector selector) {
+		long[] newRanking = new long[selector.size()];
+		selector.sort(newRanking, new double[newRanking.length]);
+		landmark = newLandmark;
+		weights = newWeights;
+		ranking = newRanking;
+	}
+
+	/**
+	 * @param productId
+	 *            The product ID.
+	 * @return The decayed quantity of the product relative to an order placed at
+	 *         the landmark time. Only the ratios of the weights are meaningful, as
+	 *         the landmark depends on the training history.
+	 */
+	public double getWeight(long productId) {
+		return weights.getOrDefault(productId, 0.0);
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		long[] productIds = new long[weights.size()];
+		double[] productWeights = new double[weights.size()];
+		int i = 0;
+		for (Entry<Long, Double> weight : weights.entrySet()) {
+			productIds[i] = weight.getKey();
+			productWeights[i] = weight.getValue();
+			i++;
+		}
+		writer.writeLong(landmark);
+		writer.writeLongArray(productIds);
+		writer.writeDoubleArray(productWeights);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		long newLandmark = reader.readLong();
+		long[] productIds = reader.readLongArray();
+		double[] productWeights = reader.readDoubleArray();
+		if (productIds.length != productWeights.length) {
+			throw new IOException("Snapshot popularity weights are inconsistent.");
+		}
+		HashMap<Long, Double> newWeights = new HashMap<>();
+		for (int i = 0; i < productIds.length; i++) {
+			newWeights.put(productIds[i], productWeights[i]);
+		}
+		publish(newLandmark, newWeights);
+	}
+}
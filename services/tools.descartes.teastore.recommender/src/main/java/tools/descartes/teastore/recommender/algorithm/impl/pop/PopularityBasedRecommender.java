@@ -13,12 +13,17 @@
  */
 package tools.descartes.teastore.recommender.algorithm.impl.pop;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrixUpdate;
 
 /**
  * A simple Recommender that makes recommendations based on general popularity.
@@ -48,17 +53,65 @@ public class PopularityBasedRecommender extends AbstractRecommender {
 	@Override
 	protected void executePreprocessing() {
 		// assigns each product a quantity
-		counts = new HashMap<>();
-		// calculate product frequencies
-		for (Map<Long, Double> usermap : getUserBuyingMatrix().values()) {
-			for (Entry<Long, Double> product : usermap.entrySet()) {
-				if (!counts.containsKey(product.getKey())) {
-					counts.put(product.getKey(), product.getValue());
-				} else {
-					counts.put(product.getKey(), counts.get(product.getKey()) + product.getValue());
+		HashMap<Long, Double> newCounts = new HashMap<>();
+		// calculate product frequencies, i.e., the sums of the matrix columns
+		UserItemMatrix matrix = getUserItemMatrix();
+		for (int p = 0; p < matrix.getProductIndex().size(); p++) {
+			double count = 0;
+			for (int c = matrix.getColumnStart(p); c < matrix.getColumnEnd(p); c++) {
+				count += matrix.getQuantity(matrix.getColumnEntry(c));
+			}
+			newCounts.put(matrix.getProductIndex().getId(p), count);
+		}
+		counts = newCounts;
+	}
+
+	@Override
+	protected void executeUpdate(UserItemMatrixUpdate update) {
+		HashMap<Long, Double> newCounts = new HashMap<>(counts);
+		UserItemMatrix matrix = getUserItemMatrix();
+		int[] changedUsers = update.getChangedUsers();
+		// add the difference between the new and the previous row of each changed
+		// user; both rows are sorted and the previous products are a subset
+		for (int i = 0; i < changedUsers.length; i++) {
+			int previous = update.getPreviousRowStart(i);
+			for (int k = matrix.getRowStart(changedUsers[i]); k < matrix.getRowEnd(changedUsers[i]); k++) {
+				double quantity = matrix.getQuantity(k);
+				if (previous < update.getPreviousRowEnd(i)
+						&& update.getPreviousProduct(previous) == matrix.getProduct(k)) {
+					quantity -= update.getPreviousQuantity(previous++);
 				}
+				newCounts.merge(matrix.getProductIndex().getId(matrix.getProduct(k)), quantity, Double::sum);
 			}
 		}
+		counts = newCounts;
+	}
 
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		long[] productIds = new long[counts.size()];
+		double[] quantities = new double[counts.size()];
+		int i = 0;
+		for (Entry<Long, Double> count : counts.entrySet()) {
+			productIds[i] = count.getKey();
+			quantities[i] = count.getValue();
+			i++;
+		}
+		writer.writeLongArray(productIds);
+		writer.writeDoubleArray(quantities);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		long[] productIds = reader.readLongArray();
+		double[] quantities = reader.readDoubleArray();
+		if (productIds.length != quantities.length) {
+			throw new IOException("Snapshot popularity counts are inconsistent.");
+		}
+		HashMap<Long, Double> newCounts = new HashMap<>();
+		for (int i = 0; i < productIds.length; i++) {
+			newCounts.put(productIds[i], quantities[i]);
+		}
+		counts = newCounts;
 	}
 }
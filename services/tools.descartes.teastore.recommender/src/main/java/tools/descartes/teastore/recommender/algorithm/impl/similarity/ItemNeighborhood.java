@@ -0,0 +1,253 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.similarity;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.TopKSelector;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+
+/**
+ * Immutable lists of the most similar products of each product in compressed
+ * sparse row layout. Rows and neighbors are product indices of a
+ * {@link ProductIndex}. The similarity of two products is the cosine similarity
+ * of their buyer sets, i.e., the number of users that bought both products
+ * divided by the geometric mean of the numbers of users that bought either of
+ * them. Each row holds at most a fixed number of neighbors, sorted by
+ * descending similarity and ascending index on ties.
+ */
+public final class ItemNeighborhood {
+
+	/**
+	 * Start of each row in the entry arrays; row i spans rowOffsets[i] to
+	 * rowOffsets[i + 1] - 1.
+	 */
+	private final int[] rowOffsets;
+
+	/**
+	 * The neighbor (product index) of each entry.
+	 */
+	private final int[] neighbors;
+
+	/**
+	 * The similarity of each entry.
+	 */
+	private final double[] similarities;
+
+	/**
+	 * Number of row blocks per worker thread of the common pool. More blocks than
+	 * threads even out rows of very different length.
+	 */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private ItemNeighborhood(int[] rowOffsets, int[] neighbors, double[] similarities) {
+		this.rowOffsets = rowOffsets;
+		this.neighbors = neighbors;
+		this.similarities = similarities;
+	}
+
+	/**
+	 * Calculates the neighbor lists from the given orders. Only whether a user
+	 * bought a product is considered, not how often. Rows and neighbors are the
+	 * product indices of the matrix.
+	 *
+	 * @param matrix
+	 *            The orders.
+	 * @param maxNeighbors
+	 *            The maximum number of neighbors kept per product.
+	 * @return The neighbor lists.
+	 */
+	public static ItemNeighborhood build(UserItemMatrix matrix, int maxNeighbors) {
+		int products = matrix.getProductIndex().size();
+		int[] userOffsets = matrix.getRowOffsets();
+		int[] userItems = matrix.getRowProducts();
+		int[] productOffsets = matrix.getColumnOffsets();
+		int[] productUsers = matrix.getColumnUsers();
+
+		// rows are independent of each other, so blocks of rows are computed in
+		// parallel and concatenated afterwards
+		int blockCount = Math.max(1, Math.min(products, ForkJoinPool.getCommonPoolParallelism() * BLOCKS_PER_THREAD));
+		RowBlock[] blocks = IntStream.range(0, blockCount).parallel()
+				.mapToObj(b -> new RowBlock(products * b / blockCount, products * (b + 1) / blockCount, userOffsets,
+						userItems, productOffsets, productUsers, products, maxNeighbors))
+				.toArray(RowBlock[]::new);
+		int[] rowOffsets = new int[products + 1];
+		int size = 0;
+		for (RowBlock block : blocks) {
+			for (int i = block.from; i < block.to; i++) {
+				rowOffsets[i + 1] = size + block.rowEnds[i - block.from];
+			}
+			size += block.size;
+		}
+		int[] neighbors = new int[size];
+		double[] similarities = new double[size];
+		for (RowBlock block : blocks) {
+			int offset = rowOffsets[block.from];
+			System.arraycopy(block.neighbors, 0, neighbors, offset, block.size);
+			System.arraycopy(block.similarities, 0, similarities, offset, block.size);
+		}
+		return new ItemNeighborhood(rowOffsets, neighbors, similarities);
+	}
+
+	/**
+	 * The neighbor lists of a consecutive range of rows, computed with its own
+	 * scratch space.
+	 */
+	private static final class RowBlock {
+
+		private final int from;
+		private final int to;
+		/**
+		 * The end of each row of the block, relative to the start of the block.
+		 */
+		private final int[] rowEnds;
+		private int[] neighbors;
+		private double[] similarities;
+		private int size = 0;
+
+		private RowBlock(int from, int to, int[] userOffsets, int[] userItems, int[] productOffsets,
+				int[] productUsers, int products, int maxNeighbors) {
+			this.from = from;
+			this.to = to;
+			rowEnds = new int[to - from];
+			int capacity = Math.max(16, Math.min((to - from) * maxNeighbors, productOffsets[to] - productOffsets[from]));
+			neighbors = new int[capacity];
+			similarities = new double[capacity];
+			// scratch space for one row
+			int[] commonBuyers = new int[products];
+			int[] touched = new int[products];
+			TopKSelector selector = new TopKSelector(maxNeighbors);
+			for (int i = from; i < to; i++) {
+				int touchedCount = 0;
+				for (int pu = productOffsets[i]; pu < productOffsets[i + 1]; pu++) {
+					int u = productUsers[pu];
+					for (int k = userOffsets[u]; k < userOffsets[u + 1]; k++) {
+						int j = userItems[k];
+						if (j != i && commonBuyers[j]++ == 0) {
+							touched[touchedCount++] = j;
+						}
+					}
+				}
+				double buyers = productOffsets[i + 1] - productOffsets[i];
+				for (int t = 0; t < touchedCount; t++) {
+					int j = touched[t];
+					double otherBuyers = productOffsets[j + 1] - productOffsets[j];
+					selector.offer(j, commonBuyers[j] / Math.sqrt(buyers * otherBuyers));
+					commonBuyers[j] = 0;
+				}
+				int count = selector.size();
+				long[] rowNeighbors = new long[count];
+				double[] rowSimilarities = new double[count];
+				selector.sort(rowNeighbors, rowSimilarities);
+				if (size + count > neighbors.length) {
+					int newCapacity = Math.max(size + count, neighbors.length * 2);
+					neighbors = Arrays.copyOf(neighbors, newCapacity);
+					similarities = Arrays.copyOf(similarities, newCapacity);
+				}
+				for (int n = 0; n < count; n++) {
+					neighbors[size] = (int) rowNeighbors[n];
+					similarities[size] = rowSimilarities[n];
+					size++;
+				}
+				rowEnds[i - from] = size;
+			}
+		}
+	}
+
+	/**
+	 * Writes these neighbor lists to a model snapshot.
+	 *
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void write(ModelSnapshotWriter writer) throws IOException {
+		writer.writeIntArray(rowOffsets);
+		writer.writeIntArray(neighbors);
+		writer.writeDoubleArray(similarities);
+	}
+
+	/**
+	 * Reads neighbor lists written by {@link #write(ModelSnapshotWriter)}.
+	 *
+	 * @param reader
+	 *            The snapshot reader.
+	 * @param products
+	 *            The number of products of the index the lists were written with.
+	 * @return The neighbor lists.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public static ItemNeighborhood read(ModelSnapshotReader reader, int products) throws IOException {
+		int[] rowOffsets = reader.readIntArray();
+		int[] neighbors = reader.readIntArray();
+		double[] similarities = reader.readDoubleArray();
+		if (rowOffsets.length != products + 1 || rowOffsets[products] != neighbors.length
+				|| similarities.length != neighbors.length) {
+			throw new IOException("Snapshot item neighborhood is inconsistent.");
+		}
+		ModelSnapshotReader.checkRows(rowOffsets, neighbors, products, "item neighborhood");
+		return new ItemNeighborhood(rowOffsets, neighbors, similarities);
+	}
+
+	/**
+	 * @param row
+	 *            The row (product index).
+	 * @return The position of the first entry of the row.
+	 */
+	public int getRowStart(int row) {
+		return rowOffsets[row];
+	}
+
+	/**
+	 * @param row
+	 *            The row (product index).
+	 * @return The position after the last entry of the row.
+	 */
+	public int getRowEnd(int row) {
+		return rowOffsets[row + 1];
+	}
+
+	/**
+	 * @param entry
+	 *            The entry position.
+	 * @return The neighbor (product index) of the entry.
+	 */
+	public int getNeighbor(int entry) {
+		return neighbors[entry];
+	}
+
+	/**
+	 * @param entry
+	 *            The entry position.
+	 * @return The similarity of the entry, between 0 (exclusive) and 1.
+	 */
+	public double getSimilarity(int entry) {
+		return similarities[entry];
+	}
+
+	/**
+	 * @return The number of stored neighbors of all products.
+	 */
+	public int getEntries() {
+		return neighbors.length;
+	}
+}
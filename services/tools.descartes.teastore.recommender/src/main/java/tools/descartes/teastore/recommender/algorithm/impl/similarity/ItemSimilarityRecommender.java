@@ -0,0 +1,96 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.similarity;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+
+/**
+ * Recommender based on item-to-item similarity. The most similar products of
+ * every product are computed during training; a request only merges the
+ * neighbor lists of the products in the cart, so its cost is bounded by the
+ * cart size and {@link #MAX_NEIGHBORS}, independent of the number of products,
+ * users and orders.
+ */
+public class ItemSimilarityRecommender extends AbstractRecommender {
+
+	/**
+	 * The maximum number of similar products kept per product.
+	 */
+	public static final int MAX_NEIGHBORS = 30;
+
+	private ProductIndex productIndex;
+
+	private ItemNeighborhood neighborhood;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * tools.descartes.teastore.recommender.algorithm.AbstractRecommender#
+	 * execute(java.lang.Long, java.util.List)
+	 */
+	@Override
+	protected List<Long> execute(Long userid, List<Long> currentItems) {
+		// sum the similarities of each neighbor to all products in the cart
+		HashMap<Long, Double> scores = new HashMap<>();
+		for (Long product : currentItems) {
+			int row = productIndex.indexOf(product);
+			if (row < 0) {
+				// product was never bought
+				continue;
+			}
+			for (int k = neighborhood.getRowStart(row); k < neighborhood.getRowEnd(row); k++) {
+				scores.merge(productIndex.getId(neighborhood.getNeighbor(k)), neighborhood.getSimilarity(k),
+						Double::sum);
+			}
+		}
+
+		if (scores.isEmpty()) {
+			throw new UseFallBackException("No product was bought by the buyers of the current cart.");
+		}
+
+		// neighbors may be part of the cart, they are filtered
+		return filterRecommendations(scores, currentItems);
+	}
+
+	@Override
+	protected void executePreprocessing() {
+		neighborhood = ItemNeighborhood.build(getUserItemMatrix(), MAX_NEIGHBORS);
+		productIndex = getUserItemMatrix().getProductIndex();
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		productIndex.write(writer);
+		neighborhood.write(writer);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		ProductIndex index = ProductIndex.read(reader);
+		if (!index.equals(getUserItemMatrix().getProductIndex())) {
+			throw new IOException("Snapshot product index does not match the order history.");
+		}
+		neighborhood = ItemNeighborhood.read(reader, index.size());
+		productIndex = getUserItemMatrix().getProductIndex();
+	}
+}
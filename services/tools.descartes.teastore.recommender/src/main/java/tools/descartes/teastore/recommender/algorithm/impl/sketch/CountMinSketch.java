@@ -0,0 +1,154 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.sketch;
+
+import java.io.IOException;
+
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+
+/**
+ * Count-min sketch estimating the counts of arbitrary long keys in a fixed
+ * amount of memory. Estimates never underestimate a count; the overestimation
+ * shrinks with the width of the sketch and its probability with the depth.
+ * Counts are added with conservative update, i.e., only the counters holding
+ * the current minimum are increased, which reduces the overestimation. Not
+ * thread-safe while counting.
+ */
+public final class CountMinSketch {
+
+	/**
+	 * Seeds of the hash function of each row.
+	 */
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+		0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L, 0x94D049BB133111EBL };
+
+	/**
+	 * The maximum number of rows.
+	 */
+	public static final int MAX_DEPTH = SEEDS.length;
+
+	private final int depth;
+
+	private final int width;
+
+	/**
+	 * The counters, row after row.
+	 */
+	private final int[] counters;
+
+	private CountMinSketch(int depth, int width, int[] counters) {
+		this.depth = depth;
+		this.width = width;
+		this.counters = counters;
+	}
+
+	/**
+	 * Creates an empty sketch that uses at most the given memory for its
+	 * counters.
+	 *
+	 * @param bytes
+	 *            The memory budget in bytes.
+	 * @param depth
+	 *            The number of rows, at most {@link #MAX_DEPTH}.
+	 * @return The sketch, with the largest width that fits the budget, but at
+	 *         least 1.
+	 */
+	public static CountMinSketch forMemory(long bytes, int depth) {
+		if (depth < 1 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("Depth must be between 1 and " + MAX_DEPTH + ".");
+		}
+		int width = (int) Math.max(1, Math.min((1L << 30) / depth, bytes / ((long) Integer.BYTES * depth)));
+		return new CountMinSketch(depth, width, new int[depth * width]);
+	}
+
+	/**
+	 * Adds a count to a key.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param count
+	 *            The count to add, must not be negative.
+	 */
+	public void add(long key, int count) {
+		int updated = (int) Math.min(Integer.MAX_VALUE, (long) estimate(key) + count);
+		for (int row = 0; row < depth; row++) {
+			int position = position(key, row);
+			if (counters[position] < updated) {
+				counters[position] = updated;
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 *            The key.
+	 * @return The estimated count of the key, at least its actual count.
+	 */
+	public int estimate(long key) {
+		int minimum = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			minimum = Math.min(minimum, counters[position(key, row)]);
+		}
+		return minimum;
+	}
+
+	private int position(long key, int row) {
+		// splitmix64 finalizer
+		long h = key ^ SEEDS[row];
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h = h ^ (h >>> 31);
+		// maps the upper 32 bits to [0, width) without a division
+		return row * width + (int) (((h >>> 32) * width) >>> 32);
+	}
+
+	/**
+	 * @return The memory used by the counters in bytes.
+	 */
+	public long getMemoryBytes() {
+		return (long) counters.length * Integer.BYTES;
+	}
+
+	/**
+	 * Writes this sketch to a model snapshot.
+	 *
+	 * @param writer
+	 *            The snapshot writer.
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void write(ModelSnapshotWriter writer) throws IOException {
+		writer.writeInt(depth);
+		writer.writeIntArray(counters);
+	}
+
+	/**
+	 * Reads a sketch written by {@link #write(ModelSnapshotWriter)}.
+	 *
+	 * @param reader
+	 *            The snapshot reader.
+	 * @return The sketch.
+	 * @throws IOException
+	 *             If the snapshot is corrupt.
+	 */
+	public static CountMinSketch read(ModelSnapshotReader reader) throws IOException {
+		int depth = reader.readInt();
+		int[] counters = reader.readIntArray();
+		if (depth < 1 || depth > MAX_DEPTH || counters.length == 0 || counters.length % depth != 0) {
+			throw new IOException("Snapshot count-min sketch is inconsistent.");
+		}
+		return new CountMinSketch(depth, counters.length / depth, counters);
+	}
+}
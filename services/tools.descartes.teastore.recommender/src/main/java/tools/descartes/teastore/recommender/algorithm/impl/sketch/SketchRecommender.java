@@ -0,0 +1,200 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.sketch;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tools.descartes.teastore.recommender.algorithm.AbstractRecommender;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
+import tools.descartes.teastore.recommender.algorithm.ProductIndex;
+import tools.descartes.teastore.recommender.algorithm.TopKSelector;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+
+/**
+ * Approximate order-based recommender with a fixed memory budget. Instead of
+ * exact counts, it keeps the most popular products in a {@link SpaceSaving}
+ * summary and counts in how many orders two products were bought together in
+ * a {@link CountMinSketch}. Only the popular products are recommended, ranked
+ * by their estimated co-occurrences with the cart items, so the memory of the
+ * model and the cost of a request do not grow with the catalog.
+ */
+public class SketchRecommender extends AbstractRecommender {
+
+	/**
+	 * The default memory budget of the model in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+	/**
+	 * The maximum number of popular products that are considered as
+	 * recommendations. Bounds the cost of a request.
+	 */
+	public static final int MAX_CANDIDATES = 1000;
+
+	/**
+	 * The number of rows of the sketch.
+	 */
+	private static final int SKETCH_DEPTH = 4;
+
+	private static final Logger LOG = LoggerFactory.getLogger(SketchRecommender.class);
+
+	private final long memoryBudget;
+
+	/**
+	 * The most popular products, the most popular first.
+	 */
+	private long[] candidates;
+
+	private CountMinSketch coOccurrences;
+
+	/**
+	 * Creates a recommender with the memory budget set as recommenderSketchMemory
+	 * in the context, or the {@link #DEFAULT_MEMORY_BUDGET}.
+	 */
+	public SketchRecommender() {
+		this(lookupMemoryBudget());
+	}
+
+	/**
+	 * Creates a recommender with the given memory budget.
+	 *
+	 * @param memoryBudget
+	 *            The memory of the model in bytes.
+	 */
+	public SketchRecommender(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	private static long lookupMemoryBudget() {
+		try {
+			return (Long) new InitialContext().lookup("java:comp/env/recommenderSketchMemory");
+		} catch (NamingException e) {
+			LOG.info("Sketch memory not set. Using default memory budget (" + DEFAULT_MEMORY_BUDGET + " bytes).");
+			return DEFAULT_MEMORY_BUDGET;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * tools.descartes.teastore.recommender.algorithm.AbstractRecommender#
+	 * execute(java.lang.Long, java.util.List)
+	 */
+	@Override
+	protected List<Long> execute(Long userid, List<Long> currentItems) {
+		Set<Long> cart = new HashSet<>(currentItems);
+		TopKSelector selector = new TopKSelector(MAX_NUMBER_OF_RECOMMENDATIONS);
+		for (long candidate : candidates) {
+			if (cart.contains(candidate)) {
+				continue;
+			}
+			long count = 0;
+			for (Long product : cart) {
+				count += coOccurrences.estimate(pairKey(product, candidate));
+			}
+			if (count > 0) {
+				selector.offer(candidate, count);
+			}
+		}
+		if (selector.size() == 0) {
+			throw new UseFallBackException(
+					"No popular product was bought together with the current cart. Therefore, all counts are 0.");
+		}
+		return selector.toList();
+	}
+
+	@Override
+	protected void executePreprocessing() {
+		int capacity = (int) Math.max(MAX_NUMBER_OF_RECOMMENDATIONS,
+				Math.min(MAX_CANDIDATES, memoryBudget / 8 / SpaceSaving.BYTES_PER_SLOT));
+		SpaceSaving popularity = new SpaceSaving(capacity);
+		CountMinSketch sketch = CountMinSketch.forMemory(memoryBudget - (long) capacity * SpaceSaving.BYTES_PER_SLOT,
+				SKETCH_DEPTH);
+		UserItemMatrix matrix = getUserItemMatrix();
+		ProductIndex index = matrix.getProductIndex();
+		for (int o = 0; o < matrix.getOrders(); o++) {
+			int end = matrix.getOrderEnd(o);
+			for (int i = matrix.getOrderStart(o); i < end; i++) {
+				long product = index.getId(matrix.getOrderProduct(i));
+				// weighted by quantity, as in the popularity recommender
+				popularity.offer(product, matrix.getOrderQuantity(i));
+				for (int j = i + 1; j < end; j++) {
+					sketch.add(pairKey(product, index.getId(matrix.getOrderProduct(j))), 1);
+				}
+			}
+		}
+		coOccurrences = sketch;
+		candidates = popularity.getHeavyHitters();
+	}
+
+	/**
+	 * Combines two product IDs to a key independent of their order.
+	 */
+	private static long pairKey(long a, long b) {
+		long low = Math.min(a, b);
+		long high = Math.max(a, b);
+		return Long.rotateLeft(low * 0x9E3779B97F4A7C15L, 32) ^ high;
+	}
+
+	/**
+	 * @return The estimated memory used by the trained model in bytes.
+	 */
+	public long getModelMemoryBytes() {
+		return (long) candidates.length * Long.BYTES + coOccurrences.getMemoryBytes();
+	}
+
+	/**
+	 * @return The popular products considered as recommendations, the most
+	 *         popular first.
+	 */
+	public long[] getCandidates() {
+		return candidates.clone();
+	}
+
+	/**
+	 * @param a
+	 *            A product ID.
+	 * @param b
+	 *            Another product ID.
+	 * @return The estimated number of orders containing both products.
+	 */
+	public int estimateCoOccurrences(long a, long b) {
+		return coOccurrences.estimate(pairKey(a, b));
+	}
+
+	@Override
+	protected void writePreprocessing(ModelSnapshotWriter writer) throws IOException {
+		writer.writeLongArray(candidates);
+		coOccurrences.write(writer);
+	}
+
+	@Override
+	protected void readPreprocessing(ModelSnapshotReader reader) throws IOException {
+		long[] newCandidates = reader.readLongArray();
+		coOccurrences = CountMinSketch.read(reader);
+		candidates = newCandidates;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm.impl.sketch;
+
+import java.util.HashMap;
+
+import tools.descartes.teastore.recommender.algorithm.TopKSelector;
+
+/**
+ * Space-Saving heavy hitter summary: tracks the keys with the highest total
+ * weight in a fixed number of slots. Once all slots are taken, a new key
+ * replaces the key with the lowest count and inherits its count as error, so
+ * every key with a total weight above the total of all weights divided by the
+ * capacity is guaranteed to be tracked. Not thread-safe while counting.
+ */
+public final class SpaceSaving {
+
+	/**
+	 * Approximate memory of one slot in bytes: key, count and error, plus the
+	 * boxed entry of the position map.
+	 */
+	public static final int BYTES_PER_SLOT = 3 * Long.BYTES + 64;
+
+	private final long[] keys;
+
+	/**
+	 * The counts, a min-heap.
+	 */
+	private final long[] counts;
+
+	/**
+	 * The maximum overestimation of each count.
+	 */
+	private final long[] errors;
+
+	/**
+	 * The heap position of each tracked key.
+	 */
+	private final HashMap<Long, Integer> positions = new HashMap<>();
+
+	private int size = 0;
+
+	/**
+	 * Creates an empty summary.
+	 *
+	 * @param capacity
+	 *            The number of tracked keys.
+	 */
+	public SpaceSaving(int capacity) {
+		keys = new long[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+	}
+
+	/**
+	 * Adds a weight to a key.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param weight
+	 *            The weight, must not be negative.
+	 */
+	public void offer(long key, long weight) {
+		Integer position = positions.get(key);
+		if (position != null) {
+			counts[position] += weight;
+			siftDown(position);
+		} else if (size < keys.length) {
+			int i = size++;
+			keys[i] = key;
+			counts[i] = weight;
+			errors[i] = 0;
+			positions.put(key, i);
+			siftUp(i);
+		} else if (size > 0) {
+			// replace the key with the lowest count
+			positions.remove(keys[0]);
+			keys[0] = key;
+			errors[0] = counts[0];
+			counts[0] += weight;
+			positions.put(key, 0);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @return The number of tracked keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param key
+	 *            The key.
+	 * @return The estimated total weight of the key, at least its actual weight,
+	 *         or 0 if the key is not tracked.
+	 */
+	public long getCount(long key) {
+		Integer position = positions.get(key);
+		return position == null ? 0 : counts[position];
+	}
+
+	/**
+	 * @param key
+	 *            The key.
+	 * @return The maximum overestimation of {@link #getCount(long)}.
+	 */
+	public long getError(long key) {
+		Integer position = positions.get(key);
+		return position == null ? 0 : errors[position];
+	}
+
+	/**
+	 * @return The tracked keys, the heaviest first, ties by ascending key.
+	 */
+	public long[] getHeavyHitters() {
+		TopKSelector selector = new TopKSelector(size);
+		for (int i = 0; i < size; i++) {
+			selector.offer(keys[i], counts[i]);
+		}
+		long[] sortedKeys = new long[size];
+		selector.sort(sortedKeys, new double[size]);
+		return sortedKeys;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (counts[parent] <= counts[i]) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && counts[child + 1] < counts[child]) {
+				child++;
+			}
+			if (counts[i] <= counts[child]) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		long key = keys[i];
+		long count = counts[i];
+		long error = errors[i];
+		keys[i] = keys[j];
+		counts[i] = counts[j];
+		errors[i] = errors[j];
+		keys[j] = key;
+		counts[j] = count;
+		errors[j] = error;
+		positions.put(keys[i], i);
+		positions.put(keys[j], j);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, as in HdrHistogram.
+ * Values below {@link #LINEAR_LIMIT} are counted exactly, larger values in
+ * {@link #SUB_BUCKETS} buckets per power of two, so every percentile is
+ * reported with a relative error of at most 1 / {@link #SUB_BUCKETS}.
+ * Recording a value costs a few arithmetic operations and one atomic increment.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two.
+	 */
+	static final int SUB_BUCKETS = 32;
+
+	private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+	/**
+	 * Values below this limit have a bucket of their own.
+	 */
+	static final long LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+
+	/**
+	 * Larger values are counted as this value, about 18 minutes in nanoseconds.
+	 */
+	static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder total = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value
+	 *            The value, e.g., a latency in nanoseconds. Negative values are
+	 *            counted as 0.
+	 */
+	public void record(long value) {
+		long bounded = Math.min(MAX_VALUE, Math.max(0, value));
+		counts.incrementAndGet(bucketIndex(bounded));
+		total.increment();
+		sum.add(bounded);
+		max.accumulate(bounded);
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * @return The largest recorded value.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of the recorded values, 0 if no value was recorded.
+	 */
+	public double getMean() {
+		long count = total.sum();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The largest value counted in the same bucket as the value at the
+	 *         percentile, but at most the largest recorded value; 0 if no value
+	 *         was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Summarizes the histogram in microseconds, assuming values in nanoseconds.
+	 *
+	 * @return The count, mean, common percentiles and maximum.
+	 */
+	public Map<String, Object> toMicrosMap() {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("count", getCount());
+		summary.put("meanMicros", getMean() / 1000);
+		summary.put("p50Micros", getValueAtPercentile(50) / 1000.0);
+		summary.put("p90Micros", getValueAtPercentile(90) / 1000.0);
+		summary.put("p99Micros", getValueAtPercentile(99) / 1000.0);
+		summary.put("p999Micros", getValueAtPercentile(99.9) / 1000.0);
+		summary.put("maxMicros", getMax() / 1000.0);
+		return summary;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (int) LINEAR_LIMIT + (magnitude - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int magnitude = LINEAR_BITS + (index - (int) LINEAR_LIMIT) / SUB_BUCKETS;
+		int subBucket = (index - (int) LINEAR_LIMIT) % SUB_BUCKETS;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ((long) (subBucket + SUB_BUCKETS + 1) << shift) - 1;
+	}
+}
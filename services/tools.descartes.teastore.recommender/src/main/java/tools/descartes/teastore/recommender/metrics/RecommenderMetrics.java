@@ -0,0 +1,210 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of the recommender service: recommendation latencies per
+ * algorithm, fallbacks by reason, the paths taken by time-budgeted
+ * recommendations, the durations of the training phases,
+ * statistics of the trained models and the comparison with a shadow recommender. All methods are thread-safe and cheap enough to be called on every request.
+ */
+public final class RecommenderMetrics {
+
+	/**
+	 * The maximum number of distinct fallback reasons. Further reasons are counted
+	 * as {@link #OTHER_REASON}.
+	 */
+	public static final int MAX_FALLBACK_REASONS = 64;
+
+	/**
+	 * The reason fallbacks are counted under once {@link #MAX_FALLBACK_REASONS}
+	 * is reached.
+	 */
+	public static final String OTHER_REASON = "other";
+
+	private static final RecommenderMetrics INSTANCE = new RecommenderMetrics();
+
+	private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, LongAdder> fallbacks = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, LongAdder> budgetedPaths = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, Long> phaseDurations = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, Map<String, Object>> modelStatistics = new ConcurrentHashMap<>();
+
+	private final ShadowStatistics shadow = new ShadowStatistics();
+
+	private RecommenderMetrics() {
+
+	}
+
+	/**
+	 * Returns the instance for this singleton.
+	 *
+	 * @return An instance of {@link RecommenderMetrics}
+	 */
+	public static RecommenderMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records the latency of a recommendation.
+	 *
+	 * @param algorithm
+	 *            The algorithm that was executed.
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void recordLatency(String algorithm, long nanos) {
+		latencies.computeIfAbsent(algorithm, key -> new LatencyHistogram()).record(nanos);
+	}
+
+	/**
+	 * Counts a fallback to the fallback recommender.
+	 *
+	 * @param reason
+	 *            The reason, should not contain request-specific values.
+	 */
+	public void recordFallback(String reason) {
+		LongAdder count = fallbacks.get(reason);
+		if (count == null) {
+			if (fallbacks.size() >= MAX_FALLBACK_REASONS) {
+				reason = OTHER_REASON;
+			}
+			count = fallbacks.computeIfAbsent(reason, key -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	/**
+	 * Counts a request answered by the TimeBudgetedRecommender.
+	 *
+	 * @param path
+	 *            The path that produced the answer.
+	 */
+	public void recordBudgetedPath(String path) {
+		budgetedPaths.computeIfAbsent(path, key -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Records the duration of the last execution of a training phase.
+	 *
+	 * @param phase
+	 *            The training phase.
+	 * @param millis
+	 *            The duration in milliseconds.
+	 */
+	public void recordPhase(String phase, long millis) {
+		phaseDurations.put(phase, millis);
+	}
+
+	/**
+	 * Records the statistics of the last trained model of an algorithm, e.g., its
+	 * size.
+	 *
+	 * @param algorithm
+	 *            The algorithm.
+	 * @param statistics
+	 *            The statistics by name.
+	 */
+	public void recordModelStatistics(String algorithm, Map<String, Object> statistics) {
+		modelStatistics.put(algorithm, new LinkedHashMap<>(statistics));
+	}
+
+	/**
+	 * @param algorithm
+	 *            The algorithm.
+	 * @return The latency histogram of the algorithm, null if it was never
+	 *         executed.
+	 */
+	public LatencyHistogram getLatency(String algorithm) {
+		return latencies.get(algorithm);
+	}
+
+	/**
+	 * @return The number of fallbacks by reason.
+	 */
+	public Map<String, Long> getFallbacks() {
+		Map<String, Long> counts = new TreeMap<>();
+		fallbacks.forEach((reason, count) -> counts.put(reason, count.sum()));
+		return counts;
+	}
+
+	/**
+	 * @return The number of time-budgeted requests by path.
+	 */
+	public Map<String, Long> getBudgetedPaths() {
+		Map<String, Long> counts = new TreeMap<>();
+		budgetedPaths.forEach((path, count) -> counts.put(path, count.sum()));
+		return counts;
+	}
+
+	/**
+	 * @return The duration of the last execution of each training phase in
+	 *         milliseconds.
+	 */
+	public Map<String, Long> getPhaseDurations() {
+		return new TreeMap<>(phaseDurations);
+	}
+
+	/**
+	 * @return The statistics of the last trained model of each algorithm.
+	 */
+	public Map<String, Map<String, Object>> getModelStatistics() {
+		return new TreeMap<>(modelStatistics);
+	}
+
+	/**
+	 * @return The comparison of the configured recommender with the shadow
+	 *         recommender on replayed requests.
+	 */
+	public ShadowStatistics getShadow() {
+		return shadow;
+	}
+
+	/**
+	 * @return The latency summaries per algorithm in microseconds.
+	 */
+	public Map<String, Map<String, Object>> getLatencies() {
+		Map<String, Map<String, Object>> summaries = new TreeMap<>();
+		latencies.forEach((algorithm, histogram) -> summaries.put(algorithm, histogram.toMicrosMap()));
+		return summaries;
+	}
+
+	/**
+	 * Summarizes all metrics.
+	 *
+	 * @return The latencies, fallbacks, paths of time-budgeted requests,
+	 *         training phase durations, model statistics and the shadow
+	 *         comparison.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("latencies", getLatencies());
+		metrics.put("fallbacks", getFallbacks());
+		metrics.put("budgetedPaths", getBudgetedPaths());
+		metrics.put("trainingPhasesMillis", getPhaseDurations());
+		metrics.put("modelStatistics", getModelStatistics());
+		metrics.put("shadow", shadow.toMap());
+		return metrics;
+	}
+}
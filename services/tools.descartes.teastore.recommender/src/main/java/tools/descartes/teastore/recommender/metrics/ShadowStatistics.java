@@ -0,0 +1,160 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the configured recommender with a shadow recommender on replayed
+ * live requests: the latency and allocated memory of both per request, and the
+ * overlap of their recommendations. All methods are thread-safe.
+ */
+public final class ShadowStatistics {
+
+	private final LatencyHistogram primaryLatency = new LatencyHistogram();
+
+	private final LatencyHistogram shadowLatency = new LatencyHistogram();
+
+	private final LatencyHistogram primaryAllocation = new LatencyHistogram();
+
+	private final LatencyHistogram shadowAllocation = new LatencyHistogram();
+
+	private final DoubleAdder overlap = new DoubleAdder();
+
+	private final LongAdder identical = new LongAdder();
+
+	private final LongAdder replayed = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder shadowFallbacks = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Records a replayed request.
+	 *
+	 * @param primaryNanos
+	 *            The latency of the configured recommender in nanoseconds.
+	 * @param shadowNanos
+	 *            The latency of the shadow recommender in nanoseconds.
+	 * @param primaryBytes
+	 *            The bytes allocated by the configured recommender, negative if
+	 *            unknown.
+	 * @param shadowBytes
+	 *            The bytes allocated by the shadow recommender, negative if
+	 *            unknown.
+	 * @param shadowFallback
+	 *            True if the shadow recommender requested to use the fallback.
+	 * @param overlapRatio
+	 *            The share of the live recommendations also recommended by the
+	 *            shadow recommender, between 0 and 1.
+	 */
+	public void recordReplay(long primaryNanos, long shadowNanos, long primaryBytes, long shadowBytes,
+			boolean shadowFallback, double overlapRatio) {
+		primaryLatency.record(primaryNanos);
+		shadowLatency.record(shadowNanos);
+		if (primaryBytes >= 0 && shadowBytes >= 0) {
+			primaryAllocation.record(primaryBytes);
+			shadowAllocation.record(shadowBytes);
+		}
+		if (shadowFallback) {
+			shadowFallbacks.increment();
+		}
+		overlap.add(overlapRatio);
+		if (overlapRatio == 1) {
+			identical.increment();
+		}
+		replayed.increment();
+	}
+
+	/**
+	 * Counts a sampled request that was not replayed, as the shadow executor was
+	 * saturated.
+	 */
+	public void recordDropped() {
+		dropped.increment();
+	}
+
+	/**
+	 * Counts a replay that failed with an unexpected error.
+	 */
+	public void recordFailure() {
+		failures.increment();
+	}
+
+	/**
+	 * @return The number of replayed requests.
+	 */
+	public long getReplayed() {
+		return replayed.sum();
+	}
+
+	/**
+	 * @return The number of sampled requests that were dropped.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return The number of replays that failed.
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return The mean share of the live recommendations also recommended by the
+	 *         shadow recommender, 0 if nothing was replayed.
+	 */
+	public double getMeanOverlap() {
+		long count = replayed.sum();
+		return count == 0 ? 0 : overlap.sum() / count;
+	}
+
+	/**
+	 * Summarizes the comparison.
+	 *
+	 * @return The counts, the latencies of both recommenders in microseconds,
+	 *         their allocated bytes and the overlap of their recommendations.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("replayed", getReplayed());
+		summary.put("dropped", getDropped());
+		summary.put("failures", getFailures());
+		summary.put("shadowFallbacks", shadowFallbacks.sum());
+		summary.put("meanOverlap", getMeanOverlap());
+		summary.put("identical", identical.sum());
+		summary.put("primaryLatency", primaryLatency.toMicrosMap());
+		summary.put("shadowLatency", shadowLatency.toMicrosMap());
+		summary.put("primaryAllocatedBytes", toBytesMap(primaryAllocation));
+		summary.put("shadowAllocatedBytes", toBytesMap(shadowAllocation));
+		return summary;
+	}
+
+	private static Map<String, Object> toBytesMap(LatencyHistogram histogram) {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("count", histogram.getCount());
+		summary.put("mean", histogram.getMean());
+		summary.put("p50", histogram.getValueAtPercentile(50));
+		summary.put("p99", histogram.getValueAtPercentile(99));
+		summary.put("max", histogram.getMax());
+		return summary;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+
+import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
+import tools.descartes.teastore.recommender.servlet.TrainingSynchronizer;
+
+/**
+ * REST endpoint exposing the metrics of the Recommender.
+ */
+@Path("metrics")
+@Produces({ "application/json" })
+public class MetricsEndpoint {
+
+	/**
+	 * Returns the metrics of the Recommender. Latencies and counts are collected
+	 * since the start of the service, training phase durations refer to the last
+	 * execution of each phase.
+	 *
+	 * @return Map containing the recommendation "latencies" per algorithm in
+	 *         microseconds, the "fallbacks" by reason, the "budgetedPaths" of
+	 *         time-budgeted requests, the "trainingPhasesMillis", the
+	 *         "modelStatistics" reported by the algorithms, the "shadow"
+	 *         comparison with the shadow recommender, the estimated
+	 *         "modelSizeBytes" of the trained model, the "cache" statistics and
+	 *         the "maxTime" considered at the last training.
+	 */
+	@GET
+	public Response metrics() {
+		RecommenderSelector selector = RecommenderSelector.getInstance();
+		Map<String, Object> metrics = RecommenderMetrics.getInstance().toMap();
+		metrics.put("modelSizeBytes", selector.getModelSizes());
+		long hits = selector.getCacheHits();
+		long misses = selector.getCacheMisses();
+		Map<String, Object> cache = new LinkedHashMap<>();
+		cache.put("hits", hits);
+		cache.put("misses", misses);
+		cache.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+		cache.put("size", selector.getCacheSize());
+		metrics.put("cache", cache);
+		metrics.put("maxTime", TrainingSynchronizer.getInstance().getMaxTime());
+		return Response.ok().entity(metrics).build();
+	}
+}
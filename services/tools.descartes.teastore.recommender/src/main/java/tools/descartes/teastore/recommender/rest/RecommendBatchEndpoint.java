@@ -0,0 +1,60 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.rest;
+
+import java.util.List;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+
+import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
+import tools.descartes.teastore.entities.Product;
+import tools.descartes.teastore.entities.User;
+import tools.descartes.teastore.entities.message.RecommendationRequest;
+
+/**
+ * Recommender REST endpoint for many recommendations in one call.
+ */
+@Path("recommend/batch")
+@Produces({ "application/json" })
+@Consumes({ "application/json" })
+public class RecommendBatchEndpoint {
+
+	/**
+	 * Return the recommended {@link Product}s for each of the given requests. All
+	 * requests are answered by the same trained model. <br>
+	 *
+	 * The list returned for a request does not contain any {@link Product} that is
+	 * already part of its cart. It might be empty, however.
+	 *
+	 * @param requests
+	 *            A list of requests, each containing the id of the {@link User} to
+	 *            recommend for (may be null) and the {@link Product} IDs in the
+	 *            current cart (may be empty). Must not be null.
+	 * @return List containing a list of recommended {@link Product} IDs for each
+	 *         request, in the order of the requests, or an INTERNALSERVERERROR, if
+	 *         the recommendation failed.
+	 */
+	@POST
+	public Response recommend(List<RecommendationRequest> requests) {
+		if (requests == null) {
+			throw new NullPointerException("Requests must not be null.");
+		}
+		List<List<Long>> recommended = RecommenderSelector.getInstance().recommendProducts(requests);
+		return Response.ok().entity(recommended).build();
+	}
+}
@@ -13,14 +13,23 @@
  */
 package tools.descartes.teastore.recommender.rest;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 
 import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
 import tools.descartes.teastore.entities.OrderItem;
@@ -59,4 +68,103 @@ public class RecommendEndpoint {
 		List<Long> recommended = RecommenderSelector.getInstance().recommendProducts(uid, currentItems);
 		return Response.ok().entity(recommended).build();
 	}
+
+	/**
+	 * Return a list of all {@link Product}s, that are recommended for the given
+	 * {@link User} with the given {@link Product}s in the cart, like
+	 * {@link #recommend(List, Long)}, but cacheable by HTTP caches. <br>
+	 * 
+	 * The response carries the version of the trained model as ETag, which all
+	 * instances serving a model of the same orders share. A request with this
+	 * ETag in If-None-Match is answered with NOT MODIFIED without recommending,
+	 * as long as no new orders were trained. Caches may reuse the
+	 * response for the max age set as recommenderResponseMaxAge; responses for a
+	 * user are private to that user. The product IDs must be sorted, so that
+	 * each cart has exactly one URL.
+	 * 
+	 * @param pid
+	 *            The IDs of the {@link Product}s in the current cart, comma
+	 *            separated and sorted ascending without duplicates. Might be
+	 *            empty.
+	 * @param uid
+	 *            The id of the {@link User} to recommend for. May be null.
+	 * @param request
+	 *            The request, to evaluate If-None-Match.
+	 * @return List of {@link Long} objects, containing all {@link Product} IDs that
+	 *         are recommended to add to the cart, NOT MODIFIED if the client
+	 *         holds the current recommendations, BAD REQUEST if the product IDs
+	 *         are not sorted numbers, or an INTERNALSERVERERROR, if the
+	 *         recommendation failed.
+	 */
+	@GET
+	public Response recommend(@QueryParam("pid") final String pid, @QueryParam("uid") final Long uid,
+			@Context Request request) {
+		List<OrderItem> currentItems = parseProductIds(pid);
+		if (currentItems == null) {
+			return Response.status(Response.Status.BAD_REQUEST.getStatusCode())
+					.entity("Product IDs must be numbers, sorted ascending without duplicates.").build();
+		}
+		RecommenderSelector selector = RecommenderSelector.getInstance();
+		// read before recommending, so the tag never claims a newer model
+		EntityTag tag = new EntityTag(selector.getModelVersion());
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setMaxAge(selector.getResponseMaxAge());
+		cacheControl.setPrivate(uid != null);
+		ResponseBuilder notModified = request.evaluatePreconditions(tag);
+		if (notModified != null) {
+			return notModified.tag(tag).cacheControl(cacheControl).build();
+		}
+		List<Long> recommended = selector.recommendProducts(uid, currentItems);
+		return Response.ok().entity(recommended).tag(tag).cacheControl(cacheControl).build();
+	}
+
+	/**
+	 * @param pid
+	 *            Comma separated product IDs, may be null or empty.
+	 * @return One {@link OrderItem} per product ID, or null if the IDs are not
+	 *         numbers sorted ascending without duplicates.
+	 */
+	private static List<OrderItem> parseProductIds(String pid) {
+		List<OrderItem> items = new ArrayList<>();
+		if (pid == null || pid.isEmpty()) {
+			return items;
+		}
+		long previous = Long.MIN_VALUE;
+		for (String id : pid.split(",", -1)) {
+			long productId;
+			try {
+				productId = Long.parseLong(id.trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (!items.isEmpty() && productId <= previous) {
+				return null;
+			}
+			previous = productId;
+			OrderItem item = new OrderItem();
+			item.setProductId(productId);
+			item.setQuantity(1);
+			items.add(item);
+		}
+		return items;
+	}
+
+	/**
+	 * Returns the statistics of the recommendation result cache. Hits and misses
+	 * are counted since the start of the service, the size refers to the cache of
+	 * the currently trained model.
+	 * 
+	 * @return Map containing the number of cache "hits", "misses" and the current
+	 *         "size" of the cache.
+	 */
+	@GET
+	@Path("cache")
+	public Response cacheStatistics() {
+		RecommenderSelector selector = RecommenderSelector.getInstance();
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		statistics.put("hits", selector.getCacheHits());
+		statistics.put("misses", selector.getCacheMisses());
+		statistics.put("size", (long) selector.getCacheSize());
+		return Response.ok().entity(statistics).build();
+	}
 }
@@ -13,9 +13,15 @@
  */
 package tools.descartes.teastore.recommender.rest;
 
+import java.io.IOException;
+
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
 import tools.descartes.teastore.recommender.algorithm.IRecommender;
@@ -85,14 +91,93 @@ public class TrainEndpoint {
 		return Response.ok(TrainingSynchronizer.getInstance().getMaxTime()).build();
 	}
 
+	/**
+	 * Returns the trained model of this instance as binary snapshot, so another
+	 * instance can start serving it without retrieving the orders and training
+	 * itself.
+	 *
+	 * @return Returns a {@link Response} with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_OK} containing the
+	 *         snapshot or with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_PRECONDITION_FAILED},
+	 *         if no trained model is available.
+	 */
+	@GET
+	@Path("model")
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public Response getModel() {
+		byte[] snapshot = TrainingSynchronizer.getInstance().getModelSnapshot();
+		if (snapshot == null) {
+			return Response.status(Response.Status.PRECONDITION_FAILED.getStatusCode()).build();
+		}
+		return Response.ok(snapshot).build();
+	}
+
+	/**
+	 * Replaces the model of this instance with a model trained by another
+	 * instance. The elected instance sends its model here after each retraining.
+	 *
+	 * @param snapshot
+	 *            The binary snapshot of the trained model.
+	 * @param sender
+	 *            The ID of the sending instance, i.e., its host and port.
+	 * @return Returns a {@link Response} with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_OK}, with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_FORBIDDEN}, if
+	 *         the sender is not the elected leader, or with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_BAD_REQUEST}, if
+	 *         the model is older than the current model, does not fit the
+	 *         configured algorithms or is corrupt.
+	 */
+	@POST
+	@Path("model")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	public Response receiveModel(byte[] snapshot, @QueryParam("sender") final String sender) {
+		if (!TrainingSynchronizer.getInstance().isLeader(sender)) {
+			return Response.status(Response.Status.FORBIDDEN.getStatusCode())
+					.entity("Only the elected leader may publish models.").build();
+		}
+		if (snapshot != null && TrainingSynchronizer.getInstance().receiveModel(snapshot)) {
+			return Response.ok("The model was received.").build();
+		}
+		return Response.status(Response.Status.BAD_REQUEST.getStatusCode())
+				.entity("The model could not be loaded.").build();
+	}
+
+	/**
+	 * Calculates the partial slope one matrix of a range of users for the
+	 * instance that trains the model with partitioned training enabled. The
+	 * result depends only on the sent rows, not on the model of this instance.
+	 *
+	 * @param userRows
+	 *            The binary rows of the users.
+	 * @return Returns a {@link Response} with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_OK} containing the
+	 *         binary partial matrix or with
+	 *         {@link jakarta.servlet.http.HttpServletResponse#SC_BAD_REQUEST}, if
+	 *         the rows are corrupt.
+	 */
+	@POST
+	@Path("slopeone")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public Response buildSlopeOneShard(byte[] userRows) {
+		if (userRows != null) {
+			try {
+				return Response.ok(TrainingSynchronizer.getInstance().buildSlopeOneShard(userRows)).build();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return Response.status(Response.Status.BAD_REQUEST.getStatusCode()).build();
+	}
+
 	/**
 	 * This methods checks, if the service is ready to serve recommendation
-	 * requests, i.e., if the algorithm has finished training and no retraining process
-	 * is running. However, this does not imply that issuing a recommendation will
-	 * fail, if this method returns false. For example, if a retraining is issued,
-	 * the old trained instance might still answer issued requests until the new
-	 * instance is fully trained. However, performance behavior is probably
-	 * influenced.
+	 * requests, i.e., if the algorithm has finished its initial training. A
+	 * retraining does not affect readiness, as the previously trained instance
+	 * keeps answering requests until the new instance is fully trained and swapped
+	 * in.
 	 *
 	 * @return True, if recommender is ready; false, if not.
 	 */
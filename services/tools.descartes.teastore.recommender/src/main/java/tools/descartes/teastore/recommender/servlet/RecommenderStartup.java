@@ -13,6 +13,8 @@
  */
 package tools.descartes.teastore.recommender.servlet;
 
+import java.nio.file.Paths;
+
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import jakarta.servlet.ServletContextEvent;
@@ -22,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.opentracing.util.GlobalTracer;
+import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
 import tools.descartes.teastore.registryclient.RegistryClient;
 import tools.descartes.teastore.registryclient.Service;
 import tools.descartes.teastore.registryclient.loadbalancers.ServiceLoadBalancer;
@@ -39,6 +42,8 @@ public class RecommenderStartup implements ServletContextListener {
 
 	private static final int REST_READ_TIMOUT = 4000;
 
+	private static final long DEFAULT_RETRAIN_THRESHOLD = 1;
+
 	private static final Logger LOG = LoggerFactory.getLogger(RecommenderStartup.class);
 
 	/**
@@ -70,16 +75,44 @@ public class RecommenderStartup implements ServletContextListener {
 		GlobalTracer.register(Tracing.init(Service.RECOMMENDER.getServiceName()));
 		RESTClient.setGlobalReadTimeout(REST_READ_TIMOUT);
 		ServiceLoadBalancer.preInitializeServiceLoadBalancers(Service.PERSISTENCE);
-		RegistryClient.getClient().runAfterServiceIsAvailable(Service.PERSISTENCE, () -> {
-			TrainingSynchronizer.getInstance().retrieveDataAndRetrain();
+		try {
+			String snapshotFile = (String) new InitialContext().lookup("java:comp/env/recommenderSnapshotFile");
+			if (snapshotFile != null && !snapshotFile.trim().isEmpty()) {
+				TrainingSynchronizer.getInstance().setSnapshotFile(Paths.get(snapshotFile.trim()));
+				LOG.info("Writing recommender snapshots to " + snapshotFile);
+			}
+		} catch (NamingException e) {
+			LOG.info("Recommender snapshot file not set. Disabling snapshots.");
+		}
+		try {
+			if ((Boolean) new InitialContext().lookup("java:comp/env/recommenderPartitionedTraining")) {
+				RecommenderSelector.getInstance()
+						.setSlopeOneMatrixBuilder(TrainingSynchronizer.getInstance()::buildSlopeOneMatrix);
+				LOG.info("Building the slope one model on all recommender instances.");
+			}
+		} catch (NamingException e) {
+			LOG.info("Recommender partitioned training not set. Building the slope one model on one instance.");
+		}
+		if (TrainingSynchronizer.getInstance().restoreSnapshot()) {
+			// serve the restored model right away and catch up in the background
 			RegistryClient.getClient().register(event.getServletContext().getContextPath());
-		}, Service.RECOMMENDER);
+			RegistryClient.getClient().runAfterServiceIsAvailable(Service.PERSISTENCE, () -> {
+				retrieveModelOrRetrain();
+			}, Service.RECOMMENDER);
+		} else {
+			RegistryClient.getClient().runAfterServiceIsAvailable(Service.PERSISTENCE, () -> {
+				retrieveModelOrRetrain();
+				RegistryClient.getClient().register(event.getServletContext().getContextPath());
+			}, Service.RECOMMENDER);
+		}
 		try {
 			long looptime = (Long) new InitialContext().lookup("java:comp/env/recommenderLoopTime");
 			// if a looptime is specified, a retraining daemon is started
 			if (looptime > 0) {
-				new RetrainDaemon(looptime).start();
-				LOG.info("Periodic retraining every " + looptime + " milliseconds");
+				long threshold = lookupRetrainThreshold();
+				new RetrainDaemon(looptime, threshold).start();
+				LOG.info("Checking for new orders every " + looptime + " milliseconds, retraining after " + threshold
+						+ " new orders");
 			} else {
 				LOG.info("Recommender loop time not set. Disabling periodic retraining.");
 			}
@@ -89,4 +122,20 @@ public class RecommenderStartup implements ServletContextListener {
 
 	}
 
+	private static void retrieveModelOrRetrain() {
+		// another instance already retrieved the orders and trained the model
+		if (!TrainingSynchronizer.getInstance().retrieveModel()) {
+			TrainingSynchronizer.getInstance().retrieveDataAndRetrain();
+		}
+	}
+
+	private static long lookupRetrainThreshold() {
+		try {
+			return (Long) new InitialContext().lookup("java:comp/env/recommenderRetrainThreshold");
+		} catch (NamingException e) {
+			LOG.info("Recommender retrain threshold not set. Retraining after every new order.");
+			return DEFAULT_RETRAIN_THRESHOLD;
+		}
+	}
+
 }
@@ -13,33 +13,39 @@
  */
 package tools.descartes.teastore.recommender.servlet;
 
-import tools.descartes.teastore.registryclient.RegistryClient;
-import tools.descartes.teastore.registryclient.Service;
-import tools.descartes.teastore.registryclient.StartupCallback;
-
 /**
- * DaemonThread for periodic retraining if required.
+ * DaemonThread for periodic retraining if required. Only the elected instance
+ * retrains, and only once enough new orders were placed; the other instances
+ * receive its model.
  * 
  * @author Johannes Grohmann
  */
 public class RetrainDaemon extends Thread {
 
 	/**
-	 * The time between retraining in milliseconds.
+	 * The time between checks for new orders in milliseconds.
 	 */
 	private long looptime;
 
+	/**
+	 * The minimum number of new orders that triggers a retraining.
+	 */
+	private long threshold;
+
 	/**
 	 * Constructor.
 	 * 
 	 * @param looptime
-	 *            The time between retraining in milliseconds
+	 *            The time between checks for new orders in milliseconds
+	 * @param threshold
+	 *            The minimum number of new orders that triggers a retraining
 	 */
-	public RetrainDaemon(long looptime) {
+	public RetrainDaemon(long looptime, long threshold) {
 		super();
 		// set as daemon thread
 		setDaemon(true);
 		this.looptime = looptime;
+		this.threshold = threshold;
 	}
 
 	/*
@@ -57,15 +63,30 @@ public class RetrainDaemon extends Thread {
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
-			// wait for the persistance service and then retrain
-			RegistryClient.getClient().runAfterServiceIsAvailable(Service.PERSISTENCE, new StartupCallback() {
-				@Override
-				public void callback() {
-					TrainingSynchronizer.getInstance().retrieveDataAndRetrain();
-				}
-			}, Service.RECOMMENDER);
+			try {
+				retrainIfRequired();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
 		}
 
 	}
 
+	private void retrainIfRequired() {
+		TrainingSynchronizer synchronizer = TrainingSynchronizer.getInstance();
+		// the other instances receive the model of the leader
+		if (!synchronizer.isReady() || !synchronizer.isLeader()) {
+			return;
+		}
+		long newOrders = synchronizer.countNewOrders();
+		// if the count is unknown, update anyway
+		if (newOrders >= 0 && newOrders < threshold) {
+			return;
+		}
+		// fold new orders into the model and share it
+		if (synchronizer.retrieveDataAndUpdate() > 0) {
+			synchronizer.publishModel();
+		}
+	}
+
 }
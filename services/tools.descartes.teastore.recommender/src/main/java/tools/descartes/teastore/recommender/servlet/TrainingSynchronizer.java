@@ -13,6 +13,12 @@
  */
 package tools.descartes.teastore.recommender.servlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -21,21 +27,45 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
+import org.glassfish.jersey.grizzly.connector.GrizzlyConnectorProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.netflix.loadbalancer.Server;
+
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotReader;
+import tools.descartes.teastore.recommender.algorithm.ModelSnapshotWriter;
 import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
+import tools.descartes.teastore.recommender.algorithm.UserItemMatrix;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneMatrix;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
+import tools.descartes.teastore.registryclient.RegistryClient;
 import tools.descartes.teastore.registryclient.Service;
 import tools.descartes.teastore.registryclient.loadbalancers.LoadBalancerTimeoutException;
 import tools.descartes.teastore.registryclient.loadbalancers.ServiceLoadBalancer;
 import tools.descartes.teastore.registryclient.rest.LoadBalancedCRUDOperations;
 import tools.descartes.teastore.registryclient.util.NotFoundException;
+import tools.descartes.teastore.registryclient.util.RESTClient;
 import tools.descartes.teastore.entities.Order;
 import tools.descartes.teastore.entities.OrderItem;
 
@@ -60,9 +90,21 @@ public final class TrainingSynchronizer {
 	private static final List<Integer> PERSISTENCE_CREATION_WAIT_TIME = Arrays.asList(1000, 2000, 5000, 10000, 30000,
 			60000);
 
+	// Number of entities requested per page when retrieving training data
+	private static final int PAGE_SIZE = 10000;
+	// Number of pages requested in parallel when retrieving training data
+	private static final int PARALLEL_PAGE_REQUESTS = 4;
+	// Number of user ranges per instance when building the slope one matrix on
+	// all instances. Smaller ranges stay within the read timeout and even out
+	// instances of different speed.
+	private static final int SLOPE_ONE_RANGES_PER_INSTANCE = 4;
+	// Timeout in ms for sending or retrieving a model snapshot, which may take
+	// much longer than the read timeout of the other requests
+	private static final int MODEL_TRANSFER_TIMEOUT = 120000;
+
 	private static TrainingSynchronizer instance;
 
-	private boolean isReady = false;
+	private volatile boolean isReady = false;
 
 	/**
 	 * @return the isReady
@@ -101,7 +143,7 @@ public final class TrainingSynchronizer {
 	 * The maximum considered time in milliseconds. DEFAULT_MAX_TIME_VALUE signals
 	 * no entry, e.g. all orders are used for training.
 	 */
-	private long maxTime = DEFAULT_MAX_TIME_VALUE;
+	private volatile long maxTime = DEFAULT_MAX_TIME_VALUE;
 
 	/**
 	 * @return the maxTime
@@ -126,6 +168,69 @@ public final class TrainingSynchronizer {
 		this.maxTime = maxTime;
 	}
 
+	/**
+	 * The file the trained models are written to after each training, or null if
+	 * snapshots are disabled.
+	 */
+	private Path snapshotFile = null;
+
+	/**
+	 * @return the snapshotFile, null if snapshots are disabled
+	 */
+	public Path getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	/**
+	 * @param snapshotFile
+	 *            the snapshotFile to set, null disables snapshots
+	 */
+	public void setSnapshotFile(Path snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Restores the recommender from the snapshot file, if one exists. A restored
+	 * recommender is ready to serve requests, but does not know the orders placed
+	 * after the snapshot was written. Therefore, a retraining should follow.
+	 *
+	 * @return True, if the recommender was restored; false, if snapshots are
+	 *         disabled or no valid snapshot exists.
+	 */
+	public boolean restoreSnapshot() {
+		if (snapshotFile == null || !Files.isRegularFile(snapshotFile)) {
+			return false;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			long snapshotTime = RecommenderSelector.getInstance().readSnapshot(snapshotFile);
+			// the maximum considered time is not restored, so the following retraining
+			// agrees on it with the other instances as usual
+			LOG.info("Restored recommender from snapshot " + snapshotFile + " with orders until " + snapshotTime
+					+ " in " + (System.currentTimeMillis() - start) + "ms.");
+			setReady(true);
+			return true;
+		} catch (IOException e) {
+			LOG.warn("Could not restore recommender from snapshot " + snapshotFile + ". Reason: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private synchronized void writeSnapshot() {
+		if (snapshotFile == null) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			RecommenderSelector.getInstance().writeSnapshot(snapshotFile, maxTime);
+			long time = System.currentTimeMillis() - start;
+			RecommenderMetrics.getInstance().recordPhase("writeSnapshot", time);
+			LOG.info("Wrote recommender snapshot " + snapshotFile + " in " + time + "ms.");
+		} catch (IOException e) {
+			LOG.warn("Could not write recommender snapshot " + snapshotFile + ". Reason: " + e.getMessage());
+		}
+	}
+
 	private void waitForPersistence() {
 		// We have to wait for the database that all entries are created before
 		// generating images (which queries persistence). Yes we want to wait forever in
@@ -166,55 +271,612 @@ public final class TrainingSynchronizer {
 
 	/**
 	 * Connects via REST to the database and retrieves all {@link OrderItem}s and
-	 * all {@link Order}s. Then, it triggers the training of the recommender.
+	 * all {@link Order}s. Then, it triggers the training of the recommender. The
+	 * previously trained recommender keeps serving requests until the new one is
+	 * swapped in, so readiness is not revoked during a retraining.
 	 *
 	 * @return The number of elements retrieved from the database or -1 if the
 	 *         process failed.
 	 */
 	public long retrieveDataAndRetrain() {
-		setReady(false);
 		LOG.trace("Retrieving data objects from database...");
 
 		waitForPersistence();
 
-		List<OrderItem> items = null;
-		List<Order> orders = null;
+		// agree on the maximum considered time first, so each page can be filtered
+		// as soon as it arrives
+		retrieveMaxTime();
+		long filterTime = maxTime;
+		List<Order> orders = new ArrayList<>();
+		Set<Long> orderIds = new HashSet<>();
+		List<OrderItem> items = new ArrayList<>();
+		RecommenderMetrics metrics = RecommenderMetrics.getInstance();
+		long start = System.currentTimeMillis();
 		// retrieve
 		try {
-			items = LoadBalancedCRUDOperations.getEntities(Service.PERSISTENCE, "orderitems", OrderItem.class, -1, -1);
-			long noItems = items.size();
-			LOG.trace("Retrieved " + noItems + " orderItems, starting retrieving of orders now.");
+			retrievePages("orders", Order.class, null, page -> {
+				for (Order or : page) {
+					// ignore newer entries
+					if (filterTime == DEFAULT_MAX_TIME_VALUE || toMillis(or.getTime()) <= filterTime) {
+						orders.add(or);
+						orderIds.add(or.getId());
+					}
+				}
+			});
+			long ordersTime = System.currentTimeMillis();
+			metrics.recordPhase("retrieveOrders", ordersTime - start);
+			LOG.trace("Retrieved " + orders.size() + " orders, starting retrieving of orderItems now.");
+			// items of orders placed since the orders were retrieved are ignored as well
+			retrievePages("orderitems", OrderItem.class, null, page -> {
+				for (OrderItem orderItem : page) {
+					if (orderIds.contains(orderItem.getOrderId())) {
+						items.add(orderItem);
+					}
+				}
+			});
+			metrics.recordPhase("retrieveOrderItems", System.currentTimeMillis() - ordersTime);
+			LOG.trace("Retrieved " + items.size() + " orderItems, starting training now.");
 		} catch (NotFoundException | LoadBalancerTimeoutException e) {
 			// set ready anyway to avoid deadlocks
 			setReady(true);
 			LOG.error("Database retrieving failed.");
 			return -1;
 		}
-		try {
-			orders = LoadBalancedCRUDOperations.getEntities(Service.PERSISTENCE, "orders", Order.class, -1, -1);
-			long noOrders = orders.size();
-			LOG.trace("Retrieved " + noOrders + " orders, starting training now.");
-		} catch (NotFoundException | LoadBalancerTimeoutException e) {
-			// set ready anyway to avoid deadlocks
-			setReady(true);
-			LOG.error("Database retrieving failed.");
-			return -1;
+		if (maxTime == DEFAULT_MAX_TIME_VALUE) {
+			// we are the only known service
+			// therefore we find max and set it
+			for (Order or : orders) {
+				maxTime = Math.max(maxTime, toMillis(or.getTime()));
+			}
 		}
-		// filter lists
-		filterLists(items, orders);
 		// train instance
+		long trainStart = System.currentTimeMillis();
 		RecommenderSelector.getInstance().train(items, orders);
+		metrics.recordPhase("train", System.currentTimeMillis() - trainStart);
 		LOG.trace("Finished training, ready for recommendation.");
 		setReady(true);
+		writeSnapshot();
 		return items.size() + orders.size();
 	}
 
-	private void filterLists(List<OrderItem> orderItems, List<Order> orders) {
-		// since we are not registered ourselves, we can multicast to all services
-		List<Response> maxTimeResponses = ServiceLoadBalancer.multicastRESTOperation(Service.RECOMMENDER,
-				"train/timestamp", Response.class,
+	/**
+	 * Connects via REST to the database and retrieves only the {@link Order}s
+	 * placed since the last training, together with their {@link OrderItem}s.
+	 * They are then folded into the trained recommender. Unlike
+	 * {@link #retrieveDataAndRetrain()}, this advances the maximum considered
+	 * time to the newest retrieved order. Falls back to
+	 * {@link #retrieveDataAndRetrain()} if no training has happened yet.
+	 *
+	 * @return The number of new elements used for the update or -1 if the process
+	 *         failed.
+	 */
+	public long retrieveDataAndUpdate() {
+		long previousMaxTime = maxTime;
+		if (previousMaxTime == DEFAULT_MAX_TIME_VALUE) {
+			return retrieveDataAndRetrain();
+		}
+		LOG.trace("Retrieving data objects for update from database...");
+
+		waitForPersistence();
+
+		List<Order> newOrders = new ArrayList<>();
+		Set<Long> newOrderIds = new HashSet<>();
+		List<OrderItem> newItems = new ArrayList<>();
+		// orders with the previous maximum time might not have been known at the last
+		// training, known ones are skipped by the recommender
+		String since = toDate(previousMaxTime - 1);
+		long start = System.currentTimeMillis();
+		try {
+			retrievePages("orders", Order.class, since, page -> {
+				for (Order or : page) {
+					newOrders.add(or);
+					newOrderIds.add(or.getId());
+				}
+			});
+			retrievePages("orderitems", OrderItem.class, since, page -> {
+				for (OrderItem orderItem : page) {
+					// orders placed in between are retrieved with the next update
+					if (newOrderIds.contains(orderItem.getOrderId())) {
+						newItems.add(orderItem);
+					}
+				}
+			});
+		} catch (NotFoundException | LoadBalancerTimeoutException e) {
+			LOG.error("Database retrieving failed.");
+			return -1;
+		}
+		long newMaxTime = previousMaxTime;
+		for (Order or : newOrders) {
+			newMaxTime = Math.max(newMaxTime, toMillis(or.getTime()));
+		}
+		long updateStart = System.currentTimeMillis();
+		RecommenderMetrics.getInstance().recordPhase("retrieveNewOrders", updateStart - start);
+		LOG.trace("Retrieved " + newOrders.size() + " new orders, starting update now.");
+		RecommenderSelector.getInstance().update(newItems, newOrders);
+		RecommenderMetrics.getInstance().recordPhase("update", System.currentTimeMillis() - updateStart);
+		maxTime = newMaxTime;
+		LOG.trace("Finished update, ready for recommendation.");
+		if (!newOrders.isEmpty()) {
+			writeSnapshot();
+		}
+		return newItems.size() + newOrders.size();
+	}
+
+	/**
+	 * Asks the persistence how many orders were placed after the maximum
+	 * considered time. Only the count is transferred, so this is cheap enough to
+	 * be checked frequently.
+	 *
+	 * @return The number of new orders, all orders if no training has happened
+	 *         yet, or -1 if the persistence could not be asked.
+	 */
+	public long countNewOrders() {
+		String since = maxTime == DEFAULT_MAX_TIME_VALUE ? "" : toDate(maxTime);
+		Response result = null;
+		try {
+			result = ServiceLoadBalancer.loadBalanceRESTOperation(Service.PERSISTENCE, "orders", Order.class,
+					client -> client.getService().path(client.getApplicationURI()).path(client.getEndpointURI())
+							.path("count").queryParam("since", since).request(MediaType.APPLICATION_JSON).get());
+			if (result != null && result.getStatus() == Response.Status.OK.getStatusCode()) {
+				return result.readEntity(Long.class);
+			}
+		} catch (NullPointerException | NotFoundException | LoadBalancerTimeoutException e) {
+			// the count is unknown
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+		}
+		LOG.warn("Could not count the new orders.");
+		return -1;
+	}
+
+	/**
+	 * Checks, if this instance is the elected leader of all registered recommender
+	 * instances, i.e., the instance with the lowest address. Only the leader
+	 * retrieves new orders and retrains, the other instances receive its model.
+	 * Every instance elects the same leader without further communication, and a
+	 * new leader takes over as soon as the previous one unregisters.
+	 *
+	 * @return True, if this instance is the leader; false, if another instance is
+	 *         or this instance is not registered yet.
+	 */
+	public boolean isLeader() {
+		Server myServer = RegistryClient.getClient().getMyServiceInstanceServer();
+		if (myServer == null) {
+			return false;
+		}
+		List<Server> servers = RegistryClient.getClient().getServersForService(Service.RECOMMENDER);
+		if (servers == null) {
+			// registry not reachable, keep this instance up to date on its own
+			return true;
+		}
+		for (Server server : servers) {
+			if (server.getId().compareTo(myServer.getId()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks, if the given instance is the elected leader of all registered
+	 * recommender instances, see {@link #isLeader()}.
+	 *
+	 * @param serverId
+	 *            The ID of the instance, i.e., its host and port.
+	 * @return True, if the instance is registered and the leader; false
+	 *         otherwise, also if the registry is not reachable.
+	 */
+	public boolean isLeader(String serverId) {
+		List<Server> servers = RegistryClient.getClient().getServersForService(Service.RECOMMENDER);
+		if (serverId == null || servers == null) {
+			return false;
+		}
+		boolean registered = false;
+		for (Server server : servers) {
+			if (server.getId().compareTo(serverId) < 0) {
+				return false;
+			}
+			registered |= server.getId().equals(serverId);
+		}
+		Server myServer = RegistryClient.getClient().getMyServiceInstanceServer();
+		return registered && (myServer == null || myServer.getId().compareTo(serverId) >= 0);
+	}
+
+	/**
+	 * Serializes the trained models and the maximum considered time as snapshot.
+	 *
+	 * @return The snapshot or null if no trained model is available.
+	 */
+	public byte[] getModelSnapshot() {
+		long snapshotTime = maxTime;
+		if (!isReady() || snapshotTime == DEFAULT_MAX_TIME_VALUE) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			RecommenderSelector.getInstance().writeSnapshot(Channels.newChannel(out), snapshotTime);
+			return out.toByteArray();
+		} catch (IOException e) {
+			LOG.warn("Could not serialize the trained model. Reason: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Publishes a snapshot received from another instance, as if this instance
+	 * had trained it itself. The maximum considered time is taken from the
+	 * snapshot, so a later update continues where the other instance stopped. A
+	 * snapshot of older orders than the published model, e.g., sent by a former
+	 * leader that is still retraining, is ignored.
+	 *
+	 * @param snapshot
+	 *            The snapshot written by {@link #getModelSnapshot()}.
+	 * @return True, if the model was published; false, if the snapshot is older
+	 *         than the published model, does not fit the configured algorithms or
+	 *         is corrupt.
+	 */
+	public synchronized boolean receiveModel(byte[] snapshot) {
+		try {
+			long start = System.currentTimeMillis();
+			long snapshotTime = RecommenderSelector.readSnapshotMaxTime(ByteBuffer.wrap(snapshot));
+			if (snapshotTime < maxTime) {
+				LOG.warn("Ignored received model with orders until " + snapshotTime
+						+ ", as the published model considers orders until " + maxTime + ".");
+				return false;
+			}
+			maxTime = RecommenderSelector.getInstance().readSnapshot(ByteBuffer.wrap(snapshot));
+			long time = System.currentTimeMillis() - start;
+			RecommenderMetrics.getInstance().recordPhase("receiveModel", time);
+			LOG.info("Received model with orders until " + maxTime + " in " + time + "ms.");
+		} catch (IOException e) {
+			LOG.warn("Could not load received model. Reason: " + e.getMessage());
+			return false;
+		}
+		setReady(true);
+		writeSnapshot();
+		return true;
+	}
+
+	/**
+	 * Sends the trained model to all other registered recommender instances, so
+	 * they do not have to retrieve the orders and train themselves.
+	 *
+	 * @return The number of instances that accepted the model.
+	 */
+	public int publishModel() {
+		byte[] snapshot = getModelSnapshot();
+		Server myServer = RegistryClient.getClient().getMyServiceInstanceServer();
+		if (snapshot == null || myServer == null) {
+			return 0;
+		}
+		// the receivers only accept models of the leader
+		List<Response> responses = ServiceLoadBalancer.multicastRESTToOtherServiceInstances("train", String.class,
+				client -> withTransferTimeout(client.getService().path(client.getApplicationURI())
+						.path(client.getEndpointURI()).path("model").queryParam("sender", myServer.getId())
+						.request(MediaType.TEXT_PLAIN))
+						.post(Entity.entity(snapshot, MediaType.APPLICATION_OCTET_STREAM)));
+		int accepted = 0;
+		for (Response response : responses) {
+			if (response != null) {
+				if (response.getStatus() == Response.Status.OK.getStatusCode()) {
+					accepted++;
+				}
+				response.close();
+			}
+		}
+		LOG.info("Published model of " + snapshot.length + " bytes to " + accepted + " of " + responses.size()
+				+ " other instances.");
+		return accepted;
+	}
+
+	/**
+	 * Retrieves the trained model from another recommender instance instead of
+	 * retrieving all orders from the database. This instance is not asked, also
+	 * if it registered already to serve a restored snapshot.
+	 *
+	 * @return True, if a model was received; false, if no other instance has a
+	 *         trained model.
+	 */
+	public boolean retrieveModel() {
+		AtomicBoolean received = new AtomicBoolean();
+		// the instances are asked one after another, so only one model is transferred
+		multicastToOtherInstances(client -> {
+			synchronized (received) {
+				if (!received.get()) {
+					received.set(retrieveModel(client));
+				}
+			}
+			return null;
+		});
+		return received.get();
+	}
+
+	private boolean retrieveModel(RESTClient<String> client) {
+		Response result = null;
+		try {
+			result = withTransferTimeout(client.getService().path(client.getApplicationURI())
+					.path(client.getEndpointURI()).path("model").request(MediaType.APPLICATION_OCTET_STREAM)).get();
+			if (result.getStatus() == Response.Status.OK.getStatusCode()) {
+				return receiveModel(result.readEntity(byte[].class));
+			}
+		} catch (ProcessingException e) {
+			// instance not reachable, ask the next one
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sends a multicast to all registered recommender instances except for this
+	 * one. Before this instance registers, these are all registered instances.
+	 *
+	 * @param operation
+	 *            The operation on the train endpoint of an instance.
+	 * @return List of all responses. Contains null for each unreachable instance.
+	 */
+	private static <R> List<R> multicastToOtherInstances(Function<RESTClient<String>, R> operation) {
+		if (RegistryClient.getClient().getMyServiceInstanceServer() == null) {
+			return ServiceLoadBalancer.multicastRESTOperation(Service.RECOMMENDER, "train", String.class, operation);
+		}
+		return ServiceLoadBalancer.multicastRESTToOtherServiceInstances("train", String.class, operation);
+	}
+
+	/**
+	 * Replaces the read timeout of all REST clients with
+	 * {@link #MODEL_TRANSFER_TIMEOUT} for one request.
+	 */
+	private static Invocation.Builder withTransferTimeout(Invocation.Builder request) {
+		return GrizzlyConnectorProvider.register(request,
+				(clientRequest, requestBuilder) -> requestBuilder.setRequestTimeout(MODEL_TRANSFER_TIMEOUT));
+	}
+
+	/**
+	 * Calculates the slope one differences matrix of all users together with the
+	 * other registered recommender instances. The users are split into
+	 * {@link #SLOPE_ONE_RANGES_PER_INSTANCE} ranges of about equal cost per
+	 * instance. All instances take ranges until none is left: the other
+	 * instances calculate the partial matrices of their ranges with
+	 * {@link #buildSlopeOneShard(byte[])}, while this instance calculates ranges
+	 * itself. Ranges another instance did not answer, e.g., because it exceeded
+	 * the read timeout, are calculated here afterwards. The partial matrices are
+	 * added up, so the result equals the matrix calculated by a single instance.
+	 *
+	 * @param matrix
+	 *            The user item matrix.
+	 * @return The differences matrix of all users.
+	 */
+	public SlopeOneMatrix buildSlopeOneMatrix(UserItemMatrix matrix) {
+		List<Server> servers = RegistryClient.getClient().getServersForService(Service.RECOMMENDER);
+		Server myServer = RegistryClient.getClient().getMyServiceInstanceServer();
+		int instances = 1;
+		if (servers != null) {
+			for (Server server : servers) {
+				if (!server.equals(myServer)) {
+					instances++;
+				}
+			}
+		}
+		int ranges = Math.min(instances * SLOPE_ONE_RANGES_PER_INSTANCE, matrix.getUsers());
+		if (instances == 1 || ranges <= 1) {
+			return SlopeOneMatrix.build(matrix);
+		}
+		long start = System.currentTimeMillis();
+		int[] bounds = SlopeOneMatrix.partitionUsers(matrix, ranges);
+		SlopeOneMatrix[] partials = new SlopeOneMatrix[ranges];
+		Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+		for (int range = 0; range < ranges; range++) {
+			pending.add(range);
+		}
+		int remote = 0;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<List<Integer>> responses = executor.submit(() -> ServiceLoadBalancer
+					.multicastRESTToOtherServiceInstances("train", String.class,
+							client -> buildSlopeOneShards(client, matrix, bounds, pending, partials)));
+			Integer range;
+			while ((range = pending.poll()) != null) {
+				partials[range] = SlopeOneMatrix.build(matrix, bounds[range], bounds[range + 1]);
+			}
+			for (Integer built : responses.get()) {
+				if (built != null) {
+					remote += built;
+				}
+			}
+		} catch (ExecutionException e) {
+			LOG.warn("Could not distribute the slope one training. Reason: " + e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		SlopeOneMatrix sum = null;
+		for (int range = 0; range < ranges; range++) {
+			// ranges that failed or were corrupt on other instances
+			if (partials[range] == null) {
+				partials[range] = SlopeOneMatrix.build(matrix, bounds[range], bounds[range + 1]);
+			}
+			sum = sum == null ? partials[range] : sum.add(partials[range]);
+			// only keep the sum on the heap
+			partials[range] = null;
+		}
+		long time = System.currentTimeMillis() - start;
+		RecommenderMetrics.getInstance().recordPhase("buildSlopeOneMatrix", time);
+		LOG.info("Built slope one matrix of " + matrix.getUsers() + " users in " + ranges + " ranges, " + remote
+				+ " of them on other instances, in " + time + "ms.");
+		return sum;
+	}
+
+	/**
+	 * Sends pending ranges to another instance until none is left or the
+	 * instance fails. A failed range is calculated locally afterwards.
+	 *
+	 * @return The number of ranges the instance calculated.
+	 */
+	private static int buildSlopeOneShards(RESTClient<String> client, UserItemMatrix matrix, int[] bounds,
+			Queue<Integer> pending, SlopeOneMatrix[] partials) {
+		int built = 0;
+		Integer range;
+		while ((range = pending.poll()) != null) {
+			SlopeOneMatrix partial = buildSlopeOneShard(client, matrix, bounds[range], bounds[range + 1]);
+			if (partial == null) {
+				// not handed to another instance, which might fail the same way
+				return built;
+			}
+			partials[range] = partial;
+			built++;
+		}
+		return built;
+	}
+
+	private static SlopeOneMatrix buildSlopeOneShard(RESTClient<String> client, UserItemMatrix matrix, int fromUser,
+			int toUser) {
+		Response response = null;
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(out));
+			SlopeOneMatrix.writeUserRows(writer, matrix, fromUser, toUser);
+			writer.flush();
+			response = client.getService().path(client.getApplicationURI()).path(client.getEndpointURI())
+					.path("slopeone").request(MediaType.APPLICATION_OCTET_STREAM)
+					.post(Entity.entity(out.toByteArray(), MediaType.APPLICATION_OCTET_STREAM));
+			if (response.getStatus() == Response.Status.OK.getStatusCode()) {
+				return SlopeOneMatrix.readPartial(
+						new ModelSnapshotReader(ByteBuffer.wrap(response.readEntity(byte[].class))),
+						matrix.getProductIndex().size(), toUser - fromUser);
+			}
+			LOG.warn("Instance " + client.getService().getUri() + " could not build a slope one range.");
+		} catch (IOException | RuntimeException e) {
+			// a corrupt range is calculated locally
+			LOG.warn("Could not build a slope one range on instance " + client.getService().getUri() + ". Reason: "
+					+ e.getMessage());
+		} finally {
+			if (response != null) {
+				response.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Calculates the partial slope one differences matrix of a range of users
+	 * sent by the instance that trains the model, see
+	 * {@link #buildSlopeOneMatrix(UserItemMatrix)}. Does not depend on the model
+	 * of this instance.
+	 *
+	 * @param userRows
+	 *            The rows written by
+	 *            {@link SlopeOneMatrix#writeUserRows(ModelSnapshotWriter, UserItemMatrix, int, int)}.
+	 * @return The partial matrix written by
+	 *         {@link SlopeOneMatrix#write(ModelSnapshotWriter)}.
+	 * @throws IOException
+	 *             If the rows are corrupt.
+	 */
+	public byte[] buildSlopeOneShard(byte[] userRows) throws IOException {
+		long start = System.currentTimeMillis();
+		SlopeOneMatrix partial = SlopeOneMatrix.build(new ModelSnapshotReader(ByteBuffer.wrap(userRows)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(out));
+		partial.write(writer);
+		writer.flush();
+		RecommenderMetrics.getInstance().recordPhase("buildSlopeOneShard", System.currentTimeMillis() - start);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Retrieves all entities of the given endpoint in pages of {@link #PAGE_SIZE}
+	 * entities. Up to {@link #PARALLEL_PAGE_REQUESTS} pages are requested at once,
+	 * which the load balancer spreads across the persistence instances. The pages
+	 * are passed to the consumer in order, on the calling thread, so only the
+	 * entities kept by the consumer stay on the heap.
+	 *
+	 * @param endpoint
+	 *            The persistence endpoint, e.g., "orders".
+	 * @param entityClass
+	 *            The class of the entities.
+	 * @param since
+	 *            Only retrieve the entities of orders placed after this time, or
+	 *            null to retrieve all entities.
+	 * @param consumer
+	 *            Receives each page.
+	 * @param <T>
+	 *            Type of entity to retrieve.
+	 * @throws NotFoundException
+	 *             If a page was not found.
+	 * @throws LoadBalancerTimeoutException
+	 *             If a page could not be retrieved.
+	 */
+	private <T> void retrievePages(String endpoint, Class<T> entityClass, String since,
+			Consumer<List<T>> consumer) {
+		ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_PAGE_REQUESTS);
+		try {
+			int nextPage = 0;
+			boolean finished = false;
+			while (!finished) {
+				List<Future<List<T>>> pages = new ArrayList<>(PARALLEL_PAGE_REQUESTS);
+				for (int i = 0; i < PARALLEL_PAGE_REQUESTS; i++) {
+					int startIndex = nextPage++ * PAGE_SIZE;
+					pages.add(executor.submit(() -> since == null
+							? LoadBalancedCRUDOperations.getEntities(Service.PERSISTENCE, endpoint, entityClass,
+									startIndex, PAGE_SIZE)
+							: getEntitiesSince(endpoint, entityClass, since, startIndex)));
+				}
+				for (Future<List<T>> future : pages) {
+					List<T> page = getPage(future);
+					if (!finished) {
+						consumer.accept(page);
+					}
+					// a short page is the last one
+					finished |= page.size() < PAGE_SIZE;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static <T> List<T> getEntitiesSince(String endpoint, Class<T> entityClass, String since,
+			int startIndex) {
+		return ServiceLoadBalancer.loadBalanceRESTOperation(Service.PERSISTENCE, endpoint, entityClass, client -> {
+			Response response = client.getEndpointTarget().path("new").queryParam("since", since)
+					.queryParam("start", startIndex).queryParam("max", PAGE_SIZE).request(MediaType.APPLICATION_JSON)
+					.get();
+			try {
+				if (response.getStatus() == Response.Status.OK.getStatusCode()) {
+					return response.readEntity(client.getGenericListType());
+				}
+				// reported as not found by the load balancer
+				return null;
+			} finally {
+				response.close();
+			}
+		});
+	}
+
+	private static <T> List<T> getPage(Future<List<T>> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LoadBalancerTimeoutException("Interrupted while retrieving a page.", Service.PERSISTENCE);
+		}
+	}
+
+	private void retrieveMaxTime() {
+		// an instance serving a restored snapshot is registered already, but must
+		// not agree with its own timestamp
+		List<Response> maxTimeResponses = multicastToOtherInstances(
 				client -> client.getService().path(client.getApplicationURI()).path(client.getEndpointURI())
-						.request(MediaType.TEXT_PLAIN).accept(MediaType.TEXT_PLAIN).get());
+						.path("timestamp").request(MediaType.TEXT_PLAIN).accept(MediaType.TEXT_PLAIN).get());
 		for (Response response : maxTimeResponses) {
 			if (response == null) {
 				LOG.warn("One service response was null and is therefore not available for time-check.");
@@ -232,39 +894,11 @@ public final class TrainingSynchronizer {
 				LOG.warn("Service " + response + "was not available for time-check.");
 			}
 		}
-		if (maxTime == Long.MIN_VALUE) {
-			// we are the only known service
-			// therefore we find max and set it
-			for (Order or : orders) {
-				maxTime = Math.max(maxTime, toMillis(or.getTime()));
-			}
-		}
-		filterForMaxtimeStamp(orderItems, orders);
 	}
 
-	private void filterForMaxtimeStamp(List<OrderItem> orderItems, List<Order> orders) {
-		// filter orderItems and orders and ignore newer entries.
-		List<Order> remove = new ArrayList<>();
-		for (Order or : orders) {
-			if (toMillis(or.getTime()) > maxTime) {
-				remove.add(or);
-			}
-		}
-		orders.removeAll(remove);
-
-		List<OrderItem> removeItems = new ArrayList<>();
-		for (OrderItem orderItem : orderItems) {
-			boolean contained = false;
-			for (Order or : orders) {
-				if (or.getId() == orderItem.getOrderId()) {
-					contained = true;
-				}
-			}
-			if (!contained) {
-				removeItems.add(orderItem);
-			}
-		}
-		orderItems.removeAll(removeItems);
+	private String toDate(long millis) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())
+				.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
 	}
 
 	private long toMillis(String date) {
@@ -13,8 +13,15 @@
  */
 package tools.descartes.teastore.recommender.algorithm;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -309,6 +316,78 @@ public abstract class AbstractRecommenderTest {
 		testMultiResults();
 	}
 
+	/**
+	 * Test that training with the first orders and updating with the remaining
+	 * ones gives the same results as training with all orders.
+	 */
+	@Test
+	public void testUpdate() {
+		trainWithFirstOrders();
+		// already known orders must be ignored
+		getAlgo().update(getTrainOrderItems(), getTrainOrders());
+		testSingleResults();
+		testMultiResults();
+	}
+
+	/**
+	 * Test that updating a copy of a trained recommender leaves the original
+	 * untouched.
+	 */
+	@Test
+	public void testUpdateCopy() {
+		trainWithFirstOrders();
+		Map<Long, Map<Long, Double>> matrix = new HashMap<>();
+		for (Map.Entry<Long, Map<Long, Double>> row : getAlgo().getUserBuyingMatrix().entrySet()) {
+			matrix.put(row.getKey(), new HashMap<>(row.getValue()));
+		}
+		AbstractRecommender copy = getAlgo().clone();
+		copy.update(getTrainOrderItems(), getTrainOrders());
+		Assert.assertEquals(matrix, getAlgo().getUserBuyingMatrix());
+		setAlgo(copy);
+		testSingleResults();
+		testMultiResults();
+	}
+
+	/**
+	 * Test that a recommender restored from a snapshot gives the same results as
+	 * the trained one.
+	 * 
+	 * @throws IOException
+	 *             If the snapshot cannot be written or read.
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+		getAlgo().train(getTrainOrderItems(), getTrainOrders());
+		Path file = Files.createTempFile("recommender", ".snapshot");
+		try {
+			try (ModelSnapshotWriter writer = new ModelSnapshotWriter(
+					FileChannel.open(file, StandardOpenOption.WRITE))) {
+				getAlgo().writeOrderHistory(writer);
+				getAlgo().writeModel(writer);
+			}
+			Map<Long, Map<Long, Double>> matrix = getAlgo().getUserBuyingMatrix();
+			setupAlgo();
+			ModelSnapshotReader reader = ModelSnapshotReader.map(file);
+			getAlgo().restore(AbstractRecommender.readOrderHistory(reader), reader);
+			Assert.assertEquals(matrix, getAlgo().getUserBuyingMatrix());
+			testSingleResults();
+			testMultiResults();
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private void trainWithFirstOrders() {
+		List<Order> firstOrders = new ArrayList<>(getTrainOrders().subList(0, 4));
+		List<OrderItem> firstItems = new ArrayList<>();
+		for (OrderItem item : getTrainOrderItems()) {
+			if (item.getOrderId() <= firstOrders.get(firstOrders.size() - 1).getId()) {
+				firstItems.add(item);
+			}
+		}
+		getAlgo().train(firstItems, firstOrders);
+	}
+
 	/**
 	 * Test the results of the single recommender interface.
 	 */
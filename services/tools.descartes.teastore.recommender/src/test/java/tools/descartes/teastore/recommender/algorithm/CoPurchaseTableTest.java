@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.CoOccurrenceMatrix;
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender;
+
+/**
+ * Test for the {@link CoPurchaseTable}.
+ */
+public class CoPurchaseTableTest {
+
+	private static final int PRODUCTS = 200;
+
+	/**
+	 * The table recommends the same products as the {@link OrderBasedRecommender}:
+	 * exactly for single products, even if the rows are truncated, and for
+	 * larger carts as long as the rows are complete.
+	 */
+	@Test
+	public void testOrderBasedEquivalence() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(100, PRODUCTS, 500);
+		OrderBasedRecommender orderBased = new OrderBasedRecommender();
+		orderBased.train(generator.getOrderItems(), generator.getOrders());
+		CoPurchaseTable truncated = CoPurchaseTable.build(orderBased.getUserItemMatrix(),
+				AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS);
+		CoPurchaseTable complete = CoPurchaseTable.build(orderBased.getUserItemMatrix(), PRODUCTS);
+		for (long product : orderBased.getTotalProducts()) {
+			Assert.assertEquals(orderBased.recommendProducts(null, cart(product)),
+					truncated.recommend(Collections.singletonList(product),
+							AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS));
+		}
+		for (int i = 0; i < 100; i++) {
+			List<OrderItem> cart = generator.generateCart();
+			List<Long> items = new ArrayList<>();
+			for (OrderItem item : cart) {
+				items.add(item.getProductId());
+			}
+			Assert.assertEquals(orderBased.recommendProducts(null, cart),
+					complete.recommend(items, AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS));
+		}
+	}
+
+	/**
+	 * A table and co-occurrences updated with new orders, including new
+	 * products, equal those built from all orders.
+	 */
+	@Test
+	public void testUpdate() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(100, PRODUCTS, 500);
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		UserItemMatrix matrix = AbstractRecommender.buildUserItemMatrix(items, orders.subList(0, orders.size() / 10));
+		OrderBasedRecommender orderBased = new OrderBasedRecommender();
+		orderBased.train(matrix);
+		UserItemMatrixUpdate update = UserItemMatrixUpdate.create(matrix, items, orders);
+		Assert.assertTrue(update.getMatrix().getProductIndex().size() > matrix.getProductIndex().size());
+		orderBased.update(update);
+		CoOccurrenceMatrix expectedCoOccurrences = CoOccurrenceMatrix.build(update.getMatrix());
+		CoOccurrenceMatrix coOccurrences = orderBased.getCoOccurrences();
+		Assert.assertEquals(expectedCoOccurrences.getEntries(), coOccurrences.getEntries());
+		for (int i = 0; i < update.getMatrix().getProductIndex().size(); i++) {
+			Assert.assertEquals(expectedCoOccurrences.getRowStart(i), coOccurrences.getRowStart(i));
+		}
+		for (int k = 0; k < expectedCoOccurrences.getEntries(); k++) {
+			Assert.assertEquals(expectedCoOccurrences.getColumn(k), coOccurrences.getColumn(k));
+			Assert.assertEquals(expectedCoOccurrences.getCount(k), coOccurrences.getCount(k));
+		}
+
+		int rowSize = AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS;
+		CoPurchaseTable expected = CoPurchaseTable.build(update.getMatrix(), rowSize);
+		CoPurchaseTable updated = CoPurchaseTable.build(matrix, rowSize).update(update);
+		CoPurchaseTable shared = CoPurchaseTable.build(matrix, rowSize).update(update, coOccurrences);
+		Assert.assertEquals(expected.getEntries(), updated.getEntries());
+		Assert.assertEquals(expected.getEntries(), shared.getEntries());
+		for (long product = 0; product <= PRODUCTS; product++) {
+			List<Long> cart = Collections.singletonList(product);
+			Assert.assertEquals(expected.recommend(cart, rowSize), updated.recommend(cart, rowSize));
+			Assert.assertEquals(expected.recommend(cart, rowSize), shared.recommend(cart, rowSize));
+		}
+	}
+
+	/**
+	 * Products that were never bought together with others yield no result.
+	 */
+	@Test
+	public void testUnknownProducts() {
+		OrderItemSet single = new OrderItemSet();
+		single.setUserId(1);
+		single.setOrderId(1);
+		single.getOrderset().put(1L, 1);
+		OrderItemSet pair = new OrderItemSet();
+		pair.setUserId(2);
+		pair.setOrderId(2);
+		pair.getOrderset().put(2L, 1);
+		pair.getOrderset().put(3L, 2);
+		CoPurchaseTable table = CoPurchaseTable.build(UserItemMatrix.build(Arrays.asList(single, pair)), 5);
+		Assert.assertEquals(2, table.getEntries());
+		Assert.assertNull(table.recommend(Arrays.asList(1L), 5));
+		Assert.assertNull(table.recommend(Arrays.asList(4L), 5));
+		Assert.assertNull(table.recommend(Arrays.asList(2L, 3L), 5));
+		Assert.assertEquals(Arrays.asList(3L), table.recommend(Arrays.asList(2L), 5));
+		Assert.assertEquals(Arrays.asList(2L), table.recommend(Arrays.asList(1L, 3L), 5));
+	}
+
+	private static List<OrderItem> cart(long product) {
+		OrderItem item = new OrderItem();
+		item.setProductId(product);
+		return Collections.singletonList(item);
+	}
+}
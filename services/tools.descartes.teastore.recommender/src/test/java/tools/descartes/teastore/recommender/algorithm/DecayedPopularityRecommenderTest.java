@@ -0,0 +1,150 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.DecayedPopularityRecommender;
+
+/**
+ * Test for the DecayedPopularityRecommender. The test orders have no time, so
+ * they count equally and the results match the PopularityBasedRecommender.
+ *
+ */
+public class DecayedPopularityRecommenderTest extends AbstractRecommenderFunctionalityTest {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	@Override
+	protected void setupAlgo() {
+		setAlgo(new DecayedPopularityRecommender(DAY));
+	}
+
+	@Override
+	public void testSingleResults() {
+		List<Long> expected = Arrays.asList(3L, 4L, 1L, 5L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(getAllUsers().get(0).getId(), getRecommendSingle()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(getAllUsers().get(2).getId(), getRecommendSingle()));
+	}
+
+	@Override
+	public void testMultiResults() {
+		List<Long> expected = Arrays.asList(2L, 4L, 1L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(getAllUsers().get(0).getId(), getRecommendMulti()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(getAllUsers().get(4).getId(), getRecommendMulti()));
+	}
+
+	/**
+	 * Product 1 was bought often a week ago, product 2 a few times today. With a
+	 * half-life of a day, product 2 is more popular; without decay, product 1.
+	 * Updating with the orders one by one gives the same weights as training on
+	 * all of them, also when the landmark has to be moved.
+	 */
+	@Test
+	public void testDecay() {
+		List<Order> orders = new ArrayList<>();
+		List<OrderItem> items = new ArrayList<>();
+		addOrder(orders, items, 1, "2020-01-01T12:00:00", 1, 20);
+		addOrder(orders, items, 2, "2020-01-08T12:00:00", 2, 2);
+		addOrder(orders, items, 3, "2020-01-08T13:00:00", 2, 1);
+		addOrder(orders, items, 4, "2020-01-08T13:00:00", 3, 1);
+
+		DecayedPopularityRecommender decayed = new DecayedPopularityRecommender(DAY);
+		decayed.train(items, orders);
+		Assert.assertEquals(Arrays.asList(2L, 3L, 1L), decayed.recommendProducts(100L, cart()));
+		Assert.assertEquals(20 * Math.pow(2, -7 - 1 / 24.0), decayed.getWeight(1), 1e-9);
+		DecayedPopularityRecommender allTime = new DecayedPopularityRecommender(0);
+		allTime.train(items, orders);
+		Assert.assertEquals(Arrays.asList(1L, 2L, 3L), allTime.recommendProducts(100L, cart()));
+
+		// more than 64 half-lives later
+		addOrder(orders, items, 5, "2020-06-01T12:00:00", 3, 1);
+		DecayedPopularityRecommender updated = new DecayedPopularityRecommender(DAY);
+		updated.train(items.subList(0, 1), orders.subList(0, 1));
+		for (int i = 1; i < orders.size(); i++) {
+			updated.update(items.subList(0, i + 1), orders.subList(0, i + 1));
+		}
+		decayed.train(items, orders);
+		Assert.assertEquals(Arrays.asList(3L, 2L, 1L), updated.recommendProducts(100L, cart()));
+		Assert.assertEquals(decayed.recommendProducts(100L, cart()),
+				updated.recommendProducts(100L, cart()));
+		for (long product = 1; product <= 3; product++) {
+			Assert.assertFalse(Double.isInfinite(updated.getWeight(product)));
+			Assert.assertEquals(decayed.getWeight(product), updated.getWeight(product),
+					1e-9 * decayed.getWeight(product));
+		}
+	}
+
+	/**
+	 * The ranking kept after several updates recommends the most popular
+	 * products by weight, also for carts covering the whole ranking.
+	 */
+	@Test
+	public void testBoundedRanking() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(100, 300, 1000);
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		DecayedPopularityRecommender updated = new DecayedPopularityRecommender(365 * DAY);
+		updated.train(items, orders.subList(0, 100));
+		for (int end = 300; end <= orders.size(); end += 300) {
+			updated.update(items, orders.subList(0, Math.min(end, orders.size())));
+		}
+		updated.update(items, orders);
+		List<Long> byWeight = LongStream.rangeClosed(1, 300).boxed()
+				.sorted(Comparator.comparingDouble((Long product) -> -updated.getWeight(product))
+						.thenComparing(Comparator.naturalOrder()))
+				.collect(Collectors.toList());
+		for (int covered : new int[] { 1, 3, 4 * AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS - 2, 100 }) {
+			List<OrderItem> cart = new ArrayList<>();
+			for (Long product : byWeight.subList(0, covered)) {
+				OrderItem item = new OrderItem();
+				item.setProductId(product);
+				cart.add(item);
+			}
+			Assert.assertEquals(byWeight.subList(covered, covered + AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS),
+					updated.recommendProducts(100L, cart));
+		}
+	}
+
+	private static List<OrderItem> cart() {
+		OrderItem item = new OrderItem();
+		item.setProductId(9);
+		return Arrays.asList(item);
+	}
+
+	private static void addOrder(List<Order> orders, List<OrderItem> items, long id, String time, long product,
+			int quantity) {
+		Order order = new Order();
+		order.setId(id);
+		order.setUserId(100 + id);
+		order.setTime(time);
+		orders.add(order);
+		OrderItem item = new OrderItem();
+		item.setId(id);
+		item.setOrderId(id);
+		item.setProductId(product);
+		item.setQuantity(quantity);
+		items.add(item);
+	}
+}
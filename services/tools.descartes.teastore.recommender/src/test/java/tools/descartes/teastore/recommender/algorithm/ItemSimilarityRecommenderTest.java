@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.algorithm.impl.similarity.ItemSimilarityRecommender;
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * Test for the ItemSimilarityRecommender.
+ *
+ */
+public class ItemSimilarityRecommenderTest extends AbstractRecommenderFunctionalityTest {
+
+	@Override
+	protected void setupAlgo() {
+		setAlgo(new ItemSimilarityRecommender());
+	}
+
+	/**
+	 * Buyers: 1 = {100, 103}; 2 = {100, 101, 104, 105}; 3 = {100, 103, 105, 106};
+	 * 4 = {101, 103, 105}; 5 = {105}. Similarities of 2: 4 = 2/sqrt(12), 3 = 5 =
+	 * 2/4, 1 = 1/sqrt(8).
+	 */
+	@Override
+	public void testSingleResults() {
+		List<Long> expected = Arrays.asList(4L, 3L, 5L, 1L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(100L, getRecommendSingle()));
+		// the user does not matter
+		Assert.assertEquals(expected, getAlgo().recommendProducts(102L, getRecommendSingle()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(null, getRecommendSingle()));
+
+		// similarities of 1: 3 = 2/sqrt(8), 4 = 1/sqrt(6), 2 = 1/sqrt(8)
+		List<OrderItem> recommend = new ArrayList<>();
+		OrderItem o = new OrderItem();
+		o.setProductId(1);
+		recommend.add(o);
+		Assert.assertEquals(Arrays.asList(3L, 4L, 2L), getAlgo().recommendProducts(100L, recommend));
+
+		recommend = new ArrayList<>();
+		o = new OrderItem();
+		o.setProductId(6);
+		recommend.add(o);
+		try {
+			getAlgo().recommendProducts(100L, recommend);
+			Assert.fail("Exception expected");
+		} catch (UseFallBackException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Cart {3, 5, 6}: 4 = 2/sqrt(12) + 1/sqrt(3), 2 = 2/4 + 1/2, 1 = 2/sqrt(8).
+	 */
+	@Override
+	public void testMultiResults() {
+		List<Long> expected = Arrays.asList(4L, 2L, 1L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(100L, getRecommendMulti()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(101L, getRecommendMulti()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(null, getRecommendMulti()));
+	}
+}
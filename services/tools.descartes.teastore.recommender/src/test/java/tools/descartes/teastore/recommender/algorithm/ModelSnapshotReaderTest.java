@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.CoOccurrenceMatrix;
+
+/**
+ * Test for the consistency checks of the {@link ModelSnapshotReader}.
+ */
+public class ModelSnapshotReaderTest {
+
+	/**
+	 * Consistent rows, also with empty rows, are accepted.
+	 *
+	 * @throws IOException
+	 *             Not expected.
+	 */
+	@Test
+	public void testConsistentRows() throws IOException {
+		ModelSnapshotReader.checkRows(new int[] { 0, 2, 2, 3 }, new int[] { 0, 2, 1 }, 3, "matrix");
+		ModelSnapshotReader.checkRows(new int[] { 0 }, new int[0], 0, "matrix");
+	}
+
+	/**
+	 * Decreasing offsets and out of range columns are rejected.
+	 */
+	@Test
+	public void testCorruptRows() {
+		assertCorrupt(new int[] { 0, 2, 1, 3 }, new int[] { 0, 2, 1 }, 3);
+		assertCorrupt(new int[] { 1, 2, 2, 3 }, new int[] { 0, 2, 1 }, 3);
+		assertCorrupt(new int[] { 0, 2, 2, 3 }, new int[] { 0, 3, 1 }, 3);
+		assertCorrupt(new int[] { 0, 2, 2, 3 }, new int[] { 0, -1, 1 }, 3);
+	}
+
+	/**
+	 * A snapshot matrix referencing an unknown product is rejected on read.
+	 *
+	 * @throws IOException
+	 *             Expected, as a column is out of range.
+	 */
+	@Test(expected = IOException.class)
+	public void testCorruptMatrix() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(bytes));
+		writer.writeIntArray(new int[] { 0, 1, 2 });
+		writer.writeIntArray(new int[] { 1, 7 });
+		writer.writeIntArray(new int[] { 1, 1 });
+		writer.flush();
+		CoOccurrenceMatrix.read(new ModelSnapshotReader(ByteBuffer.wrap(bytes.toByteArray())), 2);
+	}
+
+	private static void assertCorrupt(int[] rowOffsets, int[] columns, int columnCount) {
+		try {
+			ModelSnapshotReader.checkRows(rowOffsets, columns, columnCount, "matrix");
+			Assert.fail("Corrupt rows were accepted.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
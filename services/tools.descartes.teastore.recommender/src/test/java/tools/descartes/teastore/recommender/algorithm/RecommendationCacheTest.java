@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * Test for the {@link RecommendationCache}.
+ */
+public class RecommendationCacheTest {
+
+	/**
+	 * Tests that carts with the same products share their key.
+	 */
+	@Test
+	public void testKey() {
+		RecommendationCache cache = new RecommendationCache(10);
+		cache.put(RecommendationCache.createKey(1L, cart(3, 1, 2)), Arrays.asList(4L, 5L));
+		Assert.assertEquals(Arrays.asList(4L, 5L), cache.get(RecommendationCache.createKey(1L, cart(1, 2, 3))));
+		Assert.assertNull(cache.get(RecommendationCache.createKey(2L, cart(1, 2, 3))));
+		Assert.assertNull(cache.get(RecommendationCache.createKey(null, cart(1, 2, 3))));
+		Assert.assertNull(cache.get(RecommendationCache.createKey(1L, cart(1, 2))));
+
+		cache.put(RecommendationCache.createKey(null, cart()), Arrays.asList(6L));
+		Assert.assertEquals(Arrays.asList(6L), cache.get(RecommendationCache.createKey(null, cart())));
+
+		// returned results must not affect the cache
+		cache.get(RecommendationCache.createKey(null, cart())).clear();
+		Assert.assertEquals(Arrays.asList(6L), cache.get(RecommendationCache.createKey(null, cart())));
+	}
+
+	/**
+	 * Tests that the oldest results are evicted.
+	 */
+	@Test
+	public void testEviction() {
+		RecommendationCache cache = new RecommendationCache(2);
+		for (long user = 0; user < 3; user++) {
+			cache.put(RecommendationCache.createKey(user, cart(1)), Arrays.asList(user));
+		}
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.get(RecommendationCache.createKey(0L, cart(1))));
+		Assert.assertEquals(Arrays.asList(1L), cache.get(RecommendationCache.createKey(1L, cart(1))));
+		Assert.assertEquals(Arrays.asList(2L), cache.get(RecommendationCache.createKey(2L, cart(1))));
+	}
+
+	private static List<OrderItem> cart(long... productIds) {
+		List<OrderItem> items = new ArrayList<>();
+		for (long productId : productIds) {
+			OrderItem item = new OrderItem();
+			item.setProductId(productId);
+			item.setQuantity(1);
+			items.add(item);
+		}
+		return items;
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.metrics.ShadowStatistics;
+
+/**
+ * Test for the {@link ShadowEvaluator}.
+ */
+public class ShadowEvaluatorTest {
+
+	private static final List<Long> LIVE = Arrays.asList(1L, 2L, 3L, 4L);
+
+	/**
+	 * Sampled requests are replayed and compared with the live answer.
+	 */
+	@Test
+	public void testReplay() {
+		ShadowStatistics statistics = new ShadowStatistics();
+		Stub fallback = new Stub(Arrays.asList(1L, 2L, 3L, 4L));
+		Stub shadow = new Stub(Arrays.asList(3L, 4L, 5L, 6L));
+		ShadowEvaluator evaluator = new ShadowEvaluator(1, statistics, Runnable::run);
+		evaluator.offer(new Stub(LIVE), shadow, fallback, 1L, new ArrayList<>(), LIVE);
+		Assert.assertEquals(1, statistics.getReplayed());
+		Assert.assertEquals(0.5, statistics.getMeanOverlap(), 1e-9);
+
+		// the live answer is compared with the fallback answer of the shadow
+		shadow.failure = new UseFallBackException("No user information.");
+		evaluator.offer(new Stub(LIVE), shadow, fallback, null, new ArrayList<>(), LIVE);
+		Assert.assertEquals(2, statistics.getReplayed());
+		Assert.assertEquals(0.75, statistics.getMeanOverlap(), 1e-9);
+
+		shadow.failure = new IllegalStateException("broken");
+		evaluator.offer(new Stub(LIVE), shadow, fallback, null, new ArrayList<>(), LIVE);
+		Assert.assertEquals(2, statistics.getReplayed());
+		Assert.assertEquals(1, statistics.getFailures());
+	}
+
+	/**
+	 * Requests are only replayed at the sample rate, and dropped if the executor
+	 * is saturated.
+	 */
+	@Test
+	public void testSampling() {
+		ShadowStatistics statistics = new ShadowStatistics();
+		Stub stub = new Stub(LIVE);
+		ShadowEvaluator disabled = new ShadowEvaluator(0, statistics, Runnable::run);
+		for (int i = 0; i < 100; i++) {
+			disabled.offer(stub, stub, stub, 1L, new ArrayList<>(), LIVE);
+		}
+		Assert.assertEquals(0, statistics.getReplayed());
+
+		ShadowEvaluator saturated = new ShadowEvaluator(1, statistics, runnable -> {
+			throw new RejectedExecutionException();
+		});
+		saturated.offer(stub, stub, stub, 1L, new ArrayList<>(), LIVE);
+		Assert.assertEquals(0, statistics.getReplayed());
+		Assert.assertEquals(1, statistics.getDropped());
+	}
+
+	/**
+	 * The overlap is the share of live recommendations also made by the shadow.
+	 */
+	@Test
+	public void testOverlap() {
+		Assert.assertEquals(1, ShadowEvaluator.overlap(new ArrayList<>(), new ArrayList<>()), 0);
+		Assert.assertEquals(0, ShadowEvaluator.overlap(new ArrayList<>(), LIVE), 0);
+		Assert.assertEquals(0, ShadowEvaluator.overlap(LIVE, null), 0);
+		Assert.assertEquals(1, ShadowEvaluator.overlap(LIVE, Arrays.asList(4L, 3L, 2L, 1L)), 0);
+		Assert.assertEquals(0.25, ShadowEvaluator.overlap(LIVE, Arrays.asList(4L, 9L)), 0);
+	}
+
+	/**
+	 * Recommender returning a fixed answer or failing.
+	 */
+	private static final class Stub implements IRecommender {
+
+		private final List<Long> answer;
+
+		private RuntimeException failure;
+
+		private Stub(List<Long> answer) {
+			this.answer = answer;
+		}
+
+		@Override
+		public void train(List<OrderItem> orderItems, List<Order> orders) {
+			// nothing to train
+		}
+
+		@Override
+		public void update(List<OrderItem> newOrderItems, List<Order> newOrders) {
+			// nothing to update
+		}
+
+		@Override
+		public List<Long> recommendProducts(Long userid, List<OrderItem> currentItems) {
+			if (failure != null) {
+				throw failure;
+			}
+			return answer;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.algorithm.impl.orderbased.OrderBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.PopularityBasedRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.sketch.SketchRecommender;
+
+/**
+ * Reports the accuracy of the {@link SketchRecommender} for different memory
+ * budgets, compared to the exact {@link OrderBasedRecommender} and
+ * {@link PopularityBasedRecommender} on synthetic orders.
+ */
+public class SketchAccuracyTest {
+
+	private static final int USERS = 2000;
+
+	private static final int PRODUCTS = 1000;
+
+	private static final int ORDERS = 20000;
+
+	private static final int CARTS = 200;
+
+	private static final long[] BUDGETS = { 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024 };
+
+	/**
+	 * Trains the recommenders and prints the overlap of their recommendations for
+	 * each budget.
+	 */
+	@Test
+	public void testAccuracy() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(USERS, PRODUCTS, ORDERS);
+		List<List<OrderItem>> carts = new ArrayList<>();
+		for (int i = 0; i < CARTS; i++) {
+			carts.add(generator.generateCart());
+		}
+		AbstractRecommender exact = new OrderBasedRecommender();
+		exact.train(generator.getOrderItems(), generator.getOrders());
+		AbstractRecommender popularity = new PopularityBasedRecommender();
+		popularity.train(generator.getOrderItems(), generator.getOrders());
+		// the most popular products, no product is excluded for an unknown one
+		List<Long> popular = popularity.recommendProducts(null, singleCart(-1L));
+
+		System.out.println("Sketch accuracy for " + ORDERS + " orders of " + USERS + " users and " + PRODUCTS
+				+ " products, overlap of the top " + AbstractRecommender.MAX_NUMBER_OF_RECOMMENDATIONS + ":");
+		System.out.println(String.format("%12s %12s %12s %12s", "budget", "model", "order-based", "popularity"));
+		double previousOverlap = 0;
+		for (long budget : BUDGETS) {
+			SketchRecommender sketch = new SketchRecommender(budget);
+			sketch.train(generator.getOrderItems(), generator.getOrders());
+			Assert.assertTrue(sketch.getModelMemoryBytes() <= budget);
+
+			double overlap = 0;
+			int evaluated = 0;
+			for (List<OrderItem> cart : carts) {
+				try {
+					overlap += overlap(exact.recommendProducts(null, cart), sketch.recommendProducts(null, cart));
+					evaluated++;
+				} catch (UseFallBackException e) {
+					// neither is comparable
+				}
+			}
+			overlap /= evaluated;
+			List<Long> sketchPopular = new ArrayList<>();
+			long[] candidates = sketch.getCandidates();
+			for (int i = 0; i < popular.size() && i < candidates.length; i++) {
+				sketchPopular.add(candidates[i]);
+			}
+			double popularityOverlap = overlap(popular, sketchPopular);
+			System.out.println(String.format("%12d %12d %12.3f %12.3f", budget, sketch.getModelMemoryBytes(), overlap,
+					popularityOverlap));
+			// more memory must not make the results notably worse
+			Assert.assertTrue(overlap >= previousOverlap - 0.05);
+			previousOverlap = overlap;
+		}
+		Assert.assertTrue(previousOverlap >= 0.8);
+	}
+
+	private static List<OrderItem> singleCart(long productId) {
+		List<OrderItem> cart = new ArrayList<>();
+		OrderItem item = new OrderItem();
+		item.setProductId(productId);
+		cart.add(item);
+		return cart;
+	}
+
+	private static double overlap(List<Long> expected, List<Long> actual) {
+		if (expected.isEmpty()) {
+			return 1;
+		}
+		Set<Long> common = new HashSet<>(expected);
+		common.retainAll(actual);
+		return (double) common.size() / expected.size();
+	}
+}
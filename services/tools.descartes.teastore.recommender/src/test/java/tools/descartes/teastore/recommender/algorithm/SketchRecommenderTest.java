@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.algorithm.impl.sketch.SketchRecommender;
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * Test for the SketchRecommender. With the default memory budget, the sketch
+ * counts of the few test orders are exact.
+ *
+ */
+public class SketchRecommenderTest extends AbstractRecommenderFunctionalityTest {
+
+	@Override
+	protected void setupAlgo() {
+		setAlgo(new SketchRecommender());
+	}
+
+	/**
+	 * Orders with 2: 1 = 1, 3 = 2, 4 = 2, 5 = 1.
+	 */
+	@Override
+	public void testSingleResults() {
+		List<Long> expected = Arrays.asList(3L, 4L, 1L, 5L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(100L, getRecommendSingle()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(102L, getRecommendSingle()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(null, getRecommendSingle()));
+
+		// orders with 1: 3 = 2, 2 = 1, 4 = 1
+		List<OrderItem> recommend = new ArrayList<>();
+		OrderItem o = new OrderItem();
+		o.setProductId(1);
+		recommend.add(o);
+		Assert.assertEquals(Arrays.asList(3L, 2L, 4L), getAlgo().recommendProducts(100L, recommend));
+
+		recommend = new ArrayList<>();
+		o = new OrderItem();
+		o.setProductId(6);
+		recommend.add(o);
+		try {
+			getAlgo().recommendProducts(100L, recommend);
+			Assert.fail("Exception expected");
+		} catch (UseFallBackException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Orders with 3 or 5: 1 = 2, 2 = 2 + 1, 4 = 2 + 1.
+	 */
+	@Override
+	public void testMultiResults() {
+		List<Long> expected = Arrays.asList(2L, 4L, 1L);
+		Assert.assertEquals(expected, getAlgo().recommendProducts(100L, getRecommendMulti()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(101L, getRecommendMulti()));
+		Assert.assertEquals(expected, getAlgo().recommendProducts(null, getRecommendMulti()));
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.PreprocessedSlopeOneRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneMatrix;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneRecommender;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
+
+/**
+ * Test for the model budget and minimum frequency of the
+ * {@link SlopeOneRecommender}.
+ */
+public class SlopeOneBudgetTest {
+
+	private final SyntheticOrderGenerator generator = new SyntheticOrderGenerator(200, 300, 1000);
+
+	/**
+	 * Pairs below the minimum frequency are dropped, the others keep their
+	 * differences with float precision.
+	 */
+	@Test
+	public void testMinFrequency() {
+		SlopeOneRecommender full = train(new SlopeOneRecommender(0, 1));
+		SlopeOneRecommender compact = train(new SlopeOneRecommender(0, 2));
+		Map<Long, Map<Long, Double>> fullDifferences = full.getDifferences();
+		Map<Long, Map<Long, Double>> differences = compact.getDifferences();
+		Map<Long, Map<Long, Integer>> expectedFrequencies = new HashMap<>();
+		int pairs = 0;
+		for (Entry<Long, Map<Long, Integer>> row : full.getFrequencies().entrySet()) {
+			for (Entry<Long, Integer> frequency : row.getValue().entrySet()) {
+				if (frequency.getValue() >= 2) {
+					expectedFrequencies.computeIfAbsent(row.getKey(), key -> new HashMap<>())
+							.put(frequency.getKey(), frequency.getValue());
+					double expected = fullDifferences.get(row.getKey()).get(frequency.getKey());
+					Assert.assertEquals(expected, differences.get(row.getKey()).get(frequency.getKey()),
+							1e-6 * Math.max(1, Math.abs(expected)));
+					pairs++;
+				}
+			}
+		}
+		Assert.assertEquals(expectedFrequencies, compact.getFrequencies());
+
+		Map<String, Object> statistics = RecommenderMetrics.getInstance().getModelStatistics()
+				.get(SlopeOneRecommender.class.getSimpleName());
+		Assert.assertEquals(2, statistics.get("minFrequency"));
+		Assert.assertEquals(pairs, statistics.get("retainedEntries"));
+		double overlap = (Double) statistics.get("topOverlap");
+		Assert.assertTrue(overlap >= 0 && overlap <= 1);
+	}
+
+	/**
+	 * The retained model fits into the budget, which raises the minimum
+	 * frequency.
+	 */
+	@Test
+	public void testBudget() {
+		train(new SlopeOneRecommender(0, 2));
+		long compactBytes = (Long) RecommenderMetrics.getInstance().getModelStatistics()
+				.get(SlopeOneRecommender.class.getSimpleName()).get("retainedBytes");
+		long budget = compactBytes / 2;
+		train(new SlopeOneRecommender(budget, 1));
+		Map<String, Object> statistics = RecommenderMetrics.getInstance().getModelStatistics()
+				.get(SlopeOneRecommender.class.getSimpleName());
+		Assert.assertTrue((Long) statistics.get("retainedBytes") <= budget);
+		Assert.assertTrue((Integer) statistics.get("minFrequency") > 2);
+	}
+
+	/**
+	 * The counting pass finds the same minimum frequency as the full matrix, and
+	 * pruning while building gives the same model as pruning the full matrix of
+	 * a builder.
+	 */
+	@Test
+	public void testPrunedBuild() {
+		UserItemMatrix matrix = train(new SlopeOneRecommender(0, 1)).getUserItemMatrix();
+		SlopeOneMatrix full = SlopeOneMatrix.build(matrix);
+		long[] pairs = SlopeOneMatrix.countPairs(matrix);
+		long entries = 0;
+		for (long count : pairs) {
+			entries += count;
+		}
+		Assert.assertEquals(full.getEntries(), entries);
+		long budget = SlopeOneMatrix.estimateBytes(full.getRows(), full.getEntries() / 4, true);
+		Assert.assertEquals(full.getMinFrequency(budget),
+				SlopeOneMatrix.getMinFrequency(pairs, full.getRows(), budget));
+
+		SlopeOneRecommender pruned = train(new SlopeOneRecommender(budget, 1));
+		SlopeOneRecommender built = new SlopeOneRecommender(budget, 1);
+		built.setMatrixBuilder(SlopeOneMatrix::build);
+		train(built);
+		Assert.assertEquals(built.getFrequencies(), pruned.getFrequencies());
+		Assert.assertEquals(built.getDifferences(), pruned.getDifferences());
+		Map<String, Object> statistics = RecommenderMetrics.getInstance().getModelStatistics()
+				.get(SlopeOneRecommender.class.getSimpleName());
+		Assert.assertEquals(entries, statistics.get("entries"));
+		Assert.assertTrue((Long) statistics.get("retainedBytes") <= budget);
+	}
+
+	/**
+	 * A compact model is rebuilt on updates, so it equals a model trained on all
+	 * orders.
+	 */
+	@Test
+	public void testUpdate() {
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		SlopeOneRecommender updated = new SlopeOneRecommender(0, 2);
+		updated.train(items, orders.subList(0, orders.size() / 2));
+		updated.update(items, orders);
+		SlopeOneRecommender trained = train(new SlopeOneRecommender(0, 2));
+		Assert.assertEquals(trained.getFrequencies(), updated.getFrequencies());
+		Assert.assertEquals(trained.getDifferences(), updated.getDifferences());
+	}
+
+	/**
+	 * A compact model with float scores is restored from a snapshot.
+	 * 
+	 * @throws IOException
+	 *             If the snapshot cannot be written or read.
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+		PreprocessedSlopeOneRecommender compact = new PreprocessedSlopeOneRecommender(1L << 20, 2);
+		train(compact);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(bytes));
+		compact.writeOrderHistory(writer);
+		compact.writeModel(writer);
+		writer.flush();
+		ModelSnapshotReader reader = new ModelSnapshotReader(ByteBuffer.wrap(bytes.toByteArray()));
+		UserItemMatrix itemSets = AbstractRecommender.readOrderHistory(reader);
+		PreprocessedSlopeOneRecommender restored = new PreprocessedSlopeOneRecommender(1L << 20, 2);
+		restored.restore(itemSets, reader);
+		Assert.assertEquals(compact.getDifferences(), restored.getDifferences());
+		Assert.assertEquals(compact.getPredictedRatings(), restored.getPredictedRatings());
+		for (int i = 0; i < 20; i++) {
+			Long user = generator.generateUserId();
+			List<OrderItem> cart = generator.generateCart();
+			Assert.assertEquals(compact.recommendProducts(user, cart), restored.recommendProducts(user, cart));
+		}
+	}
+
+	private <T extends SlopeOneRecommender> T train(T recommender) {
+		recommender.train(generator.getOrderItems(), generator.getOrders());
+		return recommender;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneMatrix;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneRecommender;
+
+/**
+ * Test for building the {@link SlopeOneMatrix} in ranges of users, as done
+ * with partitioned training.
+ */
+public class SlopeOnePartitionTest {
+
+	private final SyntheticOrderGenerator generator = new SyntheticOrderGenerator(200, 300, 1000);
+
+	/**
+	 * The ranges cover all users in order.
+	 */
+	@Test
+	public void testPartitionUsers() {
+		UserItemMatrix matrix = train(new SlopeOneRecommender()).getUserItemMatrix();
+		int[] bounds = SlopeOneMatrix.partitionUsers(matrix, 5);
+		Assert.assertEquals(6, bounds.length);
+		Assert.assertEquals(0, bounds[0]);
+		Assert.assertEquals(matrix.getUsers(), bounds[5]);
+		for (int r = 0; r < 5; r++) {
+			Assert.assertTrue(bounds[r] < bounds[r + 1]);
+		}
+		Assert.assertArrayEquals(new int[] { 0, matrix.getUsers() }, SlopeOneMatrix.partitionUsers(matrix, 1));
+		Assert.assertArrayEquals(new int[] { 0, 0, 0 },
+				SlopeOneMatrix.partitionUsers(UserItemMatrix.empty(), 2));
+	}
+
+	/**
+	 * The partial matrices of all ranges, some of them sent as binary rows, add
+	 * up to the matrix of all users.
+	 *
+	 * @throws IOException
+	 *             If the rows or matrices cannot be written or read.
+	 */
+	@Test
+	public void testPartialMatrices() throws IOException {
+		UserItemMatrix matrix = train(new SlopeOneRecommender()).getUserItemMatrix();
+		int[] bounds = SlopeOneMatrix.partitionUsers(matrix, 4);
+		SlopeOneMatrix sum = null;
+		for (int r = 0; r < 4; r++) {
+			SlopeOneMatrix partial;
+			if (r % 2 == 0) {
+				partial = SlopeOneMatrix.build(matrix, bounds[r], bounds[r + 1]);
+			} else {
+				partial = buildFromRows(matrix, bounds[r], bounds[r + 1]);
+			}
+			sum = sum == null ? partial : sum.add(partial);
+		}
+		SlopeOneMatrix expected = SlopeOneMatrix.build(matrix);
+		Assert.assertEquals(expected.getRows(), sum.getRows());
+		Assert.assertEquals(expected.getEntries(), sum.getEntries());
+		for (int i = 0; i < expected.getRows(); i++) {
+			Assert.assertEquals(expected.getRowStart(i), sum.getRowStart(i));
+		}
+		for (int k = 0; k < expected.getEntries(); k++) {
+			Assert.assertEquals(expected.getColumn(k), sum.getColumn(k));
+			Assert.assertEquals(expected.getFrequency(k), sum.getFrequency(k));
+			Assert.assertEquals(expected.getDifference(k), sum.getDifference(k), 1e-9);
+		}
+	}
+
+	/**
+	 * Corrupt rows are rejected.
+	 *
+	 * @throws IOException
+	 *             Expected, as a product index is out of range.
+	 */
+	@Test(expected = IOException.class)
+	public void testCorruptRows() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(bytes));
+		writer.writeInt(2);
+		writer.writeIntArray(new int[] { 0, 1 });
+		writer.writeIntArray(new int[] { 2 });
+		writer.writeDoubleArray(new double[] { 1 });
+		writer.flush();
+		SlopeOneMatrix.build(new ModelSnapshotReader(ByteBuffer.wrap(bytes.toByteArray())));
+	}
+
+	/**
+	 * A partial matrix claiming more buyers of a pair than the range has users is
+	 * rejected.
+	 *
+	 * @throws IOException
+	 *             Expected, as the frequency exceeds the users of the range.
+	 */
+	@Test(expected = IOException.class)
+	public void testCorruptPartial() throws IOException {
+		UserItemMatrix matrix = train(new SlopeOneRecommender()).getUserItemMatrix();
+		// the pairs of the single user are counted twice
+		SlopeOneMatrix partial = SlopeOneMatrix.build(matrix, 0, 1).add(SlopeOneMatrix.build(matrix, 0, 1));
+		Assert.assertTrue(partial.getEntries() > 0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(bytes));
+		partial.write(writer);
+		writer.flush();
+		SlopeOneMatrix.readPartial(new ModelSnapshotReader(ByteBuffer.wrap(bytes.toByteArray())),
+				matrix.getProductIndex().size(), 1);
+	}
+
+	/**
+	 * A recommender trained with a partitioned matrix builder equals one trained
+	 * on a single instance. Other recommenders are not affected by the builder.
+	 */
+	@Test
+	public void testMatrixBuilder() {
+		SlopeOneRecommender single = new SlopeOneRecommender(0, 1);
+		SlopeOneRecommender partitioned = new SlopeOneRecommender(0, 1);
+		int[] calls = new int[1];
+		partitioned.setMatrixBuilder(matrix -> {
+			calls[0]++;
+			int[] bounds = SlopeOneMatrix.partitionUsers(matrix, 3);
+			SlopeOneMatrix sum = SlopeOneMatrix.build(matrix, bounds[0], bounds[1]);
+			for (int r = 1; r < 3; r++) {
+				sum = sum.add(SlopeOneMatrix.build(matrix, bounds[r], bounds[r + 1]));
+			}
+			return sum;
+		});
+		train(single);
+		Assert.assertEquals(0, calls[0]);
+		train(partitioned);
+		Assert.assertEquals(1, calls[0]);
+		Assert.assertEquals(single.getFrequencies(), partitioned.getFrequencies());
+		Map<Long, Map<Long, Double>> differences = partitioned.getDifferences();
+		for (Entry<Long, Map<Long, Double>> row : single.getDifferences().entrySet()) {
+			for (Entry<Long, Double> difference : row.getValue().entrySet()) {
+				Assert.assertEquals(difference.getValue(), differences.get(row.getKey()).get(difference.getKey()),
+						1e-9);
+			}
+		}
+	}
+
+	private static SlopeOneMatrix buildFromRows(UserItemMatrix matrix, int fromUser, int toUser)
+			throws IOException {
+		ByteArrayOutputStream rows = new ByteArrayOutputStream();
+		ModelSnapshotWriter writer = new ModelSnapshotWriter(Channels.newChannel(rows));
+		SlopeOneMatrix.writeUserRows(writer, matrix, fromUser, toUser);
+		writer.flush();
+		SlopeOneMatrix partial = SlopeOneMatrix.build(new ModelSnapshotReader(ByteBuffer.wrap(rows.toByteArray())));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer = new ModelSnapshotWriter(Channels.newChannel(bytes));
+		partial.write(writer);
+		writer.flush();
+		return SlopeOneMatrix.readPartial(new ModelSnapshotReader(ByteBuffer.wrap(bytes.toByteArray())),
+				matrix.getProductIndex().size(), toUser - fromUser);
+	}
+
+	private <T extends SlopeOneRecommender> T train(T recommender) {
+		recommender.train(generator.getOrderItems(), generator.getOrders());
+		return recommender;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+
+/**
+ * Generates orders in memory with the same distribution as the persistence
+ * service's DataGenerator: every order prefers one random category, each item
+ * is taken from the preferred category with a chance of 82.5 % and every order
+ * has up to ten items. In contrast to the DataGenerator, the total number of
+ * orders is given and each order belongs to a uniformly chosen user, so the
+ * scale of users, products and orders can be varied independently.
+ */
+public final class SyntheticOrderGenerator {
+
+	private static final int MAX_ITEMS_PER_ORDER = 10;
+	private static final double PREFFERED_CATEGORY_CHANCE = 0.825;
+	private static final int PRODUCTS_PER_CATEGORY = 100;
+
+	private final Random random = new Random(5);
+
+	private final int users;
+	private final int categories;
+	private final int productsPerCategory;
+
+	private final List<Order> orders = new ArrayList<>();
+	private final List<OrderItem> orderItems = new ArrayList<>();
+
+	/**
+	 * Generates the given number of orders.
+	 *
+	 * @param users
+	 *            The number of users, user IDs start at 1.
+	 * @param products
+	 *            The number of products, product IDs start at 1. Products are
+	 *            split into categories of 100 products.
+	 * @param orders
+	 *            The number of orders.
+	 */
+	public SyntheticOrderGenerator(int users, int products, int orders) {
+		this.users = users;
+		this.categories = Math.max(1, products / PRODUCTS_PER_CATEGORY);
+		this.productsPerCategory = products / categories;
+		for (long orderId = 1; orderId <= orders; orderId++) {
+			generateOrder(orderId);
+		}
+	}
+
+	private void generateOrder(long orderId) {
+		Order order = new Order();
+		order.setId(orderId);
+		order.setUserId(1 + random.nextInt(users));
+		order.setTime(LocalDateTime.of(LocalDateTime.now().getYear() - random.nextInt(10), 1 + random.nextInt(10),
+				1 + random.nextInt(24), random.nextInt(23), random.nextInt(59))
+				.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+		orders.add(order);
+		int preferred = random.nextInt(categories);
+		// the bound is drawn anew in every iteration, as in the DataGenerator
+		for (int j = 0; j < 1 + random.nextInt(MAX_ITEMS_PER_ORDER); j++) {
+			OrderItem item = generateOrderItem(preferred);
+			item.setId(orderItems.size() + 1);
+			item.setOrderId(orderId);
+			orderItems.add(item);
+		}
+	}
+
+	private OrderItem generateOrderItem(int preferred) {
+		OrderItem item = new OrderItem();
+		item.setQuantity(random.nextInt(7));
+		int category = preferred;
+		if (random.nextDouble() > PREFFERED_CATEGORY_CHANCE) {
+			category = random.nextInt(categories);
+		}
+		item.setProductId(1 + category * productsPerCategory + random.nextInt(productsPerCategory));
+		item.setUnitPriceInCents(95 + random.nextInt(12000));
+		return item;
+	}
+
+	/**
+	 * Generates a shopping cart with the same distribution as the items of an
+	 * order.
+	 *
+	 * @return The items of the cart, at least one.
+	 */
+	public List<OrderItem> generateCart() {
+		List<OrderItem> cart = new ArrayList<>();
+		int preferred = random.nextInt(categories);
+		for (int j = 0; j < 1 + random.nextInt(MAX_ITEMS_PER_ORDER); j++) {
+			cart.add(generateOrderItem(preferred));
+		}
+		return cart;
+	}
+
+	/**
+	 * @return A random user ID.
+	 */
+	public long generateUserId() {
+		return 1 + random.nextInt(users);
+	}
+
+	/**
+	 * @return The generated orders.
+	 */
+	public List<Order> getOrders() {
+		return orders;
+	}
+
+	/**
+	 * @return The items of all generated orders.
+	 */
+	public List<OrderItem> getOrderItems() {
+		return orderItems;
+	}
+}
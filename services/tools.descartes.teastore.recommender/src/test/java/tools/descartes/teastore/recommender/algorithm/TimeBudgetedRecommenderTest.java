@@ -0,0 +1,182 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.UseFallBackException;
+import tools.descartes.teastore.recommender.metrics.RecommenderMetrics;
+
+/**
+ * Test for the {@link TimeBudgetedRecommender}.
+ */
+public class TimeBudgetedRecommenderTest {
+
+	private static final List<Long> CHEAP = Arrays.asList(1L, 2L);
+
+	private static final List<Long> EXPENSIVE = Arrays.asList(3L, 4L);
+
+	private static final long BUDGET = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(1));
+
+	/**
+	 * Shuts the executor down.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The expensive answer is used if it arrives in time, otherwise the cheap one.
+	 */
+	@Test
+	public void testDeadline() {
+		Stub expensive = new Stub(EXPENSIVE);
+		TimeBudgetedRecommender recommender = new TimeBudgetedRecommender(new Stub(CHEAP), expensive, BUDGET,
+				executor);
+		long refined = count(TimeBudgetedRecommender.PATH_REFINED);
+		TimeBudgetedRecommender.Result result = recommender.recommend(1L, new ArrayList<>());
+		Assert.assertEquals(EXPENSIVE, result.getProducts());
+		Assert.assertTrue(result.isRefined());
+		Assert.assertTrue(result.isCacheable());
+		Assert.assertEquals(refined + 1, count(TimeBudgetedRecommender.PATH_REFINED));
+
+		expensive.release = new CountDownLatch(1);
+		long deadline = count(TimeBudgetedRecommender.PATH_DEADLINE);
+		long start = System.nanoTime();
+		result = recommender.recommend(1L, new ArrayList<>());
+		Assert.assertTrue(System.nanoTime() - start < 5 * BUDGET);
+		Assert.assertEquals(CHEAP, result.getProducts());
+		Assert.assertEquals(TimeBudgetedRecommender.PATH_DEADLINE, result.getPath());
+		Assert.assertFalse(result.isRefined());
+		Assert.assertFalse(result.isCacheable());
+		Assert.assertEquals(deadline + 1, count(TimeBudgetedRecommender.PATH_DEADLINE));
+		expensive.release.countDown();
+	}
+
+	/**
+	 * The cheap answer is used without waiting if all workers are busy.
+	 */
+	@Test
+	public void testOverload() {
+		Stub expensive = new Stub(EXPENSIVE);
+		expensive.release = new CountDownLatch(1);
+		TimeBudgetedRecommender recommender = new TimeBudgetedRecommender(new Stub(CHEAP), expensive, BUDGET,
+				executor);
+		// one request occupies the worker, one the queue
+		recommender.recommendProducts(1L, new ArrayList<>());
+		recommender.recommendProducts(1L, new ArrayList<>());
+		long overload = count(TimeBudgetedRecommender.PATH_OVERLOAD);
+		long start = System.nanoTime();
+		Assert.assertEquals(CHEAP, recommender.recommendProducts(1L, new ArrayList<>()));
+		Assert.assertTrue(System.nanoTime() - start < BUDGET);
+		Assert.assertEquals(overload + 1, count(TimeBudgetedRecommender.PATH_OVERLOAD));
+		expensive.release.countDown();
+	}
+
+	/**
+	 * The cheap answer is used if the expensive recommender cannot answer.
+	 */
+	@Test
+	public void testFallback() {
+		Stub expensive = new Stub(EXPENSIVE);
+		expensive.failure = new UseFallBackException("No user information.");
+		TimeBudgetedRecommender recommender = new TimeBudgetedRecommender(new Stub(CHEAP), expensive, BUDGET,
+				executor);
+		long fallback = count(TimeBudgetedRecommender.PATH_FALLBACK);
+		long reason = countFallbacks("Stub: No user information.");
+		TimeBudgetedRecommender.Result result = recommender.recommend(null, new ArrayList<>());
+		Assert.assertEquals(CHEAP, result.getProducts());
+		Assert.assertTrue(result.isCacheable());
+		Assert.assertEquals(fallback + 1, count(TimeBudgetedRecommender.PATH_FALLBACK));
+		Assert.assertEquals(reason + 1, countFallbacks("Stub: No user information."));
+
+		expensive.failure = new IllegalStateException("broken");
+		long error = count(TimeBudgetedRecommender.PATH_ERROR);
+		reason = countFallbacks("Stub: " + IllegalStateException.class.getName());
+		result = recommender.recommend(null, new ArrayList<>());
+		Assert.assertEquals(CHEAP, result.getProducts());
+		Assert.assertFalse(result.isCacheable());
+		Assert.assertEquals(error + 1, count(TimeBudgetedRecommender.PATH_ERROR));
+		Assert.assertEquals(reason + 1, countFallbacks("Stub: " + IllegalStateException.class.getName()));
+	}
+
+	private static long count(String path) {
+		return RecommenderMetrics.getInstance().getBudgetedPaths().getOrDefault(path, 0L);
+	}
+
+	private static long countFallbacks(String reason) {
+		return RecommenderMetrics.getInstance().getFallbacks().getOrDefault(reason, 0L);
+	}
+
+	/**
+	 * Recommender returning a fixed answer, optionally after a latch is released
+	 * or with a failure. Like a computation, it cannot be interrupted.
+	 */
+	private static final class Stub implements IRecommender {
+
+		private final List<Long> answer;
+
+		private volatile CountDownLatch release;
+
+		private volatile RuntimeException failure;
+
+		private Stub(List<Long> answer) {
+			this.answer = answer;
+		}
+
+		@Override
+		public void train(List<OrderItem> orderItems, List<Order> orders) {
+			// nothing to train
+		}
+
+		@Override
+		public void update(List<OrderItem> newOrderItems, List<Order> newOrders) {
+			// nothing to update
+		}
+
+		@Override
+		public List<Long> recommendProducts(Long userid, List<OrderItem> currentItems) {
+			CountDownLatch latch = release;
+			while (latch != null) {
+				try {
+					latch.await();
+					latch = null;
+				} catch (InterruptedException e) {
+					// keep waiting
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return answer;
+		}
+	}
+}
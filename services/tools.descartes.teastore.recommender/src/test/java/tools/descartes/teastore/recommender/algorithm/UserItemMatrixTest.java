@@ -0,0 +1,194 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.PopularityBasedRecommender;
+
+/**
+ * Test for the {@link UserItemMatrix}.
+ */
+public class UserItemMatrixTest {
+
+	/**
+	 * Rows, columns and orders describe the same orders. Duplicate products of an
+	 * order count once with the last quantity, orders without products are
+	 * ignored.
+	 */
+	@Test
+	public void testBuild() {
+		UserItemMatrix matrix = UserItemMatrix.build(new long[] { 10, 11, 12, 13 }, new long[] { 2, 1, 2, 3 },
+				new long[] { 100, 200, 300, 400 }, new int[] { 0, 3, 4, 6, 6 }, new long[] { 7, 5, 7, 5, 5, 9 },
+				new int[] { 1, 2, 3, 4, 1, 5 });
+		Assert.assertEquals(2, matrix.getUsers());
+		Assert.assertEquals(3, matrix.getOrders());
+		Assert.assertTrue(matrix.indexOfUser(3) < 0);
+		Assert.assertFalse(matrix.containsOrder(3, 13));
+		Assert.assertTrue(matrix.containsOrder(2, 12));
+		Assert.assertFalse(matrix.containsOrder(1, 12));
+
+		Map<Long, Map<Long, Double>> expected = new HashMap<>();
+		expected.put(1L, Map.of(5L, 4.0));
+		expected.put(2L, Map.of(5L, 3.0, 7L, 3.0, 9L, 5.0));
+		Assert.assertEquals(expected, matrix.toUserBuyingMatrix());
+
+		// the columns point to the row entries of the users of each product
+		ProductIndex index = matrix.getProductIndex();
+		int product = index.indexOf(5);
+		Assert.assertEquals(2, matrix.getColumnEnd(product) - matrix.getColumnStart(product));
+		for (int c = matrix.getColumnStart(product); c < matrix.getColumnEnd(product); c++) {
+			int entry = matrix.getColumnEntry(c);
+			Assert.assertEquals(product, matrix.getProduct(entry));
+			Assert.assertTrue(entry >= matrix.getRowStart(matrix.getColumnUser(c))
+					&& entry < matrix.getRowEnd(matrix.getColumnUser(c)));
+		}
+
+		int user = matrix.indexOfUser(2);
+		Assert.assertEquals(2, matrix.getUserOrderEnd(user) - matrix.getUserOrderStart(user));
+		int order = matrix.getUserOrderStart(user);
+		Assert.assertEquals(10, matrix.getOrderId(order));
+		Assert.assertEquals(100, matrix.getOrderTime(order));
+		Assert.assertEquals(2, matrix.getOrderEnd(order) - matrix.getOrderStart(order));
+		Assert.assertEquals(index.indexOf(5), matrix.getOrderProduct(matrix.getOrderStart(order)));
+		Assert.assertEquals(2, matrix.getOrderQuantity(matrix.getOrderStart(order)));
+		Assert.assertEquals(3, matrix.getOrderQuantity(matrix.getOrderStart(order) + 1));
+	}
+
+	/**
+	 * Adding orders creates a new matrix and leaves the original untouched.
+	 */
+	@Test
+	public void testWithOrders() {
+		OrderItemSet first = new OrderItemSet();
+		first.setUserId(1);
+		first.setOrderId(1);
+		first.getOrderset().put(1L, 1);
+		OrderItemSet second = new OrderItemSet();
+		second.setUserId(2);
+		second.setOrderId(2);
+		second.getOrderset().put(1L, 2);
+		second.getOrderset().put(2L, 1);
+		UserItemMatrix matrix = UserItemMatrix.build(Arrays.asList(first));
+		UserItemMatrix updated = matrix.withOrders(Arrays.asList(second));
+		Assert.assertEquals(1, matrix.getUsers());
+		Assert.assertEquals(1, matrix.getProductIndex().size());
+		Assert.assertEquals(2, updated.getUsers());
+		Assert.assertEquals(2, updated.getProductIndex().size());
+		Assert.assertEquals(Map.of(1L, 2.0, 2L, 1.0), updated.getRow(2));
+		Assert.assertEquals(updated.toUserItemSets().get(1L).iterator().next().getOrderset(), first.getOrderset());
+		Assert.assertNull(matrix.getRow(2));
+		Assert.assertEquals(0, UserItemMatrix.empty().getUsers());
+	}
+
+	/**
+	 * Merging orders into a matrix yields the same arrays as building the matrix
+	 * from all orders. Without new products, the product index is kept.
+	 */
+	@Test
+	public void testWithOrdersMerge() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(50, 300, 400);
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		UserItemMatrix first = AbstractRecommender.buildUserItemMatrix(items, orders.subList(0, 20));
+		UserItemMatrix expected = AbstractRecommender.buildUserItemMatrix(items, orders);
+		UserItemMatrix merged = UserItemMatrixUpdate.create(first, items, orders).getMatrix();
+		Assert.assertTrue(merged.getProductIndex().size() > first.getProductIndex().size());
+		assertSameArrays(expected, merged);
+
+		OrderItemSet known = new OrderItemSet();
+		known.setUserId(expected.getUserId(0));
+		known.setOrderId(-1);
+		known.getOrderset().put(expected.getProductIndex().getId(0), 2);
+		UserItemMatrix added = expected.withOrders(Arrays.asList(known, new OrderItemSet()));
+		Assert.assertSame(expected.getProductIndex(), added.getProductIndex());
+		Assert.assertEquals(expected.getOrders() + 1, added.getOrders());
+		Assert.assertSame(expected, expected.withOrders(Arrays.asList(new OrderItemSet())));
+	}
+
+	private static void assertSameArrays(UserItemMatrix expected, UserItemMatrix actual) {
+		Assert.assertEquals(expected.getProductIndex(), actual.getProductIndex());
+		Assert.assertEquals(expected.getUsers(), actual.getUsers());
+		for (int u = 0; u < expected.getUsers(); u++) {
+			Assert.assertEquals(expected.getUserId(u), actual.getUserId(u));
+			Assert.assertEquals(expected.getUserOrderStart(u), actual.getUserOrderStart(u));
+		}
+		Assert.assertArrayEquals(expected.getRowOffsets(), actual.getRowOffsets());
+		Assert.assertArrayEquals(expected.getRowProducts(), actual.getRowProducts());
+		Assert.assertArrayEquals(expected.getRowQuantities(), actual.getRowQuantities(), 0);
+		Assert.assertArrayEquals(expected.getColumnOffsets(), actual.getColumnOffsets());
+		Assert.assertArrayEquals(expected.getColumnUsers(), actual.getColumnUsers());
+		Assert.assertArrayEquals(expected.getColumnEntries(), actual.getColumnEntries());
+		Assert.assertEquals(expected.getOrders(), actual.getOrders());
+		for (int o = 0; o < expected.getOrders(); o++) {
+			Assert.assertEquals(expected.getOrderId(o), actual.getOrderId(o));
+			Assert.assertEquals(expected.getOrderTime(o), actual.getOrderTime(o));
+			Assert.assertEquals(expected.getOrderEnd(o), actual.getOrderEnd(o));
+		}
+		for (int k = 0; k < expected.getOrderEnd(expected.getOrders() - 1); k++) {
+			Assert.assertEquals(expected.getOrderProduct(k), actual.getOrderProduct(k));
+			Assert.assertEquals(expected.getOrderQuantity(k), actual.getOrderQuantity(k));
+		}
+	}
+
+	/**
+	 * Matrices of the same orders have the same fingerprint, no matter in which
+	 * sequence the orders were added.
+	 */
+	@Test
+	public void testFingerprint() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(20, 30, 50);
+		UserItemMatrix matrix = AbstractRecommender.buildUserItemMatrix(generator.getOrderItems(),
+				generator.getOrders());
+		List<OrderItemSet> itemSets = new ArrayList<>();
+		for (Set<OrderItemSet> orders : matrix.toUserItemSets().values()) {
+			itemSets.addAll(orders);
+		}
+		Collections.reverse(itemSets);
+		UserItemMatrix first = UserItemMatrix.build(itemSets.subList(0, 10));
+		UserItemMatrix rebuilt = first.withOrders(itemSets.subList(10, itemSets.size()));
+		Assert.assertEquals(matrix.getFingerprint(), rebuilt.getFingerprint());
+		Assert.assertEquals(matrix.getMaxOrderTime(), rebuilt.getMaxOrderTime());
+		Assert.assertNotEquals(matrix.getFingerprint(), first.getFingerprint());
+		Assert.assertEquals(0, UserItemMatrix.empty().getFingerprint());
+	}
+
+	/**
+	 * The deprecated setter replaces the orders of a recommender with equal
+	 * matrix views.
+	 */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedSetter() {
+		SyntheticOrderGenerator generator = new SyntheticOrderGenerator(20, 30, 50);
+		PopularityBasedRecommender trained = new PopularityBasedRecommender();
+		trained.train(generator.getOrderItems(), generator.getOrders());
+		PopularityBasedRecommender recommender = new PopularityBasedRecommender();
+		recommender.setUserItemSets(trained.getUserItemSets());
+		Assert.assertEquals(trained.getUserBuyingMatrix(), recommender.getUserBuyingMatrix());
+		Assert.assertEquals(trained.getUserItemMatrix().getOrders(), recommender.getUserItemMatrix().getOrders());
+		Assert.assertEquals(trained.getTotalProducts(), recommender.getTotalProducts());
+	}
+}
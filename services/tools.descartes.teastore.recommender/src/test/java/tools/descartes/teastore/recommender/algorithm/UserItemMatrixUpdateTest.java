@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.algorithm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tools.descartes.teastore.entities.Order;
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.impl.cf.SlopeOneRecommender;
+import tools.descartes.teastore.recommender.algorithm.impl.pop.PopularityBasedRecommender;
+
+/**
+ * Test for training and updating several recommenders with one shared
+ * {@link UserItemMatrix} and {@link UserItemMatrixUpdate}.
+ */
+public class UserItemMatrixUpdateTest {
+
+	private final SyntheticOrderGenerator generator = new SyntheticOrderGenerator(100, 200, 500);
+
+	/**
+	 * Recommenders sharing the matrix and the update end up like recommenders
+	 * trained and updated on their own.
+	 */
+	@Test
+	public void testSharedUpdate() {
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		List<Order> firstOrders = orders.subList(0, orders.size() / 2);
+		UserItemMatrix matrix = AbstractRecommender.buildUserItemMatrix(items, firstOrders);
+		SlopeOneRecommender slopeOne = new SlopeOneRecommender(0, 1);
+		PopularityBasedRecommender popularity = new PopularityBasedRecommender();
+		slopeOne.train(matrix);
+		popularity.train(matrix);
+		UserItemMatrixUpdate update = UserItemMatrixUpdate.create(matrix, items, orders);
+		Assert.assertEquals(orders.size() - firstOrders.size(), update.getAddedItemSets().size());
+		slopeOne.update(update);
+		popularity.update(update);
+		Assert.assertSame(update.getMatrix(), slopeOne.getUserItemMatrix());
+		Assert.assertSame(update.getMatrix(), popularity.getUserItemMatrix());
+
+		// the previous rows of the changed users, in the new product index
+		ProductIndex index = update.getMatrix().getProductIndex();
+		int[] changedUsers = update.getChangedUsers();
+		Assert.assertTrue(changedUsers.length > 0);
+		for (int i = 0; i < changedUsers.length; i++) {
+			Map<Long, Double> previousRow = new HashMap<>();
+			for (int k = update.getPreviousRowStart(i); k < update.getPreviousRowEnd(i); k++) {
+				previousRow.put(index.getId(update.getPreviousProduct(k)), update.getPreviousQuantity(k));
+			}
+			Map<Long, Double> expectedRow = matrix.getRow(update.getMatrix().getUserId(changedUsers[i]));
+			Assert.assertEquals(expectedRow == null ? new HashMap<>() : expectedRow, previousRow);
+		}
+
+		SlopeOneRecommender expected = new SlopeOneRecommender(0, 1);
+		expected.train(items, firstOrders);
+		expected.update(items, orders);
+		Assert.assertEquals(expected.getUserBuyingMatrix(), slopeOne.getUserBuyingMatrix());
+		Assert.assertEquals(expected.getFrequencies(), slopeOne.getFrequencies());
+		for (int i = 0; i < 20; i++) {
+			Long user = generator.generateUserId();
+			List<OrderItem> cart = generator.generateCart();
+			Assert.assertEquals(expected.recommendProducts(user, cart), slopeOne.recommendProducts(user, cart));
+		}
+
+		// known orders are skipped
+		Assert.assertTrue(UserItemMatrixUpdate.create(update.getMatrix(), items, orders).isEmpty());
+	}
+
+	/**
+	 * An update must be applied to the orders it was prepared for.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testOtherOrders() {
+		List<Order> orders = generator.getOrders();
+		List<OrderItem> items = generator.getOrderItems();
+		PopularityBasedRecommender popularity = new PopularityBasedRecommender();
+		popularity.train(items, orders.subList(0, orders.size() / 2));
+		popularity.update(UserItemMatrixUpdate.create(AbstractRecommender.buildUserItemMatrix(items, orders), items,
+				orders));
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the {@link LatencyHistogram}.
+ *
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Every value lies in the bucket whose highest equivalent value bounds it
+	 * within the relative error.
+	 */
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 1L << 20; value++) {
+			assertBucket(value);
+		}
+		for (long value = 1L << 20; value <= LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 7) {
+			assertBucket(value);
+		}
+		assertBucket(LatencyHistogram.MAX_VALUE);
+	}
+
+	private static void assertBucket(long value) {
+		int index = LatencyHistogram.bucketIndex(value);
+		long highest = LatencyHistogram.highestEquivalentValue(index);
+		Assert.assertTrue(value <= highest);
+		Assert.assertTrue(highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+		if (index > 0) {
+			Assert.assertTrue(LatencyHistogram.highestEquivalentValue(index - 1) < value);
+		}
+	}
+
+	/**
+	 * Percentiles of 1..100000 are reported within the relative error.
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		histogram.record(-5);
+		Assert.assertEquals(100001, histogram.getCount());
+		Assert.assertEquals(100000, histogram.getMax());
+		Assert.assertEquals(0, histogram.getValueAtPercentile(0));
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			double expected = percentile * 1000;
+			long actual = histogram.getValueAtPercentile(percentile);
+			Assert.assertTrue(actual >= expected - 1);
+			Assert.assertTrue(actual <= expected * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+		}
+		Assert.assertEquals(100000, histogram.getValueAtPercentile(100));
+		Assert.assertEquals(50000, histogram.getMean(), 1);
+	}
+}
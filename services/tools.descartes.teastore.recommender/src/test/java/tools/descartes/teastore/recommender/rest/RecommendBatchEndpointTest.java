@@ -0,0 +1,125 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.entities.message.RecommendationRequest;
+import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
+import tools.descartes.teastore.recommender.algorithm.SyntheticOrderGenerator;
+
+/**
+ * Test for the {@link RecommendBatchEndpoint} and the batch recommendation of
+ * the {@link RecommenderSelector}.
+ */
+public class RecommendBatchEndpointTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final SyntheticOrderGenerator GENERATOR = new SyntheticOrderGenerator(100, 50, 400);
+
+	private static ApplicationHandler handler;
+
+	/**
+	 * Trains the recommender and deploys the endpoints in memory.
+	 */
+	@BeforeClass
+	public static void setup() {
+		RecommenderSelector.getInstance().train(GENERATOR.getOrderItems(), GENERATOR.getOrders());
+		handler = new ApplicationHandler(
+				new ResourceConfig(RecommendBatchEndpoint.class, RecommendEndpoint.class).register(JacksonFeature.class));
+	}
+
+	/**
+	 * The batch answers come back in the order of the requests and equal the
+	 * answers of single requests, also for requests without user or cart.
+	 *
+	 * @throws Exception
+	 *             If a request fails.
+	 */
+	@Test
+	public void testOrder() throws Exception {
+		List<RecommendationRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Long uid = i % 5 == 0 ? null : GENERATOR.generateUserId();
+			List<Long> productIds = null;
+			if (i % 7 != 0) {
+				productIds = new ArrayList<>();
+				for (OrderItem item : GENERATOR.generateCart()) {
+					productIds.add(item.getProductId());
+				}
+			}
+			requests.add(new RecommendationRequest(uid, productIds));
+		}
+		requests.add(new RecommendationRequest(null, null));
+
+		List<List<Long>> batch = MAPPER.readValue(post("recommend/batch", MAPPER.writeValueAsBytes(requests)),
+				new TypeReference<List<List<Long>>>() {
+				});
+		Assert.assertEquals(requests.size(), batch.size());
+		Assert.assertTrue(batch.stream().anyMatch(recommended -> !recommended.isEmpty()));
+		Assert.assertEquals(batch, RecommenderSelector.getInstance().recommendProducts(requests));
+		for (int i = 0; i < requests.size(); i++) {
+			RecommendationRequest request = requests.get(i);
+			List<OrderItem> items = new ArrayList<>();
+			if (request.getProductIds() != null) {
+				for (Long productId : request.getProductIds()) {
+					OrderItem item = new OrderItem();
+					item.setProductId(productId);
+					item.setQuantity(1);
+					items.add(item);
+				}
+			}
+			String path = "recommend" + (request.getUID() == null ? "" : "?uid=" + request.getUID());
+			List<Long> single = MAPPER.readValue(post(path, MAPPER.writeValueAsBytes(items)),
+					new TypeReference<List<Long>>() {
+					});
+			Assert.assertEquals("Request " + i, single, batch.get(i));
+		}
+	}
+
+	private static byte[] post(String path, byte[] body) throws Exception {
+		ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+				URI.create("http://localhost/" + path), "POST", null, new MapPropertiesDelegate(),
+				handler.getConfiguration());
+		request.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+		request.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+		request.setEntityStream(new ByteArrayInputStream(body));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContainerResponse response = handler.apply(request, out).get();
+		Assert.assertEquals(200, response.getStatus());
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.descartes.teastore.recommender.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.recommender.algorithm.RecommenderSelector;
+import tools.descartes.teastore.recommender.algorithm.SyntheticOrderGenerator;
+
+/**
+ * Test for the GET recommendations of the {@link RecommendEndpoint}.
+ */
+public class RecommendEndpointTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final SyntheticOrderGenerator GENERATOR = new SyntheticOrderGenerator(100, 50, 400);
+
+	private static ApplicationHandler handler;
+
+	/**
+	 * Trains the recommender and deploys the endpoint in memory.
+	 */
+	@BeforeClass
+	public static void setup() {
+		RecommenderSelector.getInstance().train(GENERATOR.getOrderItems(), GENERATOR.getOrders());
+		handler = new ApplicationHandler(new ResourceConfig(RecommendEndpoint.class).register(JacksonFeature.class));
+	}
+
+	/**
+	 * Product IDs that are unsorted, duplicated or not numbers are rejected.
+	 *
+	 * @throws Exception
+	 *             If a request fails.
+	 */
+	@Test
+	public void testBadRequest() throws Exception {
+		for (String pid : new String[] { "2,1", "1,1", "1,a", "1,,2", "1," }) {
+			Assert.assertEquals("pid=" + pid, 400, get("recommend?pid=" + pid, null).getStatus());
+		}
+		Assert.assertEquals(200, get("recommend?pid=1,2,3", null).getStatus());
+		Assert.assertEquals(200, get("recommend?pid=", null).getStatus());
+		Assert.assertEquals(200, get("recommend", null).getStatus());
+	}
+
+	/**
+	 * The answer equals the recommendation of the selector for the same cart.
+	 *
+	 * @throws Exception
+	 *             If a request fails.
+	 */
+	@Test
+	public void testRecommendation() throws Exception {
+		long uid = GENERATOR.generateUserId();
+		List<OrderItem> items = new ArrayList<>();
+		for (long productId = 1; productId <= 3; productId++) {
+			OrderItem item = new OrderItem();
+			item.setProductId(productId);
+			item.setQuantity(1);
+			items.add(item);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContainerResponse response = get("recommend?pid=1,2,3&uid=" + uid, null, out);
+		Assert.assertEquals(200, response.getStatus());
+		List<Long> recommended = MAPPER.readValue(out.toByteArray(), new TypeReference<List<Long>>() {
+		});
+		Assert.assertEquals(RecommenderSelector.getInstance().recommendProducts(uid, items), recommended);
+	}
+
+	/**
+	 * A matching If-None-Match is answered with NOT MODIFIED and the same ETag,
+	 * any other tag with the recommendations.
+	 *
+	 * @throws Exception
+	 *             If a request fails.
+	 */
+	@Test
+	public void testNotModified() throws Exception {
+		ContainerResponse first = get("recommend?pid=1,2", null);
+		Assert.assertEquals(200, first.getStatus());
+		String tag = first.getHeaderString(HttpHeaders.ETAG);
+		Assert.assertNotNull(tag);
+
+		ContainerResponse second = get("recommend?pid=1,2", tag);
+		Assert.assertEquals(304, second.getStatus());
+		Assert.assertEquals(tag, second.getHeaderString(HttpHeaders.ETAG));
+		Assert.assertNotNull(second.getHeaderString(HttpHeaders.CACHE_CONTROL));
+
+		Assert.assertEquals(200, get("recommend?pid=1,2", "\"stale\"").getStatus());
+	}
+
+	/**
+	 * Responses for a user are private, all others may be shared by caches.
+	 *
+	 * @throws Exception
+	 *             If a request fails.
+	 */
+	@Test
+	public void testCacheControl() throws Exception {
+		String personal = get("recommend?pid=1,2&uid=" + GENERATOR.generateUserId(), null)
+				.getHeaderString(HttpHeaders.CACHE_CONTROL);
+		Assert.assertNotNull(personal);
+		Assert.assertTrue(personal, personal.contains("private"));
+		Assert.assertTrue(personal, personal.contains("max-age="));
+
+		String shared = get("recommend?pid=1,2", null).getHeaderString(HttpHeaders.CACHE_CONTROL);
+		Assert.assertNotNull(shared);
+		Assert.assertFalse(shared, shared.contains("private"));
+		Assert.assertTrue(shared, shared.contains("max-age="));
+	}
+
+	private static ContainerResponse get(String path, String ifNoneMatch) throws Exception {
+		return get(path, ifNoneMatch, new ByteArrayOutputStream());
+	}
+
+	private static ContainerResponse get(String path, String ifNoneMatch, ByteArrayOutputStream out)
+			throws Exception {
+		ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+				URI.create("http://localhost/" + path), "GET", null, new MapPropertiesDelegate(),
+				handler.getConfiguration());
+		request.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+		if (ifNoneMatch != null) {
+			request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+		}
+		return handler.apply(request, out).get();
+	}
+}
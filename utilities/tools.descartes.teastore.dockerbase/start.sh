@@ -23,7 +23,27 @@ sed -i "s|<Environment name=\"useHostIP\" value=.*|<Environment name=\"useHostIP
 sed -i "s/<Environment name=\"databaseHost\" value=.*/<Environment name=\"databaseHost\" value=\"${DB_HOST}\"/g" /usr/local/tomcat/conf/context.xml
 sed -i "s/<Environment name=\"databasePort\" value=.*/<Environment name=\"databasePort\" value=\"${DB_PORT}\"/g" /usr/local/tomcat/conf/context.xml
 sed -i "s/<Environment name=\"recommenderLoopTime\" value=.*/<Environment name=\"recommenderLoopTime\" value=\"${RECOMMENDER_RETRAIN_LOOP_TIME}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderRetrainThreshold\" value=.*/<Environment name=\"recommenderRetrainThreshold\" value=\"${RECOMMENDER_RETRAIN_THRESHOLD}\"/g" /usr/local/tomcat/conf/context.xml
 sed -i "s/<Environment name=\"recommenderAlgorithm\" value=.*/<Environment name=\"recommenderAlgorithm\" value=\"${RECOMMENDER_ALGORITHM}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderFallbackAlgorithm\" value=.*/<Environment name=\"recommenderFallbackAlgorithm\" value=\"${RECOMMENDER_FALLBACK_ALGORITHM}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderCacheSize\" value=.*/<Environment name=\"recommenderCacheSize\" value=\"${RECOMMENDER_CACHE_SIZE}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderResponseMaxAge\" value=.*/<Environment name=\"recommenderResponseMaxAge\" value=\"${RECOMMENDER_RESPONSE_MAX_AGE}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderLatencyBudget\" value=.*/<Environment name=\"recommenderLatencyBudget\" value=\"${RECOMMENDER_LATENCY_BUDGET}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderShadowSampleRate\" value=.*/<Environment name=\"recommenderShadowSampleRate\" value=\"${RECOMMENDER_SHADOW_SAMPLE_RATE}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderCoPurchaseCartSize\" value=.*/<Environment name=\"recommenderCoPurchaseCartSize\" value=\"${RECOMMENDER_CO_PURCHASE_CART_SIZE}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderModelBudget\" value=.*/<Environment name=\"recommenderModelBudget\" value=\"${RECOMMENDER_MODEL_BUDGET}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderMinFrequency\" value=.*/<Environment name=\"recommenderMinFrequency\" value=\"${RECOMMENDER_MIN_FREQUENCY}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderPartitionedTraining\" value=.*/<Environment name=\"recommenderPartitionedTraining\" value=\"${RECOMMENDER_PARTITIONED_TRAINING}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderPopularityHalfLife\" value=.*/<Environment name=\"recommenderPopularityHalfLife\" value=\"${RECOMMENDER_POPULARITY_HALF_LIFE}\"/g" /usr/local/tomcat/conf/context.xml
+sed -i "s/<Environment name=\"recommenderSketchMemory\" value=.*/<Environment name=\"recommenderSketchMemory\" value=\"${RECOMMENDER_SKETCH_MEMORY}\"/g" /usr/local/tomcat/conf/context.xml
+if [ "$RECOMMENDER_SNAPSHOT_FILE" != "unset" ]
+then
+	sed -i "s|<Environment name=\"recommenderSnapshotFile\" value=.*|<Environment name=\"recommenderSnapshotFile\" value=\"${RECOMMENDER_SNAPSHOT_FILE}\"|g" /usr/local/tomcat/conf/context.xml
+fi
+if [ "$RECOMMENDER_SHADOW_ALGORITHM" != "unset" ]
+then
+	sed -i "s/<Environment name=\"recommenderShadowAlgorithm\" value=.*/<Environment name=\"recommenderShadowAlgorithm\" value=\"${RECOMMENDER_SHADOW_ALGORITHM}\"/g" /usr/local/tomcat/conf/context.xml
+fi
 if [ "$PROXY_NAME" != "unset" ] && [ "$PROXY_PORT" != "unset" ]
 then
 	sed -i "s/<Connector port=\"8080\" protocol=\"HTTP\/1.1\".*/<Connector port=\"8080\" protocol=\"HTTP\/1.1\" proxyName=\"${PROXY_NAME}\" proxyPort=\"${PROXY_PORT}\"/g" /usr/local/tomcat/conf/server.xml
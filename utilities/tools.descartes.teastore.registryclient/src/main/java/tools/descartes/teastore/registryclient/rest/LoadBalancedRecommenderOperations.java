@@ -14,6 +14,7 @@ import tools.descartes.teastore.registryclient.loadbalancers.ServiceLoadBalancer
 import tools.descartes.teastore.registryclient.util.NotFoundException;
 import tools.descartes.teastore.entities.Category;
 import tools.descartes.teastore.entities.OrderItem;
+import tools.descartes.teastore.entities.message.RecommendationRequest;
 
 /**
  * Container class for the static calls to the Store service.
@@ -55,4 +56,35 @@ public final class LoadBalancedRecommenderOperations {
 		}
 		return new ArrayList<>();
 	}
+
+	/**
+	 * Gets recommendations for many users or carts in one call. All requests are
+	 * answered by the same recommender instance.
+	 * 
+	 * @param requests
+	 *            list of requests, each with a userId (may be null) and the
+	 *            product ids in the cart
+	 * @throws NotFoundException
+	 *             If 404 was returned.
+	 * @throws LoadBalancerTimeoutException
+	 *             On receiving the 408 status code and on repeated load balancer
+	 *             socket timeouts.
+	 * @return List of recommended product ids for each request, in the order of
+	 *         the requests; empty if the recommendation failed
+	 */
+	public static List<List<Long>> getRecommendations(List<RecommendationRequest> requests)
+			throws NotFoundException, LoadBalancerTimeoutException {
+		Response r = ServiceLoadBalancer.loadBalanceRESTOperation(Service.RECOMMENDER, "recommend/batch",
+				Category.class, client -> ResponseWrapper.wrap(HttpWrapper.wrap(client.getEndpointTarget())
+						.post(Entity.entity(requests, MediaType.APPLICATION_JSON))));
+		if (r != null) {
+			if (r.getStatus() < 400) {
+				return r.readEntity(new GenericType<List<List<Long>>>() {
+				});
+			} else {
+				r.bufferEntity();
+			}
+		}
+		return new ArrayList<>();
+	}
 }